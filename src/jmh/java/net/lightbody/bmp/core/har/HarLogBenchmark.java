@@ -0,0 +1,55 @@
+package net.lightbody.bmp.core.har;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording of the entries in the HAR, with a capped entry store so a long run does not grow the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HarLogBenchmark {
+    private HarLog log;
+
+    @Setup
+    public void setUp() {
+        log = new HarLog(new HarNameVersion("benchmark", "1.0"));
+        log.getEntryStore().setMaxEntries(1000);
+    }
+
+    @Benchmark
+    public HarEntry addEntry() {
+        return record();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public HarEntry addEntryContended() {
+        return record();
+    }
+
+    private HarEntry record() {
+        HarEntry entry = new HarEntry("page", "20240101000000.0001");
+        entry.setRequest(new HarRequest("GET", "http://www.example.com/", "HTTP/1.1"));
+        entry.setResponse(new HarResponse(200, "OK", "HTTP/1.1"));
+        entry.setTimings(new HarTimings());
+        log.addEntry(entry);
+        log.entryCompleted(entry);
+        return entry;
+    }
+}
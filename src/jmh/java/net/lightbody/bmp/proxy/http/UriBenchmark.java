@@ -0,0 +1,56 @@
+package net.lightbody.bmp.proxy.http;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * URI handling of each proxied request: the escaping and default port rewrite of the client, and the parsing of the
+ * request URI by the JDK and by the embedded Jetty.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UriBenchmark {
+
+    @Param({
+            "http://www.example.com/path/to/resource.js?version=1.2.3&lang=en",
+            "https://www.example.com:443/search?q={a|b}&tags=[x]#top"})
+    public String url;
+    private String escaped;
+
+    @Setup
+    public void setUp() throws URISyntaxException {
+        escaped = BrowserMobHttpClient.makeUri(url).toString();
+    }
+
+    @Benchmark
+    public URI makeUri() throws URISyntaxException {
+        return BrowserMobHttpClient.makeUri(url);
+    }
+
+    @Benchmark
+    public URI javaNetUri() throws URISyntaxException {
+        return new URI(escaped);
+    }
+
+    @Benchmark
+    public net.lightbody.bmp.proxy.jetty.util.URI jettyUri() {
+        return new net.lightbody.bmp.proxy.jetty.util.URI(escaped);
+    }
+}
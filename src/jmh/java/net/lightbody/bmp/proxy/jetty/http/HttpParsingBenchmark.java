@@ -0,0 +1,85 @@
+package net.lightbody.bmp.proxy.jetty.http;
+
+import net.lightbody.bmp.proxy.jetty.util.LineInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a typical browser request head, as the proxy does it for each request it receives.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpParsingBenchmark {
+    private static final String REQUEST_LINE = "GET http://www.example.com/path/to/resource.js?version=1.2.3&lang=en HTTP/1.1\r\n";
+    private static final String HEADERS = "Host: www.example.com\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Referer: http://www.example.com/index.html\r\n"
+            + "Cookie: session=6f1c2a9e0b7d4c3a8e5f; theme=dark; consent=yes\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "\r\n";
+
+    private byte[] head;
+    private byte[] headers;
+    private HttpFields fields;
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() {
+        head = (REQUEST_LINE + HEADERS).getBytes(StandardCharsets.ISO_8859_1);
+        headers = HEADERS.getBytes(StandardCharsets.ISO_8859_1);
+        fields = new HttpFields();
+        request = new HttpRequest();
+    }
+
+    @Benchmark
+    public void lineInputReadLine(final Blackhole blackhole) throws IOException {
+        LineInput in = new LineInput(new ByteArrayInputStream(head));
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            blackhole.consume(line);
+        }
+        in.destroy();
+    }
+
+    @Benchmark
+    public HttpFields httpFieldsRead() throws IOException {
+        LineInput in = new LineInput(new ByteArrayInputStream(headers));
+        fields.clear();
+        fields.read(in);
+        in.destroy();
+        return fields;
+    }
+
+    @Benchmark
+    public HttpRequest httpRequestReadHeader() throws IOException {
+        LineInput in = new LineInput(new ByteArrayInputStream(head));
+        // the connections recycle their request objects the same way
+        request.recycle(null);
+        request.readHeader(in);
+        in.destroy();
+        return request;
+    }
+}
@@ -0,0 +1,60 @@
+package net.lightbody.bmp.proxy.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying a response body to the client while capturing it, compared to the plain copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClonedOutputStreamBenchmark {
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"1024", "65536", "1048576"})
+    public int bodySize;
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() {
+        chunk = new byte[CHUNK_SIZE];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) i;
+        }
+    }
+
+    @Benchmark
+    public OutputStream plainCopy() throws IOException {
+        return copy(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public OutputStream clonedCopy() throws IOException {
+        return copy(new ClonedOutputStream(OutputStream.nullOutputStream()));
+    }
+
+    private OutputStream copy(final OutputStream os) throws IOException {
+        for (int written = 0; written < bodySize; written += CHUNK_SIZE) {
+            os.write(chunk, 0, Math.min(CHUNK_SIZE, bodySize - written));
+        }
+        os.close();
+        return os;
+    }
+}
@@ -0,0 +1,38 @@
+package website.magyar.mitm.idgenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message ID generation, done for each request, by one thread and contended by several.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeStampBasedIdGeneratorBenchmark {
+    private final TimeStampBasedIdGenerator generator = new TimeStampBasedIdGenerator();
+
+    @Benchmark
+    public String nextIdentifier() {
+        return generator.nextIdentifier();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String nextIdentifierContended() {
+        return generator.nextIdentifier();
+    }
+}
@@ -11,6 +11,8 @@ public class HarEntry {
     private HarTimings timings;
     private String serverIPAddress;
     private String messageId;
+    // estimated size accounted by the HarEntryStore holding the entry, negative if the entry is not held
+    transient long storedSize = -1;
 
     public HarEntry(String pageref, String messageId) {
         this.pageref = pageref;
@@ -0,0 +1,207 @@
+package net.lightbody.bmp.core.har;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append optimized, concurrent store of the HAR entries.
+ * <p>
+ * Adding an entry is a lock-free append, that does not copy the entries already held (unlike a CopyOnWriteArrayList).
+ * The store may be capped by the number of entries and by the estimated size of their content; when a cap is hit,
+ * either the oldest entries are dropped, or the new ones are not stored, see {@link EvictionPolicy}. The size of an
+ * entry is accounted once the entry is completed, as it is added before its response arrives.
+ */
+public class HarEntryStore {
+    public enum EvictionPolicy {
+        /**
+         * The oldest entries are dropped to make room for the new ones.
+         */
+        DROP_OLDEST,
+        /**
+         * New entries are not stored while the store is full.
+         */
+        DROP_NEWEST
+    }
+
+    private final Queue<HarEntry> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private volatile int maxEntries = 0;
+    private volatile long maxBytes = 0;
+    private volatile EvictionPolicy evictionPolicy = EvictionPolicy.DROP_OLDEST;
+
+    /**
+     * Appends an entry.
+     *
+     * @return false if the entry was not stored, as the store is full and new entries are dropped
+     */
+    public boolean add(HarEntry entry) {
+        if (evictionPolicy == EvictionPolicy.DROP_NEWEST && isFull(1)) {
+            evicted.incrementAndGet();
+            return false;
+        }
+        synchronized (entry) {
+            entry.storedSize = 0;
+        }
+        entries.add(entry);
+        size.incrementAndGet();
+        evict();
+        return true;
+    }
+
+    /**
+     * Accounts the size of a completed entry, that may drop older entries when the size is capped.
+     */
+    public void completed(HarEntry entry) {
+        long estimate = estimateSize(entry);
+        synchronized (entry) {
+            if (entry.storedSize < 0) {
+                // not held (any more)
+                return;
+            }
+            bytes.addAndGet(estimate - entry.storedSize);
+            entry.storedSize = estimate;
+        }
+        evict();
+    }
+
+    /**
+     * Gets a snapshot of the entries, in the order they were added. Later changes of the store do not affect the snapshot.
+     */
+    public List<HarEntry> snapshot() {
+        return new ArrayList<>(entries);
+    }
+
+    public void clear() {
+        HarEntry entry;
+        while ((entry = entries.poll()) != null) {
+            forget(entry);
+        }
+    }
+
+    /**
+     * Removes an entry, if held.
+     *
+     * @return true if the entry was held
+     */
+    public boolean remove(HarEntry entry) {
+        if (entries.remove(entry)) {
+            forget(entry);
+            return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return the estimated size of the content of the completed entries held, in bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return the number of entries dropped because of the caps
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries is the maximum number of entries held, 0 for no limit
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param maxBytes is the maximum estimated size of the entries held, 0 for no limit
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    private boolean isFull(int adding) {
+        int max = maxEntries;
+        long maxSize = maxBytes;
+        return max > 0 && size.get() + adding > max || maxSize > 0 && bytes.get() > maxSize;
+    }
+
+    private void evict() {
+        if (evictionPolicy != EvictionPolicy.DROP_OLDEST) {
+            return;
+        }
+        while (isFull(0)) {
+            HarEntry entry = entries.poll();
+            if (entry == null) {
+                return;
+            }
+            forget(entry);
+            evicted.incrementAndGet();
+        }
+    }
+
+    private void forget(HarEntry entry) {
+        size.decrementAndGet();
+        synchronized (entry) {
+            if (entry.storedSize > 0) {
+                bytes.addAndGet(-entry.storedSize);
+            }
+            entry.storedSize = -1;
+        }
+    }
+
+    private static long estimateSize(HarEntry entry) {
+        long estimate = 0;
+        HarRequest request = entry.getRequest();
+        if (request != null) {
+            estimate += length(request.getUrl());
+            for (HarNameValuePair header : request.getHeaders()) {
+                estimate += length(header.getName()) + length(header.getValue());
+            }
+            if (request.getPostData() != null) {
+                estimate += length(request.getPostData().getText());
+            }
+        }
+        HarResponse response = entry.getResponse();
+        if (response != null) {
+            for (HarNameValuePair header : response.getHeaders()) {
+                estimate += length(header.getName()) + length(header.getValue());
+            }
+            if (response.getContent() != null) {
+                estimate += length(response.getContent().getText());
+            }
+        }
+        return estimate;
+    }
+
+    private static long length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
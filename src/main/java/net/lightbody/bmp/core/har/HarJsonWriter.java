@@ -0,0 +1,297 @@
+package net.lightbody.bmp.core.har;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes the HAR model as JSON, with the field names of the HAR 1.2 specification.
+ * Fields with null value are left out.
+ */
+public class HarJsonWriter {
+    private final Writer out;
+    private boolean first;
+
+    public HarJsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a whole HAR document.
+     */
+    public void write(Har har) throws IOException {
+        begin();
+        HarLog log = har.getLog();
+        if (log != null) {
+            out.write("\"log\":");
+            write(log);
+        }
+        end();
+    }
+
+    public void write(HarLog log) throws IOException {
+        begin();
+        field("version", log.getVersion());
+        nameVersion("creator", log.getCreator());
+        nameVersion("browser", log.getBrowser());
+        name("pages");
+        out.write('[');
+        List<HarPage> pages = log.getPages();
+        if (pages != null) {
+            for (int i = 0; i < pages.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                write(pages.get(i));
+            }
+        }
+        out.write(']');
+        name("entries");
+        out.write('[');
+        List<HarEntry> entries = log.getEntries();
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            write(entries.get(i));
+        }
+        out.write(']');
+        end();
+    }
+
+    public void write(HarPage page) throws IOException {
+        begin();
+        field("startedDateTime", page.getStartedDateTime());
+        field("id", page.getId());
+        field("title", page.getTitle());
+        HarPageTimings timings = page.getPageTimings();
+        if (timings != null) {
+            name("pageTimings");
+            begin();
+            field("onContentLoad", timings.getOnContentLoad());
+            field("onLoad", timings.getOnLoad());
+            end();
+        }
+        end();
+    }
+
+    public void write(HarEntry entry) throws IOException {
+        begin();
+        field("pageref", entry.getPageref());
+        field("startedDateTime", entry.getStartedDateTime());
+        field("time", entry.getTime());
+        HarRequest request = entry.getRequest();
+        if (request != null) {
+            name("request");
+            write(request);
+        }
+        HarResponse response = entry.getResponse();
+        if (response != null) {
+            name("response");
+            write(response);
+        }
+        name("cache");
+        out.write("{}");
+        HarTimings timings = entry.getTimings();
+        if (timings != null) {
+            name("timings");
+            begin();
+            field("blocked", timings.getBlocked());
+            field("dns", timings.getDns());
+            field("connect", timings.getConnect());
+            field("send", timings.getSend());
+            field("wait", timings.getWait());
+            field("receive", timings.getReceive());
+            end();
+        }
+        field("serverIPAddress", entry.getServerIPAddress());
+        field("_messageId", entry.getMessageId());
+        end();
+    }
+
+    private void write(HarRequest request) throws IOException {
+        begin();
+        field("method", request.getMethod());
+        field("url", request.getUrl());
+        field("httpVersion", request.getHttpVersion());
+        cookies(request.getCookies());
+        nameValuePairs("headers", request.getHeaders());
+        nameValuePairs("queryString", request.getQueryString());
+        HarPostData postData = request.getPostData();
+        if (postData != null) {
+            name("postData");
+            begin();
+            field("mimeType", postData.getMimeType());
+            List<HarPostDataParam> params = postData.getParams();
+            if (params != null) {
+                name("params");
+                out.write('[');
+                for (int i = 0; i < params.size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    HarPostDataParam param = params.get(i);
+                    begin();
+                    field("name", param.getName());
+                    field("value", param.getValue());
+                    field("fileName", param.getFileName());
+                    field("contentType", param.getContentType());
+                    end();
+                }
+                out.write(']');
+            }
+            field("text", postData.getText());
+            end();
+        }
+        field("headersSize", request.getHeadersSize());
+        field("bodySize", request.getBodySize());
+        end();
+    }
+
+    private void write(HarResponse response) throws IOException {
+        begin();
+        field("status", response.getStatus());
+        field("statusText", response.getStatusText());
+        field("httpVersion", response.getHttpVersion());
+        cookies(response.getCookies());
+        nameValuePairs("headers", response.getHeaders());
+        HarContent content = response.getContent();
+        if (content != null) {
+            name("content");
+            begin();
+            field("size", content.getSize());
+            field("mimeType", content.getMimeType());
+            field("text", content.getText());
+            end();
+        }
+        field("redirectURL", response.getRedirectURL());
+        field("headersSize", response.getHeadersSize());
+        field("bodySize", response.getBodySize());
+        end();
+    }
+
+    private void cookies(List<HarCookie> cookies) throws IOException {
+        name("cookies");
+        out.write('[');
+        if (cookies != null) {
+            for (int i = 0; i < cookies.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                HarCookie cookie = cookies.get(i);
+                begin();
+                field("name", cookie.getName());
+                field("value", cookie.getValue());
+                field("path", cookie.getPath());
+                field("domain", cookie.getDomain());
+                field("expires", cookie.getExpires());
+                end();
+            }
+        }
+        out.write(']');
+    }
+
+    private void nameValuePairs(String name, List<HarNameValuePair> pairs) throws IOException {
+        name(name);
+        out.write('[');
+        if (pairs != null) {
+            for (int i = 0; i < pairs.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                begin();
+                field("name", pairs.get(i).getName());
+                field("value", pairs.get(i).getValue());
+                end();
+            }
+        }
+        out.write(']');
+    }
+
+    private void nameVersion(String name, HarNameVersion nameVersion) throws IOException {
+        if (nameVersion != null) {
+            name(name);
+            begin();
+            field("name", nameVersion.getName());
+            field("version", nameVersion.getVersion());
+            end();
+        }
+    }
+
+    private void begin() throws IOException {
+        out.write('{');
+        first = true;
+    }
+
+    private void end() throws IOException {
+        out.write('}');
+        first = false;
+    }
+
+    private void name(String name) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        first = false;
+        string(name);
+        out.write(':');
+    }
+
+    private void field(String name, String value) throws IOException {
+        if (value != null) {
+            name(name);
+            string(value);
+        }
+    }
+
+    private void field(String name, Date value) throws IOException {
+        if (value != null) {
+            field(name, DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(OffsetDateTime.ofInstant(value.toInstant(), ZoneId.systemDefault())));
+        }
+    }
+
+    private void field(String name, Long value) throws IOException {
+        if (value != null) {
+            name(name);
+            out.write(Long.toString(value));
+        }
+    }
+
+    private void field(String name, long value) throws IOException {
+        name(name);
+        out.write(Long.toString(value));
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String escaped = null;
+            if (c == '"') {
+                escaped = "\\\"";
+            } else if (c == '\\') {
+                escaped = "\\\\";
+            } else if (c == '\n') {
+                escaped = "\\n";
+            } else if (c == '\r') {
+                escaped = "\\r";
+            } else if (c == '\t') {
+                escaped = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escaped = String.format("\\u%04x", (int) c);
+            }
+            if (escaped != null) {
+                out.write(value, start, i - start);
+                out.write(escaped);
+                start = i + 1;
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
@@ -2,13 +2,16 @@ package net.lightbody.bmp.core.har;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HarLog {
     private String version = "1.2";
     private HarNameVersion creator;
     private HarNameVersion browser;
     private List<HarPage> pages = new CopyOnWriteArrayList<HarPage>();
-    private List<HarEntry> entries = new CopyOnWriteArrayList<HarEntry>();
+    private final HarEntryStore entries = new HarEntryStore();
+    private final transient AtomicLong lastCompletedEntryEnd = new AtomicLong();
+    private transient volatile HarStreamWriter streamWriter;
 
     public HarLog(HarNameVersion creator) {
         this.creator = creator;
@@ -23,11 +26,44 @@ public class HarLog {
     }
 
     public void addEntry(HarEntry entry) {
-        if (entries == null) {
-            entries = new CopyOnWriteArrayList<>();
+        entries.add(entry);
+    }
+
+    /**
+     * Signals that an entry added before is complete, so its size can be accounted for the caps of the entry store.
+     * When the entries are streamed, the entry is handed over to the stream writer and is not held any more.
+     */
+    public void entryCompleted(HarEntry entry) {
+        if (entry.getStartedDateTime() != null) {
+            lastCompletedEntryEnd.accumulateAndGet(entry.getStartedDateTime().getTime() + entry.getTime(), Math::max);
         }
+        HarStreamWriter writer = streamWriter;
+        if (writer != null) {
+            if (entries.remove(entry)) {
+                writer.write(entry);
+            }
+        } else {
+            entries.completed(entry);
+        }
+    }
 
-        entries.add(entry);
+    /**
+     * @return the end time of the latest completed entry in ms, 0 if no entry is completed yet; this is kept even if
+     * the entry itself was streamed away or evicted
+     */
+    public long getLastCompletedEntryEnd() {
+        return lastCompletedEntryEnd.get();
+    }
+
+    public HarStreamWriter getStreamWriter() {
+        return streamWriter;
+    }
+
+    /**
+     * Sets the writer the completed entries are streamed to, instead of holding them; null to hold them again.
+     */
+    public void setStreamWriter(HarStreamWriter streamWriter) {
+        this.streamWriter = streamWriter;
     }
 
     public String getVersion() {
@@ -38,6 +74,14 @@ public class HarLog {
         this.version = version;
     }
 
+    public HarNameVersion getCreator() {
+        return creator;
+    }
+
+    public void setCreator(HarNameVersion creator) {
+        this.creator = creator;
+    }
+
     public HarNameVersion getBrowser() {
         return browser;
     }
@@ -54,11 +98,24 @@ public class HarLog {
         this.pages = pages;
     }
 
+    /**
+     * @return a snapshot of the entries, see {@link HarEntryStore#snapshot()}
+     */
     public List<HarEntry> getEntries() {
-        return entries;
+        return entries.snapshot();
     }
 
     public void setEntries(List<HarEntry> entries) {
-        this.entries = entries;
+        this.entries.clear();
+        if (entries != null) {
+            for (HarEntry entry : entries) {
+                this.entries.add(entry);
+                this.entries.completed(entry);
+            }
+        }
+    }
+
+    public HarEntryStore getEntryStore() {
+        return entries;
     }
 }
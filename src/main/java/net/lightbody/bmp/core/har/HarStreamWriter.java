@@ -0,0 +1,173 @@
+package net.lightbody.bmp.core.har;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the completed HAR entries to disk, as JSON Lines: one HAR 1.2 entry object per line.
+ * <p>
+ * A new file is started when the current one reached the size limit (counted before compression), or got older than
+ * the age limit. The file names are made of the prefix, the time the file was opened and a sequence number, like
+ * <code>har-20240101-120000-0.jsonl</code>, with <code>.gz</code> appended when the files are compressed.
+ * <p>
+ * Once a HAR log streams its entries to a writer (see {@link HarLog#setStreamWriter(HarStreamWriter)}), the completed
+ * entries are not held in memory any more.
+ */
+public class HarStreamWriter implements Closeable {
+    protected static final Logger logger = LoggerFactory.getLogger(HarStreamWriter.class);
+    private static final int BUFFER_SIZE = 65536;
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private final File directory;
+    private final String prefix;
+    private final long maxFileBytes;
+    private final long maxFileAgeMs;
+    private final boolean gzip;
+
+    private OutputStream out;
+    private File currentFile;
+    private long currentFileBytes;
+    private long currentFileOpened;
+    private int sequence;
+    private long entriesWritten;
+    private long failures;
+    private boolean closed;
+
+    /**
+     * @param directory    is where the files are written, it is created if missing
+     * @param prefix       is the start of the file names
+     * @param maxFileBytes is the size of the uncompressed content after which a new file is started, 0 for no limit
+     * @param maxFileAgeMs is the time after which a new file is started, 0 for no limit
+     * @param gzip         tells whether the files are compressed
+     */
+    public HarStreamWriter(final File directory, final String prefix, final long maxFileBytes, final long maxFileAgeMs, final boolean gzip) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileAgeMs = maxFileAgeMs;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Appends an entry. Failures are logged and counted, but not thrown, so the traffic is not broken by the disk.
+     */
+    public void write(final HarEntry entry) {
+        StringWriter json = new StringWriter(1024);
+        byte[] line;
+        try {
+            new HarJsonWriter(json).write(entry);
+            line = json.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Cannot serialize HAR entry of " + (entry.getRequest() == null ? null : entry.getRequest().getUrl()), e);
+            synchronized (this) {
+                failures++;
+            }
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                failures++;
+                return;
+            }
+            try {
+                rollIfNeeded(System.currentTimeMillis());
+                out.write(line);
+                out.write(NEW_LINE);
+                currentFileBytes += line.length + NEW_LINE.length;
+                entriesWritten++;
+            } catch (IOException e) {
+                logger.warn("Cannot write HAR entry to " + currentFile, e);
+                failures++;
+                closeCurrent();
+            }
+        }
+    }
+
+    /**
+     * Flushes the buffered entries to the current file. A compressed file is only complete once it is closed.
+     */
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Closes the current file; the next entry starts a new one.
+     */
+    public synchronized void roll() {
+        closeCurrent();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeCurrent();
+    }
+
+    public synchronized File getCurrentFile() {
+        return currentFile;
+    }
+
+    public synchronized long getEntriesWritten() {
+        return entriesWritten;
+    }
+
+    /**
+     * @return the number of entries that could not be written
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    private void rollIfNeeded(final long now) throws IOException {
+        if (out != null && (maxFileBytes > 0 && currentFileBytes >= maxFileBytes
+                || maxFileAgeMs > 0 && now - currentFileOpened >= maxFileAgeMs)) {
+            closeCurrent();
+        }
+        if (out == null) {
+            open(now);
+        }
+    }
+
+    private void open(final long now) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create HAR directory " + directory);
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(now));
+        File file = new File(directory, prefix + "-" + timestamp + "-" + sequence++ + (gzip ? ".jsonl.gz" : ".jsonl"));
+        OutputStream stream = new FileOutputStream(file);
+        try {
+            out = gzip ? new GZIPOutputStream(stream, BUFFER_SIZE) : new BufferedOutputStream(stream, BUFFER_SIZE);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+        currentFile = file;
+        currentFileBytes = 0;
+        currentFileOpened = now;
+    }
+
+    private void closeCurrent() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Cannot close HAR file " + currentFile, e);
+            }
+            out = null;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package net.lightbody.bmp.proxy;
 
 import net.lightbody.bmp.proxy.http.BadURIException;
 import net.lightbody.bmp.proxy.http.BrowserMobHttpClient;
+import website.magyar.mitm.proxy.ProxyServer;
 import website.magyar.mitm.proxy.http.MitmJavaProxyHttpRequest;
 import website.magyar.mitm.proxy.http.MitmJavaProxyHttpResponse;
 import net.lightbody.bmp.proxy.http.RequestCallback;
@@ -16,6 +17,7 @@ import net.lightbody.bmp.proxy.jetty.jetty.BmpServer;
 import net.lightbody.bmp.proxy.jetty.util.InetAddrPort;
 import net.lightbody.bmp.proxy.jetty.util.URI;
 import net.lightbody.bmp.proxy.selenium.SeleniumProxyHandler;
+import net.lightbody.bmp.proxy.util.RequestBodyBuffer;
 import org.apache.http.Header;
 import org.apache.http.StatusLine;
 import org.apache.http.conn.ConnectTimeoutException;
@@ -23,8 +25,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.BindException;
@@ -133,6 +133,11 @@ public class BrowserMobProxyHandler extends SeleniumProxyHandler {
 
     @Override
     protected void wireUpSslWithCyberVilliansCA(String host, final SeleniumProxyHandler.SslRelay listener) {
+        super.wireUpSslWithCyberVilliansCA(getCertificateHostname(host), listener);
+    }
+
+    @Override
+    protected String getCertificateHostname(String host) {
         List<String> originalHosts = httpClient.originalHosts(host);
         if (originalHosts != null && !originalHosts.isEmpty()) {
             if (originalHosts.size() == 1) {
@@ -144,7 +149,7 @@ public class BrowserMobProxyHandler extends SeleniumProxyHandler {
                 host = "*" + first.substring(first.indexOf('.'));
             }
         }
-        super.wireUpSslWithCyberVilliansCA(host, listener);
+        return host;
     }
 
     @Override
@@ -195,6 +200,7 @@ public class BrowserMobProxyHandler extends SeleniumProxyHandler {
     @SuppressWarnings({"unchecked"})
     protected long proxyPlainTextRequest(final URL url, final String pathInContext, final String pathParams, final HttpRequest request,
                                          final HttpResponse response) {
+        RequestBodyBuffer bodyBuffer = null;
         try {
             String urlStr = url.toString();
 
@@ -273,10 +279,10 @@ public class BrowserMobProxyHandler extends SeleniumProxyHandler {
                 // do input thing!
                 InputStream in = request.getInputStream();
                 if (hasContent) {
-                    ByteArrayOutputStream baos = writeOutputStream(in);
-                    contentLength = baos.size();
-                    httpReq.setPlayGround(new ByteArrayInputStream(baos.toByteArray()));
-                    httpReq.setRequestInputStream(new ByteArrayInputStream(baos.toByteArray()), contentLength);
+                    // a single buffer is shared by the play ground and the upstream request, large bodies go to a temp file
+                    bodyBuffer = RequestBodyBuffer.read(in, ProxyServer.getRequestBodySpillThreshold());
+                    httpReq.setPlayGround(bodyBuffer.newInputStream());
+                    httpReq.setRequestBodyBuffer(bodyBuffer);
                 }
             } catch (Exception e) {
                 logger.debug(e.getMessage(), e);
@@ -328,20 +334,13 @@ public class BrowserMobProxyHandler extends SeleniumProxyHandler {
             logger.info("Exception while proxying " + url, e);
             BrowserMobProxyHandler.reportError(e, url, response);
             return -1;
+        } finally {
+            if (bodyBuffer != null) {
+                bodyBuffer.release();
+            }
         }
     }
 
-    private ByteArrayOutputStream writeOutputStream(final InputStream inputStream) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        int len;
-        while ((len = inputStream.read(buffer)) > -1) {
-            baos.write(buffer, 0, len);
-        }
-        baos.flush();
-        return baos;
-    }
-
     public void rewriteUrl(final String match, final String replace) {
         httpClient.rewriteUrl(match, replace);
     }
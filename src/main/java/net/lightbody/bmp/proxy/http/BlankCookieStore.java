@@ -11,13 +11,17 @@ import java.util.List;
 public class BlankCookieStore implements CookieStore {
     @Override
     public void addCookie(Cookie cookie) {
+        RequestInfo info = RequestInfo.get();
+        if (info.getEntry() == null) {
+            return;
+        }
         HarCookie hc = new HarCookie();
         hc.setDomain(cookie.getDomain());
         hc.setExpires(cookie.getExpiryDate());
         hc.setName(cookie.getName());
         hc.setValue(cookie.getValue());
         hc.setPath(cookie.getPath());
-        RequestInfo.get().getEntry().getResponse().getCookies().add(hc);
+        info.getEntry().getResponse().getCookies().add(hc);
     }
 
     @Override
@@ -3,6 +3,7 @@ package net.lightbody.bmp.proxy.http;
 import org.apache.http.conn.scheme.HostNameResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xbill.DNS.AAAARecord;
 import org.xbill.DNS.ARecord;
 import org.xbill.DNS.Address;
 import org.xbill.DNS.Cache;
@@ -15,32 +16,85 @@ import org.xbill.DNS.Resolver;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Resolves the host names with dnsjava.
+ * <p>
+ * The resolved addresses are cached for the TTL of their records, and the failures for the negative cache timeout.
+ * Concurrent lookups of the same name are coalesced into one. Both A and AAAA records are asked for (AAAA only if
+ * there is no A record, unless IPv6 is enabled), and the connections are spread round-robin over all the addresses.
+ * In async mode the lookups run on a bounded resolver executor, asking for the A and AAAA records in parallel.
+ * Transient failures (the name server asked to try again) are not cached.
+ */
 public class BrowserMobHostNameResolver implements HostNameResolver {
+    private static final int DEFAULT_NEGATIVE_CACHE_TIMEOUT = 5000;
+    private static final int MAX_RESOLUTIONS = 10000;
+    private static final int MAX_LOOKUP_THREADS = 16;
+    private static final Record[] NO_RECORDS = new Record[0];
+    private static ExecutorService lookupExecutor;
+
     protected final Logger logger = LoggerFactory.getLogger(BrowserMobHostNameResolver.class);
-    private final Map<String, String> remappings = new ConcurrentHashMap<String, String>();
-    private final Map<String, List<String>> reverseMapping = new ConcurrentHashMap<String, List<String>>();
+    private volatile HostRemapTable remappings = HostRemapTable.EMPTY;
+    private volatile HostRemapTable hostsTable = HostRemapTable.EMPTY;
+    private volatile File hostsFile;
+    private volatile long hostsFileModified;
+    private final Map<String, Resolution> resolutions = new ConcurrentHashMap<String, Resolution>();
+    private final Map<String, CompletableFuture<Resolution>> pendingLookups = new ConcurrentHashMap<String, CompletableFuture<Resolution>>();
 
     private Cache cache;
     private Resolver resolver;
+    private volatile boolean async;
+    private volatile boolean ipv6Enabled;
+    private volatile int negativeCacheTimeout = DEFAULT_NEGATIVE_CACHE_TIMEOUT;
+    private volatile int cacheTimeout = -1;
 
     public BrowserMobHostNameResolver(Cache cache) {
         this.cache = cache;
         resolver = new ExtendedResolver();
-        remappings.put("localhost", "127.0.0.1");
+        remap("localhost", "127.0.0.1");
+    }
+
+    private static synchronized ExecutorService getLookupExecutor() {
+        if (lookupExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LOOKUP_THREADS, MAX_LOOKUP_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread thread = new Thread(r, "DnsLookup-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            lookupExecutor = executor;
+        }
+        return lookupExecutor;
     }
 
     @Override
     public InetAddress resolve(String hostname) throws IOException {
-        String remapping = remappings.get(hostname);
+        String remapping = remapping(hostname);
         if (remapping != null) {
             hostname = remapping;
         }
@@ -51,23 +105,15 @@ public class BrowserMobHostNameResolver implements HostNameResolver {
             // that's fine, this just means it's not an IP address and we gotta look it up, which is common
         }
 
-        boolean isCached = this.isCached(hostname);
-
-        Lookup lookup = new Lookup(Name.fromString(hostname), Type.A);
-        lookup.setCache(cache);
-        lookup.setResolver(resolver);
-
-        Date start = new Date();
-        Record[] records = lookup.run();
-        Date end = new Date();
-
-        if (records == null || records.length == 0) {
-            throw new UnknownHostException(hostname);
+        long start = System.nanoTime();
+        Resolution resolution = resolutions.get(hostname);
+        boolean isCached = resolution != null && !resolution.isExpired(System.currentTimeMillis());
+        if (!isCached) {
+            resolution = await(hostname, lookup(hostname));
         }
+        long end = System.nanoTime();
 
-        // assembly the addr object
-        ARecord a = (ARecord) records[0];
-        InetAddress addr = InetAddress.getByAddress(hostname, a.getAddress().getAddress());
+        InetAddress addr = resolution.next(hostname);
 
         if (!isCached) {
             // TODO: Associate the the host name with the connection. We do this because when using persistent
@@ -83,33 +129,272 @@ public class BrowserMobHostNameResolver implements HostNameResolver {
         return addr;
     }
 
-    public void remap(String source, String target) {
-        remappings.put(source, target);
-        List<String> list = reverseMapping.get(target);
-        if (list == null) {
-            list = new ArrayList<>();
+    /**
+     * Starts a lookup, or joins the one in progress for the same name.
+     */
+    private CompletableFuture<Resolution> lookup(String hostname) {
+        CompletableFuture<Resolution> future = new CompletableFuture<Resolution>();
+        CompletableFuture<Resolution> pending = pendingLookups.putIfAbsent(hostname, future);
+        if (pending != null) {
+            return pending;
+        }
+        if (async) {
+            queryAsync(hostname).whenComplete((resolution, e) -> complete(hostname, future, resolution, e));
+        } else {
+            try {
+                complete(hostname, future, query(hostname), null);
+            } catch (Exception e) {
+                complete(hostname, future, null, e);
+            }
+        }
+        return future;
+    }
+
+    private void complete(String hostname, CompletableFuture<Resolution> future, Resolution resolution, Throwable failure) {
+        try {
+            if (failure != null) {
+                // not cached, the next request looks it up again
+                future.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+                return;
+            }
+            if (resolutions.size() >= MAX_RESOLUTIONS) {
+                evict();
+            }
+            resolutions.put(hostname, resolution);
+            future.complete(resolution);
+        } finally {
+            pendingLookups.remove(hostname, future);
         }
-        list.add(source);
-        reverseMapping.put(target, list);
+    }
+
+    /**
+     * Makes room in the resolutions: the expired ones go first, then live ones too, as they can be looked up again.
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        resolutions.values().removeIf(r -> r.isExpired(now));
+        Iterator<String> names = resolutions.keySet().iterator();
+        while (resolutions.size() > MAX_RESOLUTIONS - MAX_RESOLUTIONS / 10 && names.hasNext()) {
+            names.next();
+            names.remove();
+        }
+    }
+
+    private Resolution await(String hostname, CompletableFuture<Resolution> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while resolving " + hostname);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot resolve " + hostname, e.getCause());
+        }
+    }
+
+    private Resolution query(String hostname) throws IOException {
+        Name name = Name.fromString(hostname);
+        Record[] aRecords = run(name, Type.A);
+        Record[] aaaaRecords = ipv6Enabled || isEmpty(aRecords) ? run(name, Type.AAAA) : NO_RECORDS;
+        return resolution(hostname, aRecords, aaaaRecords);
+    }
+
+    /**
+     * Same as {@link #query(String)}, but the records are asked for on the resolver executor, and no lookup waits
+     * for another one, so the bounded executor cannot run out of threads.
+     */
+    private CompletableFuture<Resolution> queryAsync(String hostname) {
+        Name name;
+        try {
+            name = Name.fromString(hostname);
+        } catch (TextParseException e) {
+            CompletableFuture<Resolution> failed = new CompletableFuture<Resolution>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        ExecutorService executor = getLookupExecutor();
+        CompletableFuture<Record[]> aLookup = CompletableFuture.supplyAsync(() -> run(name, Type.A), executor);
+        CompletableFuture<Record[]> aaaaLookup = ipv6Enabled
+                ? CompletableFuture.supplyAsync(() -> run(name, Type.AAAA), executor)
+                : aLookup.thenApplyAsync(aRecords -> isEmpty(aRecords) ? run(name, Type.AAAA) : NO_RECORDS, executor);
+        return aLookup.thenCombine(aaaaLookup, (aRecords, aaaaRecords) -> {
+            try {
+                return resolution(hostname, aRecords, aaaaRecords);
+            } catch (UnknownHostException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static boolean isEmpty(Record[] records) {
+        return records == null || records.length == 0;
+    }
+
+    /**
+     * @param aRecords    the A records, null if the lookup failed transiently
+     * @param aaaaRecords the AAAA records, null if the lookup failed transiently
+     * @throws UnknownHostException if no address was found, and a lookup failed transiently, so it is not cached
+     */
+    private Resolution resolution(String hostname, Record[] aRecords, Record[] aaaaRecords) throws UnknownHostException {
+        List<InetAddress> addresses = new ArrayList<InetAddress>();
+        long ttl = Long.MAX_VALUE;
+        for (Record[] records : Arrays.asList(aRecords, aaaaRecords)) {
+            if (records == null) {
+                continue;
+            }
+            for (Record record : records) {
+                InetAddress address = null;
+                if (record instanceof ARecord) {
+                    address = ((ARecord) record).getAddress();
+                } else if (record instanceof AAAARecord) {
+                    address = ((AAAARecord) record).getAddress();
+                }
+                if (address != null) {
+                    try {
+                        addresses.add(InetAddress.getByAddress(hostname, address.getAddress()));
+                        ttl = Math.min(ttl, record.getTTL());
+                    } catch (UnknownHostException e) {
+                        // cannot happen, the address is of valid length
+                    }
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if (addresses.isEmpty() && (aRecords == null || aaaaRecords == null)) {
+            throw new UnknownHostException("Temporary failure in the name resolution of " + hostname);
+        }
+        if (addresses.isEmpty()) {
+            logger.debug("No address found for {}, caching the failure for {} ms", hostname, negativeCacheTimeout);
+            return new Resolution(new InetAddress[0], now + negativeCacheTimeout);
+        }
+        int maxTtl = cacheTimeout;
+        if (maxTtl >= 0) {
+            ttl = Math.min(ttl, maxTtl);
+        }
+        return new Resolution(addresses.toArray(new InetAddress[0]), now + ttl * 1000);
+    }
+
+    /**
+     * @return the records, empty if there is none, or null if the lookup failed transiently and may succeed if retried
+     */
+    private Record[] run(Name name, int type) {
+        Lookup lookup = new Lookup(name, type);
+        lookup.setCache(cache);
+        lookup.setResolver(resolver);
+        Record[] records = lookup.run();
+        if (records != null) {
+            return records;
+        }
+        return lookup.getResult() == Lookup.TRY_AGAIN ? null : NO_RECORDS;
+    }
+
+    /**
+     * Remaps a host name, or all the subdomains matching a wildcard rule like *.internal.example, to the target.
+     * These remappings take precedence over the ones of the hosts file.
+     */
+    public synchronized void remap(String source, String target) {
+        remappings = remappings.with(source, target);
     }
 
     public String remapping(String host) {
-        return remappings.get(host);
+        String target = remappings.lookup(host);
+        return target != null ? target : hostsTable.lookup(host);
     }
 
     public List<String> original(String host) {
-        return reverseMapping.get(host);
+        List<String> sources = remappings.sources(host);
+        List<String> hostsSources = hostsTable.sources(host);
+        if (sources == null || hostsSources == null) {
+            return sources != null ? sources : hostsSources;
+        }
+        List<String> all = new ArrayList<String>(sources);
+        all.addAll(hostsSources);
+        return all;
+    }
+
+    /**
+     * Loads a hosts file style remapping table, replacing the one loaded before. The new table is swapped in at once,
+     * the lookups in progress are not blocked. When the target of a host is an IP address, DNS is not asked at all.
+     *
+     * @param file is the hosts file, see {@link HostRemapTable#parse(java.io.Reader)} for its format
+     * @throws IOException if the file cannot be read or parsed, in which case the previous table is kept
+     */
+    public void loadHostsFile(File file) throws IOException {
+        long modified = file.lastModified();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            hostsTable = HostRemapTable.parse(reader);
+        }
+        hostsFile = file;
+        hostsFileModified = modified;
+        logger.info("Loaded {} host remappings from {}", hostsTable.size(), file);
+    }
+
+    /**
+     * Reloads the hosts file, if it was modified since it was loaded.
+     *
+     * @return true if the file was reloaded
+     */
+    public boolean reloadHostsFileIfModified() {
+        File file = hostsFile;
+        if (file == null || file.lastModified() == hostsFileModified) {
+            return false;
+        }
+        try {
+            loadHostsFile(file);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Cannot reload hosts file " + file + ", keeping the previous remappings", e);
+            hostsFileModified = file.lastModified();
+            return false;
+        }
     }
 
     public void clearCache() {
         this.cache.clearCache();
+        resolutions.clear();
     }
 
     public void setCacheTimeout(int timeout) {
         cache.setMaxCache(timeout);
+        cacheTimeout = timeout;
+    }
+
+    /**
+     * Sets the time (in ms) a failed lookup is remembered for, 0 to not remember failures.
+     */
+    public void setNegativeCacheTimeout(int negativeCacheTimeout) {
+        this.negativeCacheTimeout = negativeCacheTimeout;
+    }
+
+    /**
+     * Sets the resolver the queries are sent with, the system name servers by default.
+     */
+    void setResolver(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Makes the lookups run on the resolver executor, asking for the A and AAAA records in parallel.
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    /**
+     * Makes the AAAA records used together with the A records, not only if there is no A record.
+     */
+    public void setIpv6Enabled(boolean ipv6Enabled) {
+        this.ipv6Enabled = ipv6Enabled;
     }
 
     public boolean isCached(String hostname) throws TextParseException {
+        Resolution resolution = resolutions.get(hostname);
+        if (resolution != null && !resolution.isExpired(System.currentTimeMillis())) {
+            return true;
+        }
         return cache.lookupRecords(Name.fromString(hostname), Type.ANY, 3).isSuccessful();
     }
 
@@ -119,6 +404,7 @@ public class BrowserMobHostNameResolver implements HostNameResolver {
         //putting in a good long TTL, and using an A record, but AAAA might be desired as well for IPv6
         Record aRec = new ARecord(host, Type.A, 9999999, getInetAddressFromString(ipAddress));
         Lookup.getDefaultCache(Type.A).addRecord(aRec, Credibility.NORMAL);
+        resolutions.remove(hostname);
     }
 
     private InetAddress getInetAddressFromString(String ip) throws UnknownHostException {
@@ -137,4 +423,29 @@ public class BrowserMobHostNameResolver implements HostNameResolver {
         }
         return addr;
     }
+
+    /**
+     * The outcome of a lookup: the addresses, handed out round-robin, or none if the lookup failed.
+     */
+    private static final class Resolution {
+        private final InetAddress[] addresses;
+        private final long expires;
+        private final AtomicInteger next = new AtomicInteger();
+
+        private Resolution(InetAddress[] addresses, long expires) {
+            this.addresses = addresses;
+            this.expires = expires;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+        private InetAddress next(String hostname) throws UnknownHostException {
+            if (addresses.length == 0) {
+                throw new UnknownHostException(hostname);
+            }
+            return addresses[Math.floorMod(next.getAndIncrement(), addresses.length)];
+        }
+    }
 }
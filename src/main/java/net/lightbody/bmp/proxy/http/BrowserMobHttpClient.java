@@ -3,6 +3,7 @@ package net.lightbody.bmp.proxy.http;
 import net.lightbody.bmp.core.har.Har;
 import net.lightbody.bmp.core.har.HarCookie;
 import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarLog;
 import net.lightbody.bmp.core.har.HarNameValuePair;
 import net.lightbody.bmp.core.har.HarPostData;
 import net.lightbody.bmp.core.har.HarPostDataParam;
@@ -13,6 +14,7 @@ import net.lightbody.bmp.proxy.util.Base64;
 import net.lightbody.bmp.proxy.util.CappedByteArrayOutputStream;
 import net.lightbody.bmp.proxy.util.ClonedOutputStream;
 import net.lightbody.bmp.proxy.util.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
 import org.apache.http.Header;
 import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpConnection;
@@ -56,6 +58,7 @@ import org.apache.http.cookie.MalformedCookieException;
 import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.impl.cookie.BrowserCompatSpec;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.ExecutionContext;
@@ -68,11 +71,13 @@ import org.xbill.DNS.DClass;
 import website.magyar.mitm.proxy.ProxyServer;
 import website.magyar.mitm.proxy.RequestInterceptor;
 import website.magyar.mitm.proxy.ResponseInterceptor;
+import website.magyar.mitm.proxy.StreamingResponseInterceptor;
 import website.magyar.mitm.proxy.http.MitmJavaProxyHttpRequest;
 import website.magyar.mitm.proxy.http.MitmJavaProxyHttpResponse;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -83,19 +88,21 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -111,11 +118,12 @@ public class BrowserMobHttpClient {
     private final List<RewriteRule> rewriteRules = new CopyOnWriteArrayList<RewriteRule>();
     private final List<RequestInterceptor> requestInterceptors = new CopyOnWriteArrayList<RequestInterceptor>();
     private final List<ResponseInterceptor> responseInterceptors = new CopyOnWriteArrayList<ResponseInterceptor>();
+    private final List<StreamingResponseInterceptor> streamingResponseInterceptors = new CopyOnWriteArrayList<StreamingResponseInterceptor>();
     private final HashMap<String, String> additionalHeaders = new LinkedHashMap<String, String>();
     private final AtomicBoolean allowNewRequests = new AtomicBoolean(true);
     // not using CopyOnWriteArray because we're WRITE heavy and it is for READ heavy operations
-    // instead doing it the old fashioned way with a synchronized block
-    private final Set<ActiveRequest> activeRequests = new HashSet<ActiveRequest>();
+    // each request registers its own timeout, see HttpClientInterrupter, so no lock is shared by the requests
+    private final Set<ActiveRequest> activeRequests = ConcurrentHashMap.newKeySet();
     private final SimulatedSocketFactory socketFactory;
     private final TrustingSSLSocketFactory sslSocketFactory;
     private final PoolingHttpClientConnectionManager httpClientConnMgr;
@@ -133,6 +141,17 @@ public class BrowserMobHttpClient {
 
     private boolean followRedirects = true;
     private AtomicInteger requestCounter;
+    private volatile int idleConnectionTimeout = 0;
+    private volatile int connectionAcquireTimeout = 0;
+    private volatile Http2UpstreamClient http2Client;
+    private volatile boolean upstreamProxySet = false;
+    private volatile RequestCoalescer requestCoalescer;
+    private volatile ResponseCache responseCache;
+    private volatile LatencyHistograms latencyHistograms;
+    private final LongAdder requestBodyBytes = new LongAdder();
+    private final LongAdder responseBodyBytes = new LongAdder();
+    private final LongAdder requestInterceptorNanos = new LongAdder();
+    private final LongAdder responseInterceptorNanos = new LongAdder();
 
     public BrowserMobHttpClient(final AtomicInteger requestCounter, final int requestTimeOut) {
         this.requestCounter = requestCounter;
@@ -164,11 +183,15 @@ public class BrowserMobHttpClient {
                     public HttpClientConnection get(
                             final long timeout,
                             final TimeUnit timeUnit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
-                        Date start = new Date();
+                        long start = System.nanoTime();
                         try {
+                            int acquireTimeout = connectionAcquireTimeout;
+                            if (acquireTimeout > 0) {
+                                return wrapped.get(acquireTimeout, TimeUnit.MILLISECONDS);
+                            }
                             return wrapped.get(timeout, timeUnit);
                         } finally {
-                            RequestInfo.get().blocked(start, new Date());
+                            RequestInfo.get().blocked(start, System.nanoTime());
                         }
                     }
                 };
@@ -213,6 +236,20 @@ public class BrowserMobHttpClient {
         hostNameResolver.remap(source, target);
     }
 
+    /**
+     * Loads a hosts file style remapping table, see {@link BrowserMobHostNameResolver#loadHostsFile(File)}.
+     */
+    public void loadHostsFile(final File hostsFile) throws IOException {
+        hostNameResolver.loadHostsFile(hostsFile);
+    }
+
+    /**
+     * Reloads the hosts file, if it was modified since it was loaded.
+     */
+    public void reloadHostsFileIfModified() {
+        hostNameResolver.reloadHostsFileIfModified();
+    }
+
     public void addRequestInterceptor(final RequestInterceptor interceptor) {
         requestInterceptors.add(interceptor);
     }
@@ -221,6 +258,10 @@ public class BrowserMobHttpClient {
         responseInterceptors.add(interceptor);
     }
 
+    public void addStreamingResponseInterceptor(final StreamingResponseInterceptor interceptor) {
+        streamingResponseInterceptors.add(interceptor);
+    }
+
     public MitmJavaProxyHttpRequest newPost(final String url, final net.lightbody.bmp.proxy.jetty.http.HttpRequest proxyRequest) {
         try {
             URI uri = makeUri(url);
@@ -275,7 +316,7 @@ public class BrowserMobHttpClient {
         }
     }
 
-    private URI makeUri(String url) throws URISyntaxException {
+    static URI makeUri(String url) throws URISyntaxException {
         // MOB-120: check for | character and change to correctly escaped %7C
         url = url.replace(" ", "%20");
         url = url.replace(">", "%3C");
@@ -329,17 +370,139 @@ public class BrowserMobHttpClient {
             entry.setResponse(new HarResponse(-998, "Bad URI", "HTTP/1.1"));
             entry.setTimings(new HarTimings());
             har.getLog().addEntry(entry);
+            har.getLog().entryCompleted(entry);
         }
 
         throw new BadURIException("Bad URI requested: " + url);
     }
 
+    /**
+     * Aborts the active requests that are over the request timeout. The timeouts are enforced by the requests
+     * themselves, this is only a safety net, e.g. after the request timeout was shortened; it is called by the
+     * housekeeping of the {@link HttpClientInterrupter} every second.
+     */
     public void checkTimeout() {
-        synchronized (activeRequests) {
-            for (ActiveRequest activeRequest : activeRequests) {
-                activeRequest.checkTimeout();
+        for (ActiveRequest activeRequest : activeRequests) {
+            activeRequest.checkTimeout();
+        }
+    }
+
+    /**
+     * Closes the expired pooled connections, and the ones idle for longer than the idle connection timeout.
+     */
+    public void closeIdleConnections() {
+        if (shutdown) {
+            return;
+        }
+        httpClientConnMgr.closeExpiredConnections();
+        int idleTimeout = idleConnectionTimeout;
+        if (idleTimeout > 0) {
+            httpClientConnMgr.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sets the maximum number of pooled upstream connections, in total.
+     */
+    public void setMaxConnections(final int maxConnections) {
+        httpClientConnMgr.setMaxTotal(maxConnections);
+    }
+
+    /**
+     * Sets the maximum number of pooled upstream connections to a single host, unless set for the host itself.
+     */
+    public void setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+        httpClientConnMgr.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    }
+
+    /**
+     * Sets the maximum number of pooled upstream connections to a given host, when it is called directly.
+     *
+     * @param target                 is the scheme, host and optional port of the upstream, like https://example.com:8443
+     * @param maxConnectionsPerRoute is the limit of the host
+     */
+    public void setMaxConnectionsPerRoute(final String target, final int maxConnectionsPerRoute) {
+        httpClientConnMgr.setMaxPerRoute(toRoute(target), maxConnectionsPerRoute);
+    }
+
+    /**
+     * Sets the time after which an idle pooled connection is checked before it is used again; 0 or less disables the check.
+     */
+    public void setValidateAfterInactivity(final int validateAfterInactivity) {
+        httpClientConnMgr.setValidateAfterInactivity(validateAfterInactivity);
+    }
+
+    /**
+     * Sets the time after which idle pooled connections are closed; 0 or less keeps them till they expire.
+     */
+    public void setIdleConnectionTimeout(final int idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    /**
+     * Sets the maximum time to wait for a connection from the pool, when the limits are reached; 0 or less waits as long as needed.
+     */
+    public void setConnectionAcquireTimeout(final int connectionAcquireTimeout) {
+        this.connectionAcquireTimeout = connectionAcquireTimeout;
+    }
+
+    /**
+     * Sets the number of TLS sessions kept for resumption with the upstream servers, 0 for no limit.
+     */
+    public void setSslSessionCacheSize(final int size) {
+        sslSocketFactory.setSessionCacheSize(size);
+    }
+
+    /**
+     * Sets the time (in seconds) a TLS session with an upstream server can be resumed for, 0 for no limit.
+     */
+    public void setSslSessionTimeout(final int seconds) {
+        sslSocketFactory.setSessionTimeout(seconds);
+    }
+
+    /**
+     * @return the number of upstream TLS handshakes that established a new session
+     */
+    public long getSslFullHandshakes() {
+        return sslSocketFactory.getFullHandshakes();
+    }
+
+    /**
+     * @return the number of upstream TLS handshakes that resumed a cached session
+     */
+    public long getSslResumedHandshakes() {
+        return sslSocketFactory.getResumedHandshakes();
+    }
+
+    /**
+     * @return the number of leased, available and pending connections, and the limit of the whole pool
+     */
+    public PoolStats getConnectionPoolStats() {
+        return httpClientConnMgr.getTotalStats();
+    }
+
+    /**
+     * @return the pool statistics of each route in use, keyed by the target of the route, like https://example.com:443
+     */
+    public Map<String, PoolStats> getConnectionPoolRouteStats() {
+        Map<String, PoolStats> stats = new TreeMap<String, PoolStats>();
+        for (HttpRoute route : httpClientConnMgr.getRoutes()) {
+            String key = route.getTargetHost().toURI();
+            if (route.getProxyHost() != null) {
+                key += " via " + route.getProxyHost().toURI();
             }
+            stats.put(key, httpClientConnMgr.getStats(route));
+        }
+        return stats;
+    }
+
+    private static HttpRoute toRoute(final String target) {
+        HttpHost host = HttpHost.create(target);
+        boolean secure = "https".equalsIgnoreCase(host.getSchemeName());
+        if (host.getPort() < 0) {
+            host = new HttpHost(host.getHostName(), secure ? 443 : 80, host.getSchemeName());
         }
+        return new HttpRoute(host, null, secure);
     }
 
     //MAIN METHOD TO HANDLE A REQUEST AND PREPARE A RESULT
@@ -353,23 +516,45 @@ public class BrowserMobHttpClient {
             req.setResponseVolatile(isResponseVolatile);
 
             requestCounter.incrementAndGet();
-            for (RequestInterceptor interceptor : requestInterceptors) {
-                interceptor.process(req);
+            if (!requestInterceptors.isEmpty()) {
+                long start = System.nanoTime();
+                for (RequestInterceptor interceptor : requestInterceptors) {
+                    interceptor.process(req);
+                }
+                requestInterceptorNanos.add(System.nanoTime() - start);
             }
 
             // Response volatility might be overwritten in request interceptors, but not later, so from now it is fixed:
             isResponseVolatile = req.getResponseVolatile();
 
-            MitmJavaProxyHttpResponse response = execute(req, 1, isResponseVolatile);
+            // Volatile responses are streamed through the streaming interceptors (if any), instead of being buffered
+            boolean isResponseStreamed = isResponseVolatile && !streamingResponseInterceptors.isEmpty();
 
-            for (ResponseInterceptor interceptor : responseInterceptors) {
-                interceptor.process(response);
-            }
+            MitmJavaProxyHttpResponse response = execute(req, 1, isResponseVolatile, isResponseStreamed);
 
-            if (isResponseVolatile) {
-                net.lightbody.bmp.proxy.jetty.http.HttpResponse httpResponse = req.getProxyRequest().getHttpConnection().getResponse();
-                //update headers and body and flush answer (from now on the response goes back to Client)
-                response.doAnswer(httpResponse);
+            try {
+                if (!responseInterceptors.isEmpty()) {
+                    long start = System.nanoTime();
+                    for (ResponseInterceptor interceptor : responseInterceptors) {
+                        interceptor.process(response);
+                    }
+                    responseInterceptorNanos.add(System.nanoTime() - start);
+                }
+
+                if (isResponseVolatile) {
+                    net.lightbody.bmp.proxy.jetty.http.HttpResponse httpResponse = req.getProxyRequest().getHttpConnection().getResponse();
+                    //update headers and body and flush answer (from now on the response goes back to Client)
+                    response.doAnswer(httpResponse);
+                }
+            } finally {
+                // a streamed body that was not answered (the interceptors failed, or there is no one to answer) is dropped
+                response.closeBodyStream();
+                // the entry is complete only now, as the interceptors may change it, and the size of a streamed body is known
+                // once it has been answered
+                HarLog harLog = har != null && harPageRef != null ? har.getLog() : null;
+                if (harLog != null) {
+                    harLog.entryCompleted(response.getEntry());
+                }
             }
             return response;
         } finally {
@@ -381,7 +566,7 @@ public class BrowserMobHttpClient {
     //If we were making cake, this would be the filling :)
     //Sending the prepared - maybe altered - request to the server, and getting back the result
     //
-    private MitmJavaProxyHttpResponse execute(final MitmJavaProxyHttpRequest req, int depth, boolean isResponseVolatile) {
+    private MitmJavaProxyHttpResponse execute(final MitmJavaProxyHttpRequest req, int depth, boolean isResponseVolatile, boolean isResponseStreamed) {
         if (depth >= MAX_REDIRECT) {
             throw new IllegalStateException("Max number of redirects (" + MAX_REDIRECT + ") reached");
         }
@@ -435,14 +620,27 @@ public class BrowserMobHttpClient {
         // link the object up now, before we make the request, so that if we get cut off (ie: favicon.ico request and browser shuts down)
         // we still have the attempt associated, even if we never got a response
         HarEntry entry = new HarEntry(harPageRef, req.getMessageId());
+        HarLog harLog = har != null && harPageRef != null ? har.getLog() : null;
+        // without a HAR and without capturing, only the status and the size of the entry is used (by the interceptors
+        // and the proxy handler), so the timings, headers and cookies are not collected
+        boolean lean = harLog == null && !captureHeaders && !captureContent;
+
+        LatencyHistograms histograms = latencyHistograms;
 
         // clear out any connection-related information so that it's not stale from previous use of this thread.
-        RequestInfo.clear(url, entry);
+        if (!lean) {
+            RequestInfo.clear(url, entry);
+        } else if (histograms != null) {
+            // the timings are needed for the histograms only, not for the entry
+            RequestInfo.clear(url, null);
+        } else {
+            RequestInfo.skip();
+        }
 
         entry.setRequest(new HarRequest(method.getMethod(), url, method.getProtocolVersion().getProtocol()));
         entry.setResponse(new HarResponse(-999, "NO RESPONSE", method.getProtocolVersion().getProtocol()));
-        if (har != null && harPageRef != null) {
-            har.getLog().addEntry(entry);
+        if (harLog != null) {
+            harLog.addEntry(entry);
         }
 
         String errorMessage = null;
@@ -450,13 +648,13 @@ public class BrowserMobHttpClient {
 
         BasicHttpContext ctx = new BasicHttpContext();
 
-        ActiveRequest activeRequest = new ActiveRequest(method, ctx, entry.getStartedDateTime());
-        synchronized (activeRequests) {
-            activeRequests.add(activeRequest);
-        }
+        ActiveRequest activeRequest = new ActiveRequest(method, ctx, System.nanoTime());
+        activeRequests.add(activeRequest);
+        activeRequest.scheduleTimeout();
 
         StatusLine statusLine = null;
         ByteArrayOutputStream bos = null;
+        InputStream bodyStream = null;
 
         try {
             // set the User-Agent if it's not already set
@@ -464,7 +662,21 @@ public class BrowserMobHttpClient {
                 method.addHeader("User-Agent", "MITM-JavaProxy V-22");
             }
 
-            response = httpClient.execute(method, ctx);
+            if (method instanceof HttpEntityEnclosingRequestBase) {
+                HttpEntity requestEntity = ((HttpEntityEnclosingRequestBase) method).getEntity();
+                if (requestEntity != null && requestEntity.getContentLength() > 0) {
+                    requestBodyBytes.add(requestEntity.getContentLength());
+                }
+            }
+
+            RequestCoalescer coalescer = requestCoalescer;
+            RequestCoalescer.UpstreamCall call = () -> executeUpstream(method, ctx);
+            if (coalescer != null && coalescer.isCoalescable(method)) {
+                final RequestCoalescer.UpstreamCall single = call;
+                call = () -> coalescer.execute(method, single);
+            }
+            ResponseCache cache = responseCache;
+            response = cache != null ? cache.execute(method, call) : call.execute();
 
             statusLine = response.getStatusLine();
             statusCode = statusLine.getStatusCode();
@@ -475,7 +687,8 @@ public class BrowserMobHttpClient {
             }
 
             if (response.getEntity() != null) {
-                is = response.getEntity().getContent();
+                // counted as received, before the decompression
+                is = new CountingInputStream(response.getEntity().getContent(), responseBodyBytes);
             }
 
             // check for null (resp 204 can cause HttpClient to return null, which is what Google does with http://clients1.google.com/generate_204)
@@ -513,7 +726,11 @@ public class BrowserMobHttpClient {
                     }
                 }
 
-                if (isResponseVolatile) {
+                if (isResponseStreamed) {
+                    //response content is volatile, and it will be streamed through the streaming interceptors, when answering
+                    bodyStream = new StreamedBody(is, activeRequest);
+                    is = null;
+                } else if (isResponseVolatile) {
                     //response content is volatile
                     bytes = is.available();
                     bos = new ByteArrayOutputStream();
@@ -541,8 +758,9 @@ public class BrowserMobHttpClient {
                 LOGGER.info("{} when requesting {}", errorMessage, url);
             }
         } finally {
-            // the request is done, get it out of here
-            synchronized (activeRequests) {
+            // the request is done, get it out of here - a streamed body is still under the timeout, until it is closed
+            if (bodyStream == null) {
+                activeRequest.cancelTimeout();
                 activeRequests.remove(activeRequest);
             }
 
@@ -555,14 +773,21 @@ public class BrowserMobHttpClient {
             }
         }
 
-        // record the response as ended
-        RequestInfo.get().finish();
-
-        // set the start time and other timings
-        entry.setStartedDateTime(RequestInfo.get().getStart());
-        entry.setTimings(RequestInfo.get().getTimings());
-        entry.setServerIPAddress(RequestInfo.get().getResolvedAddress());
-        entry.setTime(RequestInfo.get().getTotalTime());
+        RequestInfo info = RequestInfo.get();
+        if (info.isRecording()) {
+            // record the response as ended
+            info.finish();
+        }
+        if (histograms != null) {
+            histograms.record(method.getURI().getHost(), info);
+        }
+        if (!lean) {
+            // set the start time and other timings
+            entry.setStartedDateTime(info.getStart());
+            entry.setTimings(info.getTimings());
+            entry.setServerIPAddress(info.getResolvedAddress());
+            entry.setTime(info.getTotalTime());
+        }
 
         entry.getResponse().setBodySize(bytes);
         entry.getResponse().getContent().setSize(bytes);
@@ -590,7 +815,8 @@ public class BrowserMobHttpClient {
 
         if (captureContent) {
             // can we understand the POST data at all?
-            if (method instanceof HttpEntityEnclosingRequestBase && req.getCopy() != null) {
+            byte[] capturedBody = method instanceof HttpEntityEnclosingRequestBase ? req.getCapturedBody() : null;
+            if (capturedBody != null) {
                 HttpEntityEnclosingRequestBase enclosingReq = (HttpEntityEnclosingRequestBase) method;
                 HttpEntity entity = enclosingReq.getEntity();
 
@@ -600,7 +826,7 @@ public class BrowserMobHttpClient {
 
                 if (urlEncoded || URLEncodedUtils.isEncoded(entity)) {
                     try {
-                        final String content = new String(req.getCopy().toByteArray(), "UTF-8");
+                        final String content = new String(capturedBody, "UTF-8");
                         if (content != null && content.length() > 0) {
                             List<NameValuePair> result = new ArrayList<NameValuePair>();
                             URLEncodedUtils.parse(result, new Scanner(content), null);
@@ -617,18 +843,20 @@ public class BrowserMobHttpClient {
                     }
                 } else {
                     // not URL encoded, so let's grab the body of the POST and capture that
-                    data.setText(new String(req.getCopy().toByteArray()));
+                    data.setText(new String(capturedBody));
                 }
             }
         }
 
         //capture request cookies
-        javax.servlet.http.Cookie[] cookies = req.getProxyRequest().getCookies();
-        for (javax.servlet.http.Cookie cookie : cookies) {
-            HarCookie hc = new HarCookie();
-            hc.setName(cookie.getName());
-            hc.setValue(cookie.getValue());
-            entry.getRequest().getCookies().add(hc);
+        if (!lean) {
+            javax.servlet.http.Cookie[] cookies = req.getProxyRequest().getCookies();
+            for (javax.servlet.http.Cookie cookie : cookies) {
+                HarCookie hc = new HarCookie();
+                hc.setName(cookie.getName());
+                hc.setValue(cookie.getValue());
+                entry.getRequest().getCookies().add(hc);
+            }
         }
 
         String contentType = null;
@@ -709,15 +937,55 @@ public class BrowserMobHttpClient {
             Header locationHeader = response.getLastHeader("location");
             if (locationHeader != null) {
                 location = locationHeader.getValue();
-            } else if (followRedirects) {
+            }
+        }
+
+        try {
+            if (isRedirect && location == null && followRedirects) {
                 throw new RuntimeException("Invalid redirect - missing location header");
             }
+            validateResponse(req, statusCode, isRedirect, location);
+        } catch (RuntimeException e) {
+            // the entry is complete, as no response is given
+            org.apache.commons.io.IOUtils.closeQuietly(bodyStream);
+            if (harLog != null) {
+                harLog.entryCompleted(entry);
+            }
+            throw e;
         }
 
-        //
-        // Response validation - they only work if we're not following redirects
-        //
+        // basic tail recursion for redirect handling
+        if (isRedirect && followRedirects) {
+            // updating location:
+            try {
+                URI redirectUri = new URI(location);
+                URI newUri = method.getURI().resolve(redirectUri);
+                method.setURI(newUri);
+
+                // the body of the redirect is not needed
+                org.apache.commons.io.IOUtils.closeQuietly(bodyStream);
+                // the entry of the redirect is complete, account its size in the HAR
+                if (harLog != null) {
+                    harLog.entryCompleted(entry);
+                }
+                return execute(req, ++depth, isResponseVolatile, isResponseStreamed);
+            } catch (URISyntaxException e) {
+                LOGGER.warn("Could not parse URL", e);
+            }
+        }
 
+        MitmJavaProxyHttpResponse mitmResponse = new MitmJavaProxyHttpResponse(statusCode, entry, method, req.getProxyRequest().getURI(), response, errorMessage,
+                entry.getResponse().getContent().getText(), contentType, charSet, bos, os, isResponseVolatile);
+        if (bodyStream != null) {
+            mitmResponse.setBodyStream(bodyStream, streamingResponseInterceptors);
+        }
+        return mitmResponse;
+    }
+
+    //
+    // Response validation - they only work if we're not following redirects
+    //
+    private void validateResponse(final MitmJavaProxyHttpRequest req, final int statusCode, final boolean isRedirect, final String location) {
         int expectedStatusCode = req.getExpectedStatusCode();
 
         // if we didn't mock out the actual response code and the expected code isn't what we saw, we have a problem
@@ -745,25 +1013,14 @@ public class BrowserMobHttpClient {
                 throw new RuntimeException("Expected a redirect to  " + req.getExpectedLocation() + " but saw " + location);
             }
         }
+    }
 
-        // end of validation logic
-
-        // basic tail recursion for redirect handling
-        if (isRedirect && followRedirects) {
-            // updating location:
-            try {
-                URI redirectUri = new URI(location);
-                URI newUri = method.getURI().resolve(redirectUri);
-                method.setURI(newUri);
-
-                return execute(req, ++depth, isResponseVolatile);
-            } catch (URISyntaxException e) {
-                LOGGER.warn("Could not parse URL", e);
-            }
+    private HttpResponse executeUpstream(final HttpRequestBase method, final HttpContext ctx) throws IOException {
+        Http2UpstreamClient http2 = http2Client;
+        if (http2 != null && isHttp2Eligible(method)) {
+            return http2.execute(method, requestTimeout);
         }
-
-        return new MitmJavaProxyHttpResponse(statusCode, entry, method, req.getProxyRequest().getURI(), response, errorMessage,
-                entry.getResponse().getContent().getText(), contentType, charSet, bos, os, isResponseVolatile);
+        return httpClient.execute(method, ctx);
     }
 
     private long copyWithStatsDynamic(InputStream is, OutputStream os) throws IOException {
@@ -819,11 +1076,10 @@ public class BrowserMobHttpClient {
     public void abortActiveRequests() {
         allowNewRequests.set(true);
 
-        synchronized (activeRequests) {
-            for (ActiveRequest activeRequest : activeRequests) {
-                activeRequest.abort();
-            }
-            activeRequests.clear();
+        for (ActiveRequest activeRequest : activeRequests) {
+            activeRequest.cancelTimeout();
+            activeRequest.abort();
+            activeRequests.remove(activeRequest);
         }
     }
 
@@ -832,6 +1088,10 @@ public class BrowserMobHttpClient {
     }
 
     public void setRequestTimeout(final int requestTimeout) {
+        if (this.requestTimeout != requestTimeout && http2Client != null) {
+            // the connect timeout of the HTTP/2 client is fixed when it is built, the new requests go to a new one
+            http2Client = new Http2UpstreamClient(requestTimeout);
+        }
         this.requestTimeout = requestTimeout;
     }
 
@@ -885,6 +1145,114 @@ public class BrowserMobHttpClient {
         Integer port = Integer.parseInt(httpProxy.split(":")[1]);
         HttpHost proxy = new HttpHost(host, port);
         httpClient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+        upstreamProxySet = true;
+    }
+
+    /**
+     * Sends the https requests with an HTTP/2 capable client, so the concurrent requests to the same origin share a
+     * single multiplexed connection. The protocol is negotiated with ALPN, the servers without HTTP/2 support are
+     * still served over HTTP/1.1. Requests to remapped hosts and requests through an upstream proxy keep using the
+     * HTTP/1.1 client.
+     */
+    public void setHttp2Upstream(final boolean http2Upstream) {
+        if (!http2Upstream) {
+            http2Client = null;
+        } else if (http2Client == null) {
+            http2Client = new Http2UpstreamClient(requestTimeout);
+        }
+    }
+
+    public boolean isHttp2Upstream() {
+        return http2Client != null;
+    }
+
+    /**
+     * Lets concurrent identical GET and HEAD requests (same URL and same values of the key headers) share one
+     * upstream call, the response is copied to each of them. Responses larger than the buffer limit (1 MB) are not
+     * shared.
+     */
+    public void setRequestCoalescing(final boolean requestCoalescing) {
+        if (!requestCoalescing) {
+            requestCoalescer = null;
+        } else if (requestCoalescer == null) {
+            requestCoalescer = new RequestCoalescer(MAX_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Sets the request headers that have to match, besides the URL, for two requests to share an upstream call.
+     * It has effect only if request coalescing is on.
+     */
+    public void setRequestCoalescingHeaders(final List<String> headers) {
+        RequestCoalescer coalescer = requestCoalescer;
+        if (coalescer != null) {
+            coalescer.setKeyHeaders(headers);
+        }
+    }
+
+    /**
+     * Sets the HTTP cache in front of the upstream calls, or null to send every request upstream.
+     */
+    public void setResponseCache(final ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Sets the histograms the phases of every request are recorded in, or null to not aggregate them.
+     */
+    public void setLatencyHistograms(final LatencyHistograms latencyHistograms) {
+        this.latencyHistograms = latencyHistograms;
+    }
+
+    public LatencyHistograms getLatencyHistograms() {
+        return latencyHistograms;
+    }
+
+    /**
+     * @return the number of requests that were served by the upstream call of an identical concurrent request
+     */
+    public long getCoalescedRequests() {
+        RequestCoalescer coalescer = requestCoalescer;
+        return coalescer == null ? 0 : coalescer.getCoalescedRequests();
+    }
+
+    /**
+     * @return the number of bytes of the request bodies of known length, sent to the servers
+     */
+    public long getRequestBodyBytes() {
+        return requestBodyBytes.sum();
+    }
+
+    /**
+     * @return the number of bytes of the response bodies read, as received (before decompression)
+     */
+    public long getResponseBodyBytes() {
+        return responseBodyBytes.sum();
+    }
+
+    /**
+     * @return the time spent in the request interceptors, in nanoseconds
+     */
+    public long getRequestInterceptorNanos() {
+        return requestInterceptorNanos.sum();
+    }
+
+    /**
+     * @return the time spent in the response interceptors, in nanoseconds
+     */
+    public long getResponseInterceptorNanos() {
+        return responseInterceptorNanos.sum();
+    }
+
+    private boolean isHttp2Eligible(final HttpRequestBase method) {
+        // the HTTP/2 client resolves the host names itself, so it does not know about the remappings
+        URI uri = method.getURI();
+        return "https".equalsIgnoreCase(uri.getScheme()) && !upstreamProxySet
+                && hostNameResolver.remapping(uri.getHost()) == null;
     }
 
     public void clearDNSCache() {
@@ -895,6 +1263,18 @@ public class BrowserMobHttpClient {
         hostNameResolver.setCacheTimeout(timeout);
     }
 
+    public void setDNSNegativeCacheTimeout(final int timeout) {
+        hostNameResolver.setNegativeCacheTimeout(timeout);
+    }
+
+    public void setDNSAsync(final boolean async) {
+        hostNameResolver.setAsync(async);
+    }
+
+    public void setDNSIpv6Enabled(final boolean ipv6Enabled) {
+        hostNameResolver.setIpv6Enabled(ipv6Enabled);
+    }
+
     public void prepareForBrowser() {
         // Clear cookies, let the browser handle them
         //httpClient.getParams().setParameter(ClientPNames.COOKIE_POLICY, "easy");
@@ -927,19 +1307,36 @@ public class BrowserMobHttpClient {
     class ActiveRequest {
         HttpRequestBase request;
         BasicHttpContext ctx;
-        Date start;
-        boolean wasTimeout;
+        // System.nanoTime() at the start of the request
+        long start;
+        volatile boolean wasTimeout;
+        private volatile ScheduledFuture<?> timeout;
 
-        ActiveRequest(final HttpRequestBase request, final BasicHttpContext ctx, final Date start) {
+        ActiveRequest(final HttpRequestBase request, final BasicHttpContext ctx, final long start) {
             this.request = request;
             this.ctx = ctx;
             this.start = start;
             this.wasTimeout = false;
         }
 
+        void scheduleTimeout() {
+            int timeoutMs = requestTimeout;
+            if (timeoutMs != -1) {
+                timeout = HttpClientInterrupter.schedule(this::checkTimeout, timeoutMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+
+        void cancelTimeout() {
+            ScheduledFuture<?> scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
         void checkTimeout() {
             if (requestTimeout != -1) {
-                if (request != null && start != null && new Date(System.currentTimeMillis() - requestTimeout).after(start)) {
+                if (request != null && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= requestTimeout
+                        && activeRequests.contains(this)) {
                     LOGGER.info("Aborting request to {} after it failed to complete in {} ms", request.getURI().toString(), requestTimeout);
                     wasTimeout = true;
                     abort();
@@ -963,6 +1360,48 @@ public class BrowserMobHttpClient {
         }
     }
 
+    /**
+     * Adds the bytes read through it to a counter.
+     */
+    private static class CountingInputStream extends ProxyInputStream {
+        private final LongAdder counter;
+
+        CountingInputStream(final InputStream in, final LongAdder counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        protected void afterRead(final int n) {
+            if (n > 0) {
+                counter.add(n);
+            }
+        }
+    }
+
+    /**
+     * The body of a response that is streamed when answering: its request stays active, so the request timeout and
+     * the abort of the active requests cover the streaming too, until the body is closed.
+     */
+    private class StreamedBody extends ProxyInputStream {
+        private final ActiveRequest activeRequest;
+
+        StreamedBody(final InputStream in, final ActiveRequest activeRequest) {
+            super(in);
+            this.activeRequest = activeRequest;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                activeRequest.cancelTimeout();
+                activeRequests.remove(activeRequest);
+            }
+        }
+    }
+
     private class RewriteRule {
         private final Pattern match;
         private final String replace;
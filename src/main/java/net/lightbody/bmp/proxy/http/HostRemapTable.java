@@ -0,0 +1,155 @@
+package net.lightbody.bmp.proxy.http;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable table of host name remappings, with exact names and wildcard rules like <code>*.internal.example</code>.
+ * <p>
+ * Exact names are found with a single hash lookup. The wildcard rules are compiled into a trie of the reversed labels
+ * (example, internal, ...), so a name is matched by walking its labels from the top level domain down, and the
+ * most specific rule wins. A wildcard rule matches the subdomains only, not the domain itself.
+ * <p>
+ * Tables are never changed: {@link #with(String, String)} and {@link #parse(Reader)} create new ones, so a table can
+ * be swapped in while it is being read.
+ */
+public final class HostRemapTable {
+    public static final HostRemapTable EMPTY = new HostRemapTable(Collections.<String, String>emptyMap());
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final Map<String, String> entries;
+    private final Map<String, String> exact = new HashMap<String, String>();
+    private final Node wildcards = new Node();
+    private final Map<String, List<String>> reverse = new HashMap<String, List<String>>();
+
+    private HostRemapTable(Map<String, String> entries) {
+        this.entries = entries;
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            String source = entry.getKey();
+            if (source.startsWith(WILDCARD_PREFIX)) {
+                Node node = wildcards;
+                String[] labels = source.substring(WILDCARD_PREFIX.length()).split("\\.");
+                for (int i = labels.length - 1; i >= 0; i--) {
+                    node = node.children.computeIfAbsent(labels[i], label -> new Node());
+                }
+                node.target = entry.getValue();
+            } else {
+                exact.put(source, entry.getValue());
+            }
+            reverse.computeIfAbsent(entry.getValue(), target -> new ArrayList<String>()).add(source);
+        }
+        for (Map.Entry<String, List<String>> entry : reverse.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+    }
+
+    /**
+     * Parses a hosts file: each line is a target (usually an IP address) followed by one or more host names or
+     * wildcard rules, separated by white space. Everything after a # is a comment.
+     *
+     * @throws IOException if the file cannot be read, or a line has a target only
+     */
+    public static HostRemapTable parse(Reader reader) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 1 && fields[0].isEmpty()) {
+                continue;
+            }
+            if (fields.length < 2) {
+                throw new IOException("Missing host name in line " + lineNumber + ": " + line.trim());
+            }
+            for (int i = 1; i < fields.length; i++) {
+                entries.put(normalize(fields[i]), fields[0]);
+            }
+        }
+        return new HostRemapTable(entries);
+    }
+
+    /**
+     * @return a new table, with the remapping added to the ones of this table
+     */
+    public HostRemapTable with(String source, String target) {
+        Map<String, String> copy = new LinkedHashMap<String, String>(entries);
+        copy.put(normalize(source), target);
+        return new HostRemapTable(copy);
+    }
+
+    /**
+     * @return a new table, with the remappings of the other table added to (and overriding) the ones of this table
+     */
+    public HostRemapTable with(HostRemapTable other) {
+        Map<String, String> copy = new LinkedHashMap<String, String>(entries);
+        copy.putAll(other.entries);
+        return new HostRemapTable(copy);
+    }
+
+    /**
+     * @return the target of the host, or null if it is not remapped
+     */
+    public String lookup(String host) {
+        if (host == null) {
+            return null;
+        }
+        String name = normalize(host);
+        String target = exact.get(name);
+        if (target != null || wildcards.children.isEmpty()) {
+            return target;
+        }
+        Node node = wildcards;
+        int end = name.length();
+        while (end > 0) {
+            int start = name.lastIndexOf('.', end - 1);
+            if (start < 0) {
+                // the left most label is never matched by the wildcard itself
+                break;
+            }
+            node = node.children.get(name.substring(start + 1, end));
+            if (node == null) {
+                break;
+            }
+            if (node.target != null) {
+                target = node.target;
+            }
+            end = start;
+        }
+        return target;
+    }
+
+    /**
+     * @return the host names and wildcard rules remapped to the target, or null if there is none
+     */
+    public List<String> sources(String target) {
+        return reverse.get(target);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static String normalize(String host) {
+        String name = host.toLowerCase(Locale.ROOT);
+        return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        private String target;
+    }
+}
@@ -0,0 +1,217 @@
+package net.lightbody.bmp.proxy.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Upstream client that speaks HTTP/2 with the servers that support it, so the concurrent requests to the same origin
+ * are multiplexed over a single connection. The protocol is negotiated with ALPN, servers that do not offer h2 are
+ * served over HTTP/1.1 by the same client.
+ * <p>
+ * The requests and responses are adapted to the Apache HttpClient ones used by {@link BrowserMobHttpClient}, and the
+ * response body is decoded the same way (gzip and deflate), so the rest of the request flow does not change.
+ */
+class Http2UpstreamClient {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Http2UpstreamClient.class);
+    // hop-by-hop headers of HTTP/1.1 are not allowed in HTTP/2, and the rest are set by the client itself
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<String>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "te", "upgrade", "host",
+            "content-length", "expect"));
+
+    private final HttpClient client;
+
+    Http2UpstreamClient(final int connectTimeout) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        try {
+            builder.sslContext(TrustingSSLSocketFactory.newTrustingSslContext());
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+        client = builder.build();
+    }
+
+    /**
+     * Executes the request. It can be aborted by {@link HttpRequestBase#abort()}, like the ones sent by Apache
+     * HttpClient: while waiting for the response headers the exchange is cancelled, and once they arrived the
+     * response body is closed, so a stalled body does not block its reader either.
+     *
+     * @param method  is the request to send
+     * @param timeout is the time to wait for the response headers in milliseconds, or -1 to wait forever
+     * @return with the response, with its body decoded if it was compressed by gzip or deflate
+     */
+    HttpResponse execute(final HttpRequestBase method, final int timeout) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(method.getURI());
+        if (timeout > 0) {
+            builder.timeout(Duration.ofMillis(timeout));
+        }
+        for (Header header : method.getAllHeaders()) {
+            if (!SKIPPED_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                try {
+                    builder.header(header.getName(), header.getValue());
+                } catch (IllegalArgumentException e) {
+                    LOGGER.debug("Header {} is not sent over the HTTP/2 upstream client", header.getName());
+                }
+            }
+        }
+        if (method.getFirstHeader("Accept-Encoding") == null) {
+            builder.header("Accept-Encoding", "gzip,deflate");
+        }
+        builder.method(method.getMethod(), bodyOf(method, builder));
+
+        long start = System.nanoTime();
+        CompletableFuture<java.net.http.HttpResponse<InputStream>> future =
+                client.sendAsync(builder.build(), java.net.http.HttpResponse.BodyHandlers.ofInputStream());
+        method.setCancellable(() -> future.cancel(true));
+        java.net.http.HttpResponse<InputStream> response;
+        try {
+            response = future.get();
+        } catch (CancellationException e) {
+            throw new RequestAbortedException("Request aborted");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted");
+        } catch (ExecutionException e) {
+            throw toIOException(e.getCause());
+        }
+        RequestInfo.get().wait(start, System.nanoTime());
+
+        InputStream body = response.body();
+        method.setCancellable(() -> {
+            try {
+                body.close();
+            } catch (IOException e) {
+                LOGGER.debug("Cannot close the aborted response body", e);
+            }
+            return true;
+        });
+        if (method.isAborted()) {
+            body.close();
+            throw new RequestAbortedException("Request aborted");
+        }
+        return toApacheResponse(response);
+    }
+
+    private HttpRequest.BodyPublisher bodyOf(final HttpRequestBase method, final HttpRequest.Builder builder) throws IOException {
+        if (!(method instanceof HttpEntityEnclosingRequest)) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        final HttpEntity entity = ((HttpEntityEnclosingRequest) method).getEntity();
+        if (entity == null) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        if (entity.getContentType() != null && method.getFirstHeader("Content-Type") == null) {
+            builder.header("Content-Type", entity.getContentType().getValue());
+        }
+        if (!entity.isStreaming()) {
+            // in-memory entities (like multipart forms) cannot always give their content as a stream
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            entity.writeTo(body);
+            return HttpRequest.BodyPublishers.ofByteArray(body.toByteArray());
+        }
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            try {
+                return entity.getContent();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        long length = entity.getContentLength();
+        if (length == 0) {
+            return HttpRequest.BodyPublishers.noBody();
+        }
+        return length > 0 ? HttpRequest.BodyPublishers.fromPublisher(publisher, length) : publisher;
+    }
+
+    private HttpResponse toApacheResponse(final java.net.http.HttpResponse<InputStream> response) {
+        int statusCode = response.statusCode();
+        String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(statusCode, Locale.ENGLISH);
+        // the client of the proxy is served over HTTP/1.1, whatever the upstream protocol is
+        BasicHttpResponse result = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, reason == null ? "" : reason);
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            if (header.getKey().startsWith(":")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                result.addHeader(header.getKey(), value);
+            }
+        }
+
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContent(response.body());
+        entity.setContentLength(response.headers().firstValueAsLong("Content-Length").orElse(-1));
+        entity.setContentType(result.getFirstHeader("Content-Type"));
+        entity.setContentEncoding(result.getFirstHeader("Content-Encoding"));
+        result.setEntity(entity);
+
+        // decode the body like ResponseContentEncoding of Apache HttpClient does
+        Header contentEncoding = result.getFirstHeader("Content-Encoding");
+        if (contentEncoding != null) {
+            String value = contentEncoding.getValue().trim().toLowerCase(Locale.ROOT);
+            if ("gzip".equals(value) || "x-gzip".equals(value)) {
+                result.setEntity(new GzipDecompressingEntity(entity));
+            } else if ("deflate".equals(value)) {
+                result.setEntity(new DeflateDecompressingEntity(entity));
+            } else {
+                return result;
+            }
+            result.removeHeaders("Content-Encoding");
+            result.removeHeaders("Content-Length");
+            result.removeHeaders("Content-MD5");
+        }
+        return result;
+    }
+
+    private IOException toIOException(final Throwable cause) {
+        if (cause instanceof HttpConnectTimeoutException) {
+            return new ConnectTimeoutException(cause.getMessage());
+        }
+        if (cause instanceof HttpTimeoutException) {
+            return new SocketTimeoutException(cause.getMessage());
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException(cause);
+    }
+}
@@ -3,43 +3,83 @@ package net.lightbody.bmp.proxy.http;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Deadline scheduler of the clients. Each request registers its own timeout, that aborts it at the deadline, unless
+ * the request cancels it when it is done; so no lock is shared by the requests and the timeouts fire on time.
+ * The housekeeping of the watched clients (checking the request timeouts once more, closing idle pooled connections)
+ * runs every second on the same thread. The hosts file is watched on a thread of its own, so a slow disk or a large
+ * hosts file does not delay the timeouts.
+ */
 public class HttpClientInterrupter {
     protected static final Logger logger = LoggerFactory.getLogger(HttpClientInterrupter.class);
-    private static final Set<BrowserMobHttpClient> clients = new CopyOnWriteArraySet<BrowserMobHttpClient>();
+    private static final long HOUSEKEEPING_PERIOD_MS = 1000;
+    private static final Map<BrowserMobHttpClient, ScheduledFuture<?>> clients = new ConcurrentHashMap<BrowserMobHttpClient, ScheduledFuture<?>>();
+    private static final Map<BrowserMobHttpClient, ScheduledFuture<?>> hostsFileWatches = new ConcurrentHashMap<BrowserMobHttpClient, ScheduledFuture<?>>();
+    private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "HttpClientInterrupter Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ScheduledThreadPoolExecutor hostsFileWatcher = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "HttpClientInterrupter Hosts File Watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     static {
-        Thread thread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (true) {
-                    for (BrowserMobHttpClient client : clients) {
-                        try {
-                            client.checkTimeout();
-                        } catch (Exception e) {
-                            logger.error("Unexpected problem while checking timeout on a client", e);
-                        }
-                    }
+        // cancelled timeouts are the usual case, do not keep them in the queue till their deadline
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
 
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        // this is OK
-                    }
-                }
+    public static void watch(final BrowserMobHttpClient client) {
+        clients.computeIfAbsent(client, c -> scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                c.checkTimeout();
+                c.closeIdleConnections();
+            } catch (Exception e) {
+                logger.error("Unexpected problem in the housekeeping of a client", e);
             }
-        }, "HttpClientInterrupter Thread");
-        thread.setDaemon(true);
-        thread.start();
+        }, HOUSEKEEPING_PERIOD_MS, HOUSEKEEPING_PERIOD_MS, TimeUnit.MILLISECONDS));
+        hostsFileWatches.computeIfAbsent(client, c -> hostsFileWatcher.scheduleWithFixedDelay(() -> {
+            try {
+                c.reloadHostsFileIfModified();
+            } catch (Exception e) {
+                logger.error("Unexpected problem while reloading the hosts file of a client", e);
+            }
+        }, HOUSEKEEPING_PERIOD_MS, HOUSEKEEPING_PERIOD_MS, TimeUnit.MILLISECONDS));
     }
 
-    public static void watch(BrowserMobHttpClient client) {
-        clients.add(client);
+    public static void release(final BrowserMobHttpClient client) {
+        ScheduledFuture<?> housekeeping = clients.remove(client);
+        if (housekeeping != null) {
+            housekeeping.cancel(false);
+        }
+        ScheduledFuture<?> hostsFileWatch = hostsFileWatches.remove(client);
+        if (hostsFileWatch != null) {
+            hostsFileWatch.cancel(false);
+        }
     }
 
-    public static void release(BrowserMobHttpClient client) {
-        clients.remove(client);
+    /**
+     * Schedules a timeout.
+     *
+     * @param timeout is the task to run at the deadline
+     * @param delayMs is the time till the deadline
+     * @return with the handle, to be cancelled if the deadline is not needed any more
+     */
+    public static ScheduledFuture<?> schedule(final Runnable timeout, final long delayMs) {
+        return scheduler.schedule(() -> {
+            try {
+                timeout.run();
+            } catch (Exception e) {
+                logger.error("Unexpected problem while checking timeout on a client", e);
+            }
+        }, Math.max(0, delayMs), TimeUnit.MILLISECONDS);
     }
 }
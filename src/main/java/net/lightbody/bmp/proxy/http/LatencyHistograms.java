@@ -0,0 +1,294 @@
+package net.lightbody.bmp.proxy.http;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency of the request phases measured by {@link RequestInfo}, aggregated in histograms per upstream host and for all
+ * the hosts together, independently of HAR capturing.
+ * <p>
+ * The histograms are lock-free and log-linear, like the HDR histograms: the values are kept in microseconds, exactly
+ * below 32 us, and in 32 buckets per power of two above that, so a percentile is within about 3% of the measured value.
+ * Values above 2^31 us (about 35 minutes) are counted as 2^31 us. The number of hosts with their own histograms is
+ * capped, the requests of the hosts over the cap are counted under {@link #OTHER_HOSTS}.
+ */
+public class LatencyHistograms {
+    public static final String OTHER_HOSTS = "(other)";
+
+    /**
+     * The phases of a request. Blocked is the wait for a pooled connection, total is the time from the start of the first
+     * phase to the end of the response; connect does not include ssl.
+     */
+    public enum Phase {
+        BLOCKED, DNS, CONNECT, SSL, SEND, WAIT, RECEIVE, TOTAL
+    }
+
+    private final Map<Phase, Histogram> global = newPhaseHistograms();
+    private final ConcurrentHashMap<String, Map<Phase, Histogram>> hosts = new ConcurrentHashMap<String, Map<Phase, Histogram>>();
+    private final int maxHosts;
+
+    /**
+     * @param maxHosts is the number of hosts that get their own histograms
+     */
+    public LatencyHistograms(final int maxHosts) {
+        this.maxHosts = maxHosts;
+    }
+
+    /**
+     * Records the phases of the request that has just finished on this thread.
+     */
+    void record(final String host, final RequestInfo info) {
+        Map<Phase, Histogram> ofHost = hostHistograms(host == null ? OTHER_HOSTS : host);
+        for (Phase phase : Phase.values()) {
+            long nanos = info.getNanos(phase);
+            if (nanos >= 0) {
+                long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+                global.get(phase).record(micros);
+                ofHost.get(phase).record(micros);
+            }
+        }
+    }
+
+    private Map<Phase, Histogram> hostHistograms(final String host) {
+        Map<Phase, Histogram> ofHost = hosts.get(host);
+        if (ofHost == null) {
+            if (hosts.size() >= maxHosts && !OTHER_HOSTS.equals(host)) {
+                return hostHistograms(OTHER_HOSTS);
+            }
+            ofHost = hosts.computeIfAbsent(host, h -> newPhaseHistograms());
+        }
+        return ofHost;
+    }
+
+    /**
+     * @return the current state of the histograms
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Takes the current state of the histograms, and clears them, so the next snapshot covers the requests after this.
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private Snapshot snapshot(final boolean reset) {
+        Map<Phase, HistogramSnapshot> ofAll = snapshotOf(global, reset);
+        Map<String, Map<Phase, HistogramSnapshot>> ofHosts = new TreeMap<String, Map<Phase, HistogramSnapshot>>();
+        for (Map.Entry<String, Map<Phase, Histogram>> entry : hosts.entrySet()) {
+            if (reset && entry.getValue().get(Phase.TOTAL).isEmpty()) {
+                // a host without requests since the previous reset gives its place under the cap to a new one; the
+                // others are reset in place, as the requests in flight may still record into them
+                hosts.remove(entry.getKey(), entry.getValue());
+                continue;
+            }
+            Map<Phase, HistogramSnapshot> ofHost = snapshotOf(entry.getValue(), reset);
+            if (ofHost.get(Phase.TOTAL).getCount() > 0) {
+                ofHosts.put(entry.getKey(), ofHost);
+            }
+        }
+        return new Snapshot(ofAll, ofHosts);
+    }
+
+    private static Map<Phase, HistogramSnapshot> snapshotOf(final Map<Phase, Histogram> histograms, final boolean reset) {
+        Map<Phase, HistogramSnapshot> snapshot = new EnumMap<Phase, HistogramSnapshot>(Phase.class);
+        for (Map.Entry<Phase, Histogram> entry : histograms.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot(reset));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    private static Map<Phase, Histogram> newPhaseHistograms() {
+        Map<Phase, Histogram> histograms = new EnumMap<Phase, Histogram>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new Histogram());
+        }
+        return histograms;
+    }
+
+    /**
+     * Log-linear histogram of microsecond values, updated with atomic operations only.
+     */
+    static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 31;
+        private static final long MAX_VALUE = 1L << MAX_EXPONENT;
+        static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(final long micros) {
+            long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+            counts.incrementAndGet(indexOf(value));
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        boolean isEmpty() {
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        HistogramSnapshot snapshot(final boolean reset) {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            }
+            return new HistogramSnapshot(copy, reset ? sum.getAndSet(0) : sum.get(), reset ? max.getAndSet(0) : max.get());
+        }
+
+        static int indexOf(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int shift = exponent - SUB_BUCKET_BITS;
+            return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+        }
+
+        /**
+         * @return the middle of the range of values counted in the bucket
+         */
+        static long valueOf(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+            long lowest = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+            return lowest + ((1L << shift) >> 1);
+        }
+    }
+
+    /**
+     * The counts of a histogram at a point in time, with the values in milliseconds.
+     */
+    public static final class HistogramSnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        HistogramSnapshot(final long[] counts, final long sum, final long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long bucket : counts) {
+                total += bucket;
+            }
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the sum of the recorded values, in ms
+         */
+        public double getSum() {
+            return sum / 1000.0;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : getSum() / count;
+        }
+
+        public double getMax() {
+            return max / 1000.0;
+        }
+
+        /**
+         * @param percentile is between 0 and 100
+         * @return the value at the percentile, in ms, 0 if nothing is recorded
+         */
+        public double getValueAtPercentile(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.valueOf(i), max) / 1000.0;
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "count=%d, mean=%.3f, p50=%.3f, p90=%.3f, p99=%.3f, p99.9=%.3f, max=%.3f",
+                    count, getMean(), getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99),
+                    getValueAtPercentile(99.9), getMax());
+        }
+    }
+
+    /**
+     * The histograms of all the hosts together and of each host, at a point in time. Only the hosts with requests are
+     * listed.
+     */
+    public static final class Snapshot {
+        private final Map<Phase, HistogramSnapshot> global;
+        private final Map<String, Map<Phase, HistogramSnapshot>> hosts;
+
+        Snapshot(final Map<Phase, HistogramSnapshot> global, final Map<String, Map<Phase, HistogramSnapshot>> hosts) {
+            this.global = global;
+            this.hosts = Collections.unmodifiableMap(hosts);
+        }
+
+        public HistogramSnapshot getGlobal(final Phase phase) {
+            return global.get(phase);
+        }
+
+        public Set<String> getHosts() {
+            return hosts.keySet();
+        }
+
+        /**
+         * @return the histogram of the phase for the host, null if the host had no requests
+         */
+        public HistogramSnapshot getHost(final String host, final Phase phase) {
+            Map<Phase, HistogramSnapshot> ofHost = hosts.get(host);
+            return ofHost == null ? null : ofHost.get(phase);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            append(text, "all hosts", global);
+            for (Map.Entry<String, Map<Phase, HistogramSnapshot>> entry : hosts.entrySet()) {
+                append(text, entry.getKey(), entry.getValue());
+            }
+            return text.toString();
+        }
+
+        private static void append(final StringBuilder text, final String host, final Map<Phase, HistogramSnapshot> phases) {
+            text.append(host).append(" (ms):\n");
+            for (Map.Entry<Phase, HistogramSnapshot> entry : phases.entrySet()) {
+                text.append("  ").append(entry.getKey().name().toLowerCase(Locale.ROOT)).append(": ").append(entry.getValue()).append('\n');
+            }
+        }
+    }
+}
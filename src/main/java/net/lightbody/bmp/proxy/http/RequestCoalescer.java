@@ -0,0 +1,229 @@
+package net.lightbody.bmp.proxy.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight layer of the upstream calls: concurrent identical GET (and HEAD) requests - same URL and same values
+ * of the selected headers - share one upstream call. The first request (the leader) makes the call and buffers the
+ * response, the others wait for it and get their own copy of the status line, the headers and the body, so the rest
+ * of the request flow (interceptors, HAR capture, writing the response to the client) runs for each of them.
+ * Conditional requests are not coalesced, their response depends on what the client has.
+ * <p>
+ * The leader reads the whole body into memory, up to the buffer limit, before any of the requests (the leader
+ * included) gets the first byte of it, so coalescing trades the time to the first byte for fewer upstream calls.
+ * <p>
+ * Nothing is kept after the leader is done, this is not a cache. When the leader fails, or the body is larger than
+ * the buffer limit, the waiting requests make their own upstream call.
+ */
+class RequestCoalescer {
+    static final List<String> DEFAULT_KEY_HEADERS = Collections.unmodifiableList(Arrays.asList(
+            "Accept", "Accept-Encoding", "Accept-Language", "Authorization", "Cookie", "Range"));
+    private static final List<String> CONDITIONAL_HEADERS = Collections.unmodifiableList(Arrays.asList(
+            "If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range"));
+
+    private final ConcurrentHashMap<String, CompletableFuture<SharedResponse>> inFlight = new ConcurrentHashMap<String, CompletableFuture<SharedResponse>>();
+    private final int maxBodySize;
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private volatile List<String> keyHeaders = DEFAULT_KEY_HEADERS;
+
+    /**
+     * The upstream call of a request.
+     */
+    interface UpstreamCall {
+        HttpResponse execute() throws IOException;
+    }
+
+    RequestCoalescer(final int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Sets the request headers that are part of the key, besides the method and the URL.
+     */
+    void setKeyHeaders(final List<String> keyHeaders) {
+        this.keyHeaders = Collections.unmodifiableList(keyHeaders);
+    }
+
+    /**
+     * @return the number of requests that were served by the upstream call of another request
+     */
+    long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * @return true if the request is idempotent, not conditional and has no body, so it can share the upstream call
+     * of another one
+     */
+    boolean isCoalescable(final HttpRequestBase method) {
+        if (!"GET".equals(method.getMethod()) && !"HEAD".equals(method.getMethod())) {
+            return false;
+        }
+        if (method instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) method).getEntity() != null) {
+            return false;
+        }
+        for (String name : CONDITIONAL_HEADERS) {
+            if (method.containsHeader(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Executes the request, or waits for the identical request in flight.
+     *
+     * @param method is the request
+     * @param call   is the upstream call of the request, made if there is no identical request in flight
+     * @return with the response, that is owned by the caller
+     */
+    HttpResponse execute(final HttpRequestBase method, final UpstreamCall call) throws IOException {
+        String key = keyOf(method);
+        CompletableFuture<SharedResponse> flight = new CompletableFuture<SharedResponse>();
+        CompletableFuture<SharedResponse> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            SharedResponse shared = await(method, leader);
+            if (shared != null) {
+                coalescedRequests.incrementAndGet();
+                return shared.copy();
+            }
+            return call.execute();
+        }
+
+        SharedResponse shared = null;
+        try {
+            HttpResponse response = call.execute();
+            shared = SharedResponse.of(response, maxBodySize);
+            return shared != null ? shared.copy() : response;
+        } finally {
+            // remove before completing, the requests coming after the response must not see this flight
+            inFlight.remove(key, flight);
+            flight.complete(shared);
+        }
+    }
+
+    private SharedResponse await(final HttpRequestBase method, final CompletableFuture<SharedResponse> leader) throws IOException {
+        // a dependent future, so aborting this request (like its timeout does) does not cancel the leader
+        CompletableFuture<SharedResponse> waiter = leader.thenApply(shared -> shared);
+        method.setCancellable(() -> waiter.cancel(true));
+        long start = System.nanoTime();
+        try {
+            return waiter.get();
+        } catch (CancellationException e) {
+            throw new RequestAbortedException("Request aborted");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted");
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            RequestInfo.get().wait(start, System.nanoTime());
+        }
+    }
+
+    private String keyOf(final HttpRequestBase method) {
+        StringBuilder key = new StringBuilder(method.getMethod()).append(' ').append(method.getURI());
+        for (String name : keyHeaders) {
+            for (Header header : method.getHeaders(name)) {
+                key.append('\n').append(name).append(": ").append(header.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * The status line, headers and fully read body of a response, to be copied for each request.
+     */
+    private static final class SharedResponse {
+        private final StatusLine statusLine;
+        private final Header[] headers;
+        private final Header contentType;
+        private final Header contentEncoding;
+        private final byte[] body;
+
+        private SharedResponse(HttpResponse response, byte[] body) {
+            this.statusLine = response.getStatusLine();
+            this.headers = response.getAllHeaders();
+            HttpEntity entity = response.getEntity();
+            this.contentType = entity == null ? null : entity.getContentType();
+            this.contentEncoding = entity == null ? null : entity.getContentEncoding();
+            this.body = body;
+        }
+
+        /**
+         * Reads the body of the response. If it is larger than the limit, the response is left readable from the
+         * start, and it is not shared.
+         *
+         * @return the shared response, or null if the response cannot be shared
+         */
+        static SharedResponse of(final HttpResponse response, final int maxBodySize) throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return new SharedResponse(response, null);
+            }
+            if (entity.getContentLength() > maxBodySize) {
+                return null;
+            }
+            InputStream content = entity.getContent();
+            if (content == null) {
+                return new SharedResponse(response, null);
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int length;
+            while ((length = content.read(chunk)) != -1) {
+                buffer.write(chunk, 0, length);
+                if (buffer.size() > maxBodySize) {
+                    // too large to share, give back what is read so far together with the rest of the stream
+                    BasicHttpEntity rest = new BasicHttpEntity();
+                    rest.setContent(new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), content));
+                    rest.setContentLength(entity.getContentLength());
+                    rest.setContentType(entity.getContentType());
+                    rest.setContentEncoding(entity.getContentEncoding());
+                    rest.setChunked(entity.isChunked());
+                    response.setEntity(rest);
+                    return null;
+                }
+            }
+            content.close();
+            return new SharedResponse(response, buffer.toByteArray());
+        }
+
+        HttpResponse copy() {
+            BasicHttpResponse response = new BasicHttpResponse(statusLine);
+            response.setHeaders(headers);
+            if (body != null) {
+                BasicHttpEntity entity = new BasicHttpEntity();
+                entity.setContent(new ByteArrayInputStream(body));
+                entity.setContentLength(body.length);
+                entity.setContentType(contentType);
+                entity.setContentEncoding(contentEncoding);
+                response.setEntity(entity);
+            }
+            return response;
+        }
+    }
+}
@@ -6,7 +6,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Timings and connection details of the request being executed on the current thread, collected for its HAR entry.
+ * The phases are measured with {@link System#nanoTime()}, and reported in milliseconds.
+ */
 public class RequestInfo {
     protected static final Logger logger = LoggerFactory.getLogger(RequestInfo.class);
 
@@ -24,8 +29,13 @@ public class RequestInfo {
     private Long wait;
     private Long receive;
     private String resolvedAddress;
-    private Date start;
-    private Date end;
+    private boolean recording;
+    private boolean started;
+    private long start;
+    private long end;
+    // wall clock time and nano time taken together when the request starts, to turn the nano times into dates
+    private long baseMillis;
+    private long baseNanos;
     private String url;
     private HarEntry entry;
 
@@ -38,6 +48,21 @@ public class RequestInfo {
         RequestInfo info = get();
         info.url = url;
         info.entry = entry;
+        info.recording = true;
+        info.baseMillis = System.currentTimeMillis();
+        info.baseNanos = System.nanoTime();
+    }
+
+    /**
+     * Clears the information of the previous request of this thread, and turns off the recording for the current one,
+     * because nothing is going to consume its timings.
+     */
+    public static void skip() {
+        clear();
+        RequestInfo info = get();
+        info.url = null;
+        info.entry = null;
+        info.recording = false;
     }
 
     private static void clear() {
@@ -50,19 +75,26 @@ public class RequestInfo {
         info.wait = null;
         info.receive = null;
         info.resolvedAddress = null;
-        info.start = null;
-        info.end = null;
+        info.started = false;
     }
 
-    private Long ping(Date start, Date end) {
-        if (this.start == null) {
+    private Long ping(long start, long end) {
+        if (!started) {
             this.start = start;
+            started = true;
         } else {
-            if (this.start.after(start)) {
+            if (this.start - start > 0) {
                 logger.error("Saw a later start time that was before the first start time for URL {}", url);
             }
         }
-        return end.getTime() - start.getTime();
+        return end - start;
+    }
+
+    /**
+     * @return true if the timings of the current request are recorded
+     */
+    public boolean isRecording() {
+        return recording;
     }
 
     public Long getBlocked() {
@@ -72,83 +104,139 @@ public class RequestInfo {
     }
 
     public Long getDns() {
-        return dns;
+        return toMillis(dns);
     }
 
     public Long getConnect() {
-        return connect;
+        // as per the Har 1.2 spec (to maintain backwards compatibility with 1.1) the connect time should actually
+        // include the ssl handshaking time
+        return connect == null ? null : toMillis(connect + norm(ssl));
     }
 
     public Long getSsl() {
-        return ssl;
+        return toMillis(ssl);
     }
 
     public Long getSend() {
-        return send;
+        return toMillis(send);
     }
 
     public Long getWait() {
-        return wait;
+        return toMillis(wait);
     }
 
     public Long getReceive() {
-        return receive;
+        return toMillis(receive);
     }
 
     public String getResolvedAddress() {
         return resolvedAddress;
     }
 
-    public void blocked(Date start, Date end) {
+    // the phases take the System.nanoTime() values of their start and end
+
+    public void blocked(long start, long end) {
+        if (!recording) {
+            return;
+        }
         // blocked is special - we don't record this start time as we don't want it to count towards receive time and
         // total time
-        blocked = end.getTime() - start.getTime();
+        blocked = end - start;
     }
 
-    public void dns(Date start, Date end, String resolvedAddress) {
+    public void dns(long start, long end, String resolvedAddress) {
+        if (!recording) {
+            return;
+        }
         dns = ping(start, end);
         this.resolvedAddress = resolvedAddress;
     }
 
-    public void connect(Date start, Date end) {
+    public void connect(long start, long end) {
+        if (!recording) {
+            return;
+        }
         connect = ping(start, end);
     }
 
-    public void ssl(Date start, Date end) {
+    public void ssl(long start, long end) {
+        if (!recording) {
+            return;
+        }
         ssl = ping(start, end);
     }
 
-    public void send(Date start, Date end) {
+    public void send(long start, long end) {
+        if (!recording) {
+            return;
+        }
         send = ping(start, end);
     }
 
-    public void wait(Date start, Date end) {
+    public void wait(long start, long end) {
+        if (!recording) {
+            return;
+        }
         wait = ping(start, end);
     }
 
     public void finish() {
-        end = new Date();
+        end = System.nanoTime();
 
-        if (start == null) {
-            start = new Date();
+        if (!started) {
+            start = end;
+            started = true;
         }
 
-        long totalTime = end.getTime() - start.getTime();
+        long totalTime = end - start;
 
         receive = totalTime - norm(wait) - norm(send) - norm(ssl) - norm(connect) - norm(dns);
 
-        // as per the Har 1.2 spec (to maintain backwards compatibility with 1.1) the connect time should actually
-        // include the ssl handshaking time, so doing that here after everything has been calculated
-        if (norm(ssl) > 0) {
-            connect += ssl;
-        }
-
         if (receive < 0) {
-            logger.error("Got a negative receiving time ({}) for URL {}", receive, url);
+            logger.error("Got a negative receiving time ({} ns) for URL {}", receive, url);
             receive = 0L;
         }
     }
 
+    /**
+     * @return the duration of the phase in ns, -1 if it was not measured; unlike for the HAR, connect does not
+     * include ssl here
+     */
+    long getNanos(LatencyHistograms.Phase phase) {
+        Long nanos;
+        switch (phase) {
+            case BLOCKED:
+                nanos = blocked;
+                break;
+            case DNS:
+                nanos = dns;
+                break;
+            case CONNECT:
+                nanos = connect;
+                break;
+            case SSL:
+                nanos = ssl;
+                break;
+            case SEND:
+                nanos = send;
+                break;
+            case WAIT:
+                nanos = wait;
+                break;
+            case RECEIVE:
+                nanos = receive;
+                break;
+            default:
+                nanos = started ? end - start : null;
+                break;
+        }
+        return nanos == null ? -1 : nanos;
+    }
+
+    private static Long toMillis(Long nanos) {
+        return nanos == null ? null : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
     private long norm(Long val) {
         if (val == null) {
             return 0;
@@ -158,34 +246,36 @@ public class RequestInfo {
     }
 
     public Date getStart() {
-        return start;
+        return started ? toDate(start) : null;
     }
 
     public Date getEnd() {
-        return end;
+        return started ? toDate(end) : null;
+    }
+
+    private Date toDate(long nanos) {
+        return new Date(baseMillis + TimeUnit.NANOSECONDS.toMillis(nanos - baseNanos));
     }
 
     public long getTotalTime() {
-        if (end == null || start == null) {
+        if (!started) {
             return -1;
         }
 
-        return end.getTime() - start.getTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - start);
     }
 
     @Override
     public String toString() {
-        long totalTime = end.getTime() - start.getTime();
-
         return "RequestInfo{" +
-                "blocked=" + blocked +
-                ", dns=" + dns +
-                ", connect=" + connect +
-                ", ssl=" + ssl +
-                ", send=" + send +
-                ", wait=" + wait +
-                ", receive=" + receive +
-                ", total=" + totalTime +
+                "blocked=" + toMillis(blocked) +
+                ", dns=" + getDns() +
+                ", connect=" + getConnect() +
+                ", ssl=" + getSsl() +
+                ", send=" + getSend() +
+                ", wait=" + getWait() +
+                ", receive=" + getReceive() +
+                ", total=" + getTotalTime() +
                 ", resolvedAddress='" + resolvedAddress + '\'' +
                 '}';
     }
@@ -193,17 +283,17 @@ public class RequestInfo {
     public HarTimings getTimings() {
         long send = 0;
         if (this.send != null) {
-            send = this.send;
+            send = getSend();
         }
 
         long wait = 0;
         if (this.wait != null) {
-            wait = this.wait;
+            wait = getWait();
         }
 
         long receive = 0;
         if (this.receive != null) {
-            receive = this.receive;
+            receive = getReceive();
         }
 
         // We were setting the following to null, however
@@ -212,17 +302,17 @@ public class RequestInfo {
         // Keeping them set to zero for now, until
         long blocked = 0;
         if (this.blocked != null) {
-            blocked = this.blocked;
+            blocked = toMillis(this.blocked);
         }
 
         long dns = 0;
         if (this.dns != null) {
-            dns = this.dns;
+            dns = getDns();
         }
 
         long connect = 0;
         if (this.connect != null) {
-            connect = this.connect;
+            connect = getConnect();
         }
 
         return new HarTimings(blocked, dns, connect, send, wait, receive);
@@ -0,0 +1,855 @@
+package net.lightbody.bmp.proxy.http;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpMessage;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.message.HeaderGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared HTTP cache of the upstream responses, following RFC 7234.
+ * <p>
+ * Responses of GET requests are stored when the Cache-Control, Expires, ETag and Last-Modified headers allow it, and
+ * served while they are fresh. Stale responses with a validator are revalidated with a conditional request, a 304
+ * answer refreshes the stored response. Vary is honored by keeping a variant per value of the listed request
+ * headers. Successful unsafe requests (POST, PUT, DELETE...) invalidate the stored response of their URL.
+ * <p>
+ * Bodies are kept in memory up to the memory limit, the least recently used ones are moved to the optional disk tier
+ * (files in the given directory, read through memory mapping), that has its own limit. The cache can be switched off
+ * for hosts, or subdomains like <code>*.internal.example</code>.
+ */
+public class ResponseCache {
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+    private static final long MAX_HEURISTIC_LIFETIME_MS = TimeUnit.DAYS.toMillis(1);
+    // status codes that are cacheable by default (RFC 7231 6.1), so heuristic freshness can be used for them
+    private static final Set<Integer> HEURISTICALLY_CACHEABLE = new HashSet<Integer>(Arrays.asList(
+            200, 203, 204, 300, 301, 404, 405, 410, 414, 501));
+    private static final Set<String> SAFE_METHODS = new HashSet<String>(Arrays.asList("GET", "HEAD", "OPTIONS", "TRACE"));
+    // the headers of the stored response that are not replaced by the ones of a 304 response
+    private static final Set<String> NOT_UPDATED_HEADERS = new HashSet<String>(Arrays.asList(
+            "content-length", "content-encoding", "transfer-encoding", "content-range"));
+    private static final String ON = "on";
+    private static final String OFF = "off";
+
+    private final long maxMemoryBytes;
+    private final long maxEntryBytes;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final Map<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Map<String, Entry> disk = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Map<String, List<String>> varyHeaders = new ConcurrentHashMap<String, List<String>>();
+    private long memoryBytes;
+    private long diskBytes;
+    private volatile HostRemapTable hostRules = HostRemapTable.EMPTY;
+    private volatile boolean enabledByDefault = true;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+
+    /**
+     * Creates a cache with a memory tier only.
+     *
+     * @param maxMemoryBytes is the limit of the bodies kept in memory
+     */
+    public ResponseCache(final long maxMemoryBytes) {
+        this(maxMemoryBytes, null, 0);
+    }
+
+    /**
+     * Creates a cache with a memory tier and a disk tier.
+     *
+     * @param maxMemoryBytes is the limit of the bodies kept in memory
+     * @param directory      is the directory of the disk tier, or null to have no disk tier
+     * @param maxDiskBytes   is the limit of the bodies kept on disk
+     */
+    public ResponseCache(final long maxMemoryBytes, final File directory, final long maxDiskBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxEntryBytes = Math.min(DEFAULT_MAX_ENTRY_BYTES, Math.max(maxMemoryBytes, maxDiskBytes));
+        this.directory = directory;
+        this.maxDiskBytes = directory == null ? 0 : maxDiskBytes;
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create the cache directory " + directory);
+        }
+    }
+
+    /**
+     * Switches the cache on or off for a host, or for the subdomains matching a wildcard rule like
+     * *.internal.example. The most specific rule wins.
+     */
+    public void setEnabled(final String host, final boolean enabled) {
+        synchronized (this) {
+            hostRules = hostRules.with(host, enabled ? ON : OFF);
+        }
+    }
+
+    /**
+     * Sets whether the cache is used for the hosts without a rule, it is on by default.
+     */
+    public void setEnabledByDefault(final boolean enabledByDefault) {
+        this.enabledByDefault = enabledByDefault;
+    }
+
+    /**
+     * Sets the host rules from a comma separated list, like "*.example.com,-static.example.com": a host or wildcard
+     * rule switches the cache on, the ones starting with - switch it off, and * (or -*) is the default.
+     */
+    public void setHostRules(final String rules) {
+        for (String rule : rules.split(",")) {
+            String host = rule.trim();
+            boolean enabled = !host.startsWith("-");
+            if (!enabled) {
+                host = host.substring(1).trim();
+            }
+            if ("*".equals(host)) {
+                setEnabledByDefault(enabled);
+            } else if (!host.isEmpty()) {
+                setEnabled(host, enabled);
+            }
+        }
+    }
+
+    public boolean isEnabled(final String host) {
+        String rule = hostRules.lookup(host);
+        return rule == null ? enabledByDefault : ON.equals(rule);
+    }
+
+    /**
+     * @return the number of requests served from the cache without contacting the server
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of cacheable requests that were sent to the server and got a full response
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of stale responses that were served after the server validated them (304)
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    public synchronized int getEntryCount() {
+        return memory.size() + disk.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Drops every stored response.
+     */
+    public void clear() {
+        List<Entry> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<Entry>(memory.values());
+            dropped.addAll(disk.values());
+            memory.clear();
+            disk.clear();
+            memoryBytes = 0;
+            diskBytes = 0;
+        }
+        varyHeaders.clear();
+        for (Entry entry : dropped) {
+            entry.body.discard();
+        }
+    }
+
+    /**
+     * Serves the request from the cache if possible, otherwise executes it (conditionally, if there is a stale
+     * response with a validator) and stores the response if it is cacheable.
+     *
+     * @param method is the request
+     * @param call   is the upstream call of the request
+     * @return with the response, that is owned by the caller
+     */
+    HttpResponse execute(final HttpRequestBase method, final RequestCoalescer.UpstreamCall call) throws IOException {
+        String methodName = method.getMethod();
+        if (!"GET".equals(methodName)) {
+            HttpResponse response = call.execute();
+            if (!SAFE_METHODS.contains(methodName) && response.getStatusLine().getStatusCode() < 400) {
+                invalidate(method.getURI().toString());
+            }
+            return response;
+        }
+        Directives request = Directives.of(method);
+        if (!isEnabled(method.getURI().getHost()) || request.noStore || method.containsHeader("Range")) {
+            return call.execute();
+        }
+
+        String url = method.getURI().toString();
+        String key = keyOf(url, method);
+        Entry entry = get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.isServable(now, request)) {
+            hits.incrementAndGet();
+            return entry.toResponse(now, method);
+        }
+
+        boolean conditional = false;
+        if (entry != null && entry.hasValidator() && !isConditional(method)) {
+            conditional = true;
+            if (entry.etag != null) {
+                method.setHeader("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                method.setHeader("If-Modified-Since", entry.lastModified);
+            }
+        }
+        long requestTime = System.currentTimeMillis();
+        HttpResponse response;
+        try {
+            response = call.execute();
+        } finally {
+            if (conditional) {
+                method.removeHeaders("If-None-Match");
+                method.removeHeaders("If-Modified-Since");
+            }
+        }
+        long responseTime = System.currentTimeMillis();
+
+        if (conditional && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            revalidations.incrementAndGet();
+            entry.update(response, requestTime, responseTime);
+            return entry.toResponse(responseTime, method);
+        }
+        misses.incrementAndGet();
+        return store(url, key, method, response, requestTime, responseTime);
+    }
+
+    private HttpResponse store(final String url, final String key, final HttpRequestBase method, final HttpResponse response,
+                               final long requestTime, final long responseTime) throws IOException {
+        if (!isStorable(method, response)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != HttpStatus.SC_NOT_MODIFIED && statusCode < 400) {
+                // the response is not cacheable any more, do not serve the old one
+                remove(key);
+            }
+            return response;
+        }
+        byte[] body = readBody(response);
+        if (body == null) {
+            return response;
+        }
+        Header vary = response.getFirstHeader("Vary");
+        List<String> varyNames = new ArrayList<String>();
+        if (vary != null) {
+            for (HeaderElement element : vary.getElements()) {
+                varyNames.add(element.getName());
+            }
+        }
+        varyHeaders.put(url, varyNames);
+        Entry entry = new Entry(response, new MemoryBody(body), requestTime, responseTime);
+        put(keyOf(url, method), entry);
+        return entry.toResponse(responseTime, null);
+    }
+
+    private boolean isStorable(final HttpRequestBase method, final HttpResponse response) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        Directives directives = Directives.of(response);
+        if (directives.noStore || directives.isPrivate || statusCode == HttpStatus.SC_PARTIAL_CONTENT
+                || response.containsHeader("Set-Cookie")) {
+            return false;
+        }
+        Header vary = response.getFirstHeader("Vary");
+        if (vary != null && vary.getValue().trim().equals("*")) {
+            return false;
+        }
+        if (method.containsHeader("Authorization") && !directives.isPublic && !directives.mustRevalidate
+                && directives.sMaxAge < 0) {
+            return false;
+        }
+        boolean explicit = directives.sMaxAge >= 0 || directives.maxAge >= 0 || response.containsHeader("Expires");
+        if (explicit) {
+            return statusCode < 300 || HEURISTICALLY_CACHEABLE.contains(statusCode);
+        }
+        return HEURISTICALLY_CACHEABLE.contains(statusCode)
+                && (response.containsHeader("ETag") || response.containsHeader("Last-Modified"));
+    }
+
+    /**
+     * Reads the body of the response, if it fits into an entry. If it is too large, the response is left readable
+     * from the start.
+     *
+     * @return the body, or null if it is too large to be stored
+     */
+    private byte[] readBody(final HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return new byte[0];
+        }
+        if (entity.getContentLength() > maxEntryBytes) {
+            return null;
+        }
+        InputStream content = entity.getContent();
+        if (content == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int length;
+        while ((length = content.read(chunk)) != -1) {
+            buffer.write(chunk, 0, length);
+            if (buffer.size() > maxEntryBytes) {
+                BasicHttpEntity rest = new BasicHttpEntity();
+                rest.setContent(new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), content));
+                rest.setContentLength(entity.getContentLength());
+                rest.setContentType(entity.getContentType());
+                rest.setContentEncoding(entity.getContentEncoding());
+                rest.setChunked(entity.isChunked());
+                response.setEntity(rest);
+                return null;
+            }
+        }
+        content.close();
+        return buffer.toByteArray();
+    }
+
+    private static boolean isConditional(final HttpRequest request) {
+        return request.containsHeader("If-None-Match") || request.containsHeader("If-Modified-Since")
+                || request.containsHeader("If-Match") || request.containsHeader("If-Unmodified-Since")
+                || request.containsHeader("If-Range");
+    }
+
+    private String keyOf(final String url, final HttpRequest request) {
+        List<String> names = varyHeaders.get(url);
+        if (names == null || names.isEmpty()) {
+            return url;
+        }
+        StringBuilder key = new StringBuilder(url);
+        for (String name : names) {
+            key.append('\n').append(name.toLowerCase(Locale.ROOT)).append(':');
+            for (Header header : request.getHeaders(name)) {
+                key.append(' ').append(header.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    private synchronized Entry get(final String key) {
+        Entry entry = memory.get(key);
+        return entry != null ? entry : disk.get(key);
+    }
+
+    private void put(final String key, final Entry entry) {
+        List<Map.Entry<String, Entry>> evicted = new ArrayList<Map.Entry<String, Entry>>();
+        List<Entry> dropped = new ArrayList<Entry>();
+        synchronized (this) {
+            dropped.add(removeLocked(key));
+            memory.put(key, entry);
+            memoryBytes += entry.body.size();
+            Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                Map.Entry<String, Entry> next = eldest.next();
+                eldest.remove();
+                memoryBytes -= next.getValue().body.size();
+                evicted.add(next);
+            }
+        }
+        // the evicted bodies are written to the disk tier outside of the lock
+        for (Map.Entry<String, Entry> next : evicted) {
+            Entry spilled = next.getValue();
+            if (directory != null && spilled.body.size() <= maxDiskBytes) {
+                try {
+                    spilled.body = MappedBody.write(directory, spilled.body);
+                    putOnDisk(next.getKey(), spilled, dropped);
+                    continue;
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to move a cached response to {}", directory, e);
+                }
+            }
+            dropped.add(spilled);
+        }
+        for (Entry old : dropped) {
+            if (old != null) {
+                old.body.discard();
+            }
+        }
+    }
+
+    private synchronized void putOnDisk(final String key, final Entry entry, final List<Entry> dropped) {
+        if (memory.containsKey(key) || disk.containsKey(key)) {
+            // stored again since it was evicted, the new response wins
+            dropped.add(entry);
+            return;
+        }
+        disk.put(key, entry);
+        diskBytes += entry.body.size();
+        Iterator<Entry> eldest = disk.values().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Entry next = eldest.next();
+            eldest.remove();
+            diskBytes -= next.body.size();
+            dropped.add(next);
+        }
+    }
+
+    private void remove(final String key) {
+        Entry removed;
+        synchronized (this) {
+            removed = removeLocked(key);
+        }
+        if (removed != null) {
+            removed.body.discard();
+        }
+    }
+
+    private Entry removeLocked(final String key) {
+        Entry removed = memory.remove(key);
+        if (removed != null) {
+            memoryBytes -= removed.body.size();
+            return removed;
+        }
+        removed = disk.remove(key);
+        if (removed != null) {
+            diskBytes -= removed.body.size();
+        }
+        return removed;
+    }
+
+    private void invalidate(final String url) {
+        List<Entry> removed = new ArrayList<Entry>();
+        synchronized (this) {
+            for (Map<String, Entry> tier : Arrays.asList(memory, disk)) {
+                Iterator<Map.Entry<String, Entry>> entries = tier.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, Entry> next = entries.next();
+                    if (next.getKey().equals(url) || next.getKey().startsWith(url + "\n")) {
+                        entries.remove();
+                        removed.add(next.getValue());
+                    }
+                }
+            }
+            for (Entry entry : removed) {
+                if (entry.body instanceof MappedBody) {
+                    diskBytes -= entry.body.size();
+                } else {
+                    memoryBytes -= entry.body.size();
+                }
+            }
+        }
+        for (Entry entry : removed) {
+            entry.body.discard();
+        }
+    }
+
+    /**
+     * The Cache-Control directives of a request or a response, with Pragma: no-cache taken into account.
+     */
+    private static final class Directives {
+        private boolean noStore;
+        private boolean noCache;
+        private boolean isPrivate;
+        private boolean isPublic;
+        private boolean mustRevalidate;
+        private long maxAge = -1;
+        private long sMaxAge = -1;
+        private long maxStale = -1;
+        private long minFresh = -1;
+
+        static Directives of(final HttpMessage message) {
+            Directives directives = new Directives();
+            for (Header header : message.getHeaders("Cache-Control")) {
+                for (HeaderElement element : header.getElements()) {
+                    String name = element.getName().toLowerCase(Locale.ROOT);
+                    switch (name) {
+                        case "no-store":
+                            directives.noStore = true;
+                            break;
+                        case "no-cache":
+                            directives.noCache = true;
+                            break;
+                        case "private":
+                            directives.isPrivate = true;
+                            break;
+                        case "public":
+                            directives.isPublic = true;
+                            break;
+                        case "must-revalidate":
+                        case "proxy-revalidate":
+                            directives.mustRevalidate = true;
+                            break;
+                        case "max-age":
+                            directives.maxAge = seconds(element.getValue(), 0);
+                            break;
+                        case "s-maxage":
+                            directives.sMaxAge = seconds(element.getValue(), 0);
+                            break;
+                        case "max-stale":
+                            directives.maxStale = seconds(element.getValue(), Long.MAX_VALUE);
+                            break;
+                        case "min-fresh":
+                            directives.minFresh = seconds(element.getValue(), 0);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            if (!message.containsHeader("Cache-Control")) {
+                for (Header header : message.getHeaders("Pragma")) {
+                    if (header.getValue().toLowerCase(Locale.ROOT).contains("no-cache")) {
+                        directives.noCache = true;
+                    }
+                }
+            }
+            return directives;
+        }
+
+        private static long seconds(final String value, final long missing) {
+            if (value == null) {
+                return missing;
+            }
+            try {
+                return Math.max(0, Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                // an invalid value is treated as stale, RFC 7234 4.2.1
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * A stored response, with the times needed to calculate its age (RFC 7234 4.2.3).
+     */
+    private static final class Entry {
+        private volatile StatusLine statusLine;
+        private volatile Header[] headers;
+        private volatile Body body;
+        private volatile long requestTime;
+        private volatile long responseTime;
+        private volatile long correctedInitialAge;
+        private volatile long freshnessLifetime;
+        private volatile Directives directives;
+        private volatile String etag;
+        private volatile String lastModified;
+
+        Entry(final HttpResponse response, final Body body, final long requestTime, final long responseTime) {
+            this.statusLine = response.getStatusLine();
+            this.body = body;
+            HeaderGroup group = new HeaderGroup();
+            group.setHeaders(response.getAllHeaders());
+            HttpEntity entity = response.getEntity();
+            if (entity != null && entity.getContentType() != null && !group.containsHeader("Content-Type")) {
+                group.addHeader(entity.getContentType());
+            }
+            init(group.getAllHeaders(), requestTime, responseTime);
+        }
+
+        private void init(final Header[] headers, final long requestTime, final long responseTime) {
+            this.headers = headers;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+            BasicHttpResponse message = new BasicHttpResponse(statusLine);
+            message.setHeaders(headers);
+            this.directives = Directives.of(message);
+            this.etag = value(message, "ETag");
+            this.lastModified = value(message, "Last-Modified");
+
+            Date date = date(message, "Date");
+            long dateValue = date == null ? responseTime : date.getTime();
+            long apparentAge = Math.max(0, responseTime - dateValue);
+            long ageValue = 0;
+            String age = value(message, "Age");
+            if (age != null) {
+                try {
+                    ageValue = TimeUnit.SECONDS.toMillis(Long.parseLong(age.trim()));
+                } catch (NumberFormatException e) {
+                    // ignored, like a missing Age
+                }
+            }
+            this.correctedInitialAge = Math.max(apparentAge, ageValue + (responseTime - requestTime));
+
+            if (directives.sMaxAge >= 0) {
+                freshnessLifetime = TimeUnit.SECONDS.toMillis(directives.sMaxAge);
+            } else if (directives.maxAge >= 0) {
+                freshnessLifetime = TimeUnit.SECONDS.toMillis(directives.maxAge);
+            } else if (message.containsHeader("Expires")) {
+                Date expires = date(message, "Expires");
+                freshnessLifetime = expires == null ? 0 : Math.max(0, expires.getTime() - dateValue);
+            } else {
+                // heuristic freshness, 10% of the time since the last modification
+                Date modified = lastModified == null ? null : DateUtils.parseDate(lastModified);
+                freshnessLifetime = modified == null ? 0
+                        : Math.min(MAX_HEURISTIC_LIFETIME_MS, Math.max(0, (dateValue - modified.getTime()) / 10));
+            }
+        }
+
+        long currentAge(final long now) {
+            return correctedInitialAge + (now - responseTime);
+        }
+
+        boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+
+        boolean isServable(final long now, final Directives request) {
+            if (request.noCache || directives.noCache) {
+                return false;
+            }
+            long age = currentAge(now);
+            if (request.maxAge >= 0 && age > TimeUnit.SECONDS.toMillis(request.maxAge)) {
+                return false;
+            }
+            long fresh = freshnessLifetime - age;
+            if (request.minFresh >= 0 && fresh < TimeUnit.SECONDS.toMillis(request.minFresh)) {
+                return false;
+            }
+            if (fresh > 0) {
+                return true;
+            }
+            // stale: only if the client accepts it, and the server did not forbid it
+            return request.maxStale >= 0 && !directives.mustRevalidate
+                    && (request.maxStale == Long.MAX_VALUE || -fresh <= TimeUnit.SECONDS.toMillis(request.maxStale));
+        }
+
+        /**
+         * Updates the stored response with the headers of a 304 response (RFC 7234 4.3.4).
+         */
+        synchronized void update(final HttpResponse notModified, final long requestTime, final long responseTime) {
+            HeaderGroup group = new HeaderGroup();
+            group.setHeaders(headers);
+            Set<String> replaced = new HashSet<String>();
+            for (Header header : notModified.getAllHeaders()) {
+                String name = header.getName().toLowerCase(Locale.ROOT);
+                if (NOT_UPDATED_HEADERS.contains(name)) {
+                    continue;
+                }
+                if (replaced.add(name)) {
+                    for (Header old : group.getHeaders(header.getName())) {
+                        group.removeHeader(old);
+                    }
+                }
+                group.addHeader(header);
+            }
+            init(group.getAllHeaders(), requestTime, responseTime);
+        }
+
+        /**
+         * Creates a response of the stored one, answering the conditions of the client request, if there is any.
+         */
+        HttpResponse toResponse(final long now, final HttpRequest request) throws IOException {
+            if (request != null && isNotModified(request)) {
+                BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(statusLine.getProtocolVersion(),
+                        HttpStatus.SC_NOT_MODIFIED, "Not Modified"));
+                for (Header header : headers) {
+                    if (!header.getName().toLowerCase(Locale.ROOT).startsWith("content-")) {
+                        response.addHeader(header);
+                    }
+                }
+                setAge(response, now);
+                return response;
+            }
+            BasicHttpResponse response = new BasicHttpResponse(statusLine);
+            response.setHeaders(headers);
+            setAge(response, now);
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(body.open());
+            entity.setContentLength(body.size());
+            entity.setContentType(response.getFirstHeader("Content-Type"));
+            entity.setContentEncoding(response.getFirstHeader("Content-Encoding"));
+            response.setEntity(entity);
+            return response;
+        }
+
+        private void setAge(final HttpResponse response, final long now) {
+            if (now > responseTime || correctedInitialAge > 0) {
+                response.setHeader("Age", Long.toString(TimeUnit.MILLISECONDS.toSeconds(currentAge(now))));
+            }
+        }
+
+        private boolean isNotModified(final HttpRequest request) {
+            if (statusLine.getStatusCode() != HttpStatus.SC_OK) {
+                return false;
+            }
+            Header ifNoneMatch = request.getFirstHeader("If-None-Match");
+            if (ifNoneMatch != null) {
+                if (etag == null) {
+                    return false;
+                }
+                String stored = weak(etag);
+                for (String tag : ifNoneMatch.getValue().split(",")) {
+                    String candidate = tag.trim();
+                    if ("*".equals(candidate) || weak(candidate).equals(stored)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            Header ifModifiedSince = request.getFirstHeader("If-Modified-Since");
+            if (ifModifiedSince != null && lastModified != null) {
+                Date since = DateUtils.parseDate(ifModifiedSince.getValue());
+                Date modified = DateUtils.parseDate(lastModified);
+                return since != null && modified != null && !modified.after(since);
+            }
+            return false;
+        }
+
+        private static String weak(final String tag) {
+            return tag.startsWith("W/") ? tag.substring(2) : tag;
+        }
+
+        private static String value(final HttpResponse response, final String name) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        private static Date date(final HttpResponse response, final String name) {
+            String value = value(response, name);
+            return value == null ? null : DateUtils.parseDate(value);
+        }
+    }
+
+    /**
+     * The stored body of a response.
+     */
+    private interface Body {
+        InputStream open() throws IOException;
+
+        long size();
+
+        void discard();
+    }
+
+    private static final class MemoryBody implements Body {
+        private final byte[] content;
+
+        MemoryBody(final byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public long size() {
+            return content.length;
+        }
+
+        @Override
+        public void discard() {
+            // garbage collected
+        }
+    }
+
+    /**
+     * A body in a file of the disk tier, read through a read-only memory mapping, so the reads are served from the
+     * page cache without copying into the heap.
+     */
+    private static final class MappedBody implements Body {
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        private MappedBody(final File file, final MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static MappedBody write(final File directory, final Body body) throws IOException {
+            File file = File.createTempFile("response", ".body", directory);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 InputStream content = body.open()) {
+                byte[] chunk = new byte[8192];
+                int length;
+                while ((length = content.read(chunk)) != -1) {
+                    raf.write(chunk, 0, length);
+                }
+                // the mapping stays valid after the channel is closed
+                return new MappedBody(file, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+        }
+
+        @Override
+        public InputStream open() {
+            final ByteBuffer view = buffer.duplicate();
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return view.hasRemaining() ? view.get() & 0xff : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (!view.hasRemaining()) {
+                        return -1;
+                    }
+                    int count = Math.min(len, view.remaining());
+                    view.get(b, off, count);
+                    return count;
+                }
+
+                @Override
+                public int available() {
+                    return view.remaining();
+                }
+            };
+        }
+
+        @Override
+        public long size() {
+            return buffer.capacity();
+        }
+
+        @Override
+        public void discard() {
+            // on some platforms a mapped file cannot be deleted till the mapping is garbage collected
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -8,22 +8,21 @@ import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestExecutor;
 
 import java.io.IOException;
-import java.util.Date;
 
 public class SimulatedRequestExecutor extends HttpRequestExecutor {
     @Override
     protected HttpResponse doSendRequest(final HttpRequest request, final HttpClientConnection conn, final HttpContext context) throws IOException, HttpException {
-        Date start = new Date();
+        long start = System.nanoTime();
         HttpResponse response = super.doSendRequest(request, conn, context);
-        RequestInfo.get().send(start, new Date());
+        RequestInfo.get().send(start, System.nanoTime());
         return response;
     }
 
     @Override
     protected HttpResponse doReceiveResponse(final HttpRequest request, final HttpClientConnection conn, final HttpContext context) throws HttpException, IOException {
-        Date start = new Date();
+        long start = System.nanoTime();
         HttpResponse response = super.doReceiveResponse(request, conn, context);
-        RequestInfo.get().wait(start, new Date());
+        RequestInfo.get().wait(start, System.nanoTime());
         return response;
     }
 
@@ -7,16 +7,25 @@ import org.apache.http.ssl.SSLContexts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TrustingSSLSocketFactory extends SSLConnectionSocketFactory {
 
@@ -45,21 +54,68 @@ public class TrustingSSLSocketFactory extends SSLConnectionSocketFactory {
         }
     }
 
+    private final SSLContext sslContext;
     private final int timeout;
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    /**
+     * Creates a context like the one of the factory, that trusts every server, with no host name verification either,
+     * for clients that cannot be given a host name verifier (like the HTTP/2 upstream client).
+     */
+    static SSLContext newTrustingSslContext() throws GeneralSecurityException {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, keyStorePassword.toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), new TrustManager[]{new TrustingTrustManager()}, null);
+        return sslContext;
+    }
 
     public TrustingSSLSocketFactory(int timeout) throws KeyManagementException,
             UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException {
-        super(
+        this(
                 SSLContexts.custom()
                         .loadKeyMaterial(keyStore, keyStorePassword.toCharArray())
                         .loadTrustMaterial(null, (cert, authType) -> true) //trust strategy is here
                         .build(),
-                new AllowAllHostnameVerifier()
+                timeout
         );
+    }
 
+    private TrustingSSLSocketFactory(SSLContext sslContext, int timeout) {
+        super(sslContext, new AllowAllHostnameVerifier());
+        this.sslContext = sslContext;
         this.timeout = timeout;
     }
 
+    /**
+     * Sets the number of client sessions kept for resumption, 0 for no limit.
+     */
+    public void setSessionCacheSize(int size) {
+        sslContext.getClientSessionContext().setSessionCacheSize(size);
+    }
+
+    /**
+     * Sets the time (in seconds) a client session can be resumed for, 0 for no limit.
+     */
+    public void setSessionTimeout(int seconds) {
+        sslContext.getClientSessionContext().setSessionTimeout(seconds);
+    }
+
+    /**
+     * @return the number of handshakes that established a new session
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    /**
+     * @return the number of handshakes that resumed a cached session (session id or TLS 1.3 PSK)
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
     @Override
     public Socket createSocket(final HttpContext context) throws IOException {
         Socket sslSocket = super.createSocket(context);
@@ -87,11 +143,23 @@ public class TrustingSSLSocketFactory extends SSLConnectionSocketFactory {
             final String target,
             final int port,
             final HttpContext context) throws IOException {
+        long handshakeStart = System.currentTimeMillis();
+        // the session is looked up in the client session cache by target and port, so it is resumed where it is possible
         Socket sslSocket = super.createLayeredSocket(socket, target, port, context);
         configureSocket(sslSocket);
+        countHandshake((SSLSocket) sslSocket, handshakeStart);
         return sslSocket;
     }
 
+    private void countHandshake(SSLSocket socket, long handshakeStart) {
+        // a resumed session keeps the creation time of the handshake that established it
+        if (socket.getSession().getCreationTime() < handshakeStart) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+    }
+
     private void configureSocket(Socket socket) {
         // Configure the socket to be Load Test Friendly!
         // If we don't set these, we can easily use up too many sockets, even when we're cleaning/closing the sockets
@@ -115,4 +183,39 @@ public class TrustingSSLSocketFactory extends SSLConnectionSocketFactory {
         }
     }
 
+    /**
+     * Trusts every certificate. Being an X509ExtendedTrustManager, it is not wrapped by the JSSE, so the endpoint
+     * identification is not done either.
+     */
+    private static class TrustingTrustManager extends X509ExtendedTrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+
 }
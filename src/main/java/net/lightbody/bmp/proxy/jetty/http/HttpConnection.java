@@ -84,6 +84,7 @@ public class HttpConnection implements OutputObserver {
     private int _requests;
     private Object _object;
     private HttpTunnel _tunnel;
+    private boolean _detached;
 
     /**
      * Constructor.
@@ -349,6 +350,16 @@ public class HttpConnection implements OutputObserver {
         _throttled = throttled;
     }
 
+    /**
+     * Is the connection detached.
+     *
+     * @return True if the connection has been taken over by a detached HttpTunnel, that will close it when done.
+     * @see HttpTunnel#isDetached()
+     */
+    public boolean isDetached() {
+        return _detached;
+    }
+
     /**
      * Get associated object.
      * Used by a particular HttpListener implementation to associate private datastructures with the connection.
@@ -778,7 +789,15 @@ public class HttpConnection implements OutputObserver {
         if (_tunnel != null) {
             log.debug("Tunnel: {}", _tunnel);
             _outputStream.resetObservers();
-            _tunnel.handle(_inputStream.getInputStream(), _outputStream.getOutputStream());
+            HttpTunnel.opened();
+            try {
+                _tunnel.handle(_inputStream.getInputStream(), _outputStream.getOutputStream());
+            } finally {
+                _detached = _tunnel.isDetached();
+                if (!_detached) {
+                    HttpTunnel.closed();
+                }
+            }
             return false;
         }
 
@@ -1025,7 +1044,9 @@ public class HttpConnection implements OutputObserver {
      */
     protected void destroy() {
         try {
-            close();
+            if (!_detached) {
+                close();
+            }
         } catch (Exception e) {
             log.warn(LogSupport.EXCEPTION, e);
         }
@@ -42,6 +42,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * HTTP Server.
@@ -85,39 +88,10 @@ public class HttpServer extends Container implements LifeCycle, Serializable {
     private transient boolean _gracefulStop;
 
     private boolean _statsOn = false;
-    private transient Object _statsLock = new Object[0];
+    private transient volatile Stats _stats = new Stats(0, 0);
 
     private transient long _statsStartedAt = 0;
 
-    private transient int _connections;                  // total number of connections made to server
-    private transient int _connectionsOpen;              // number of connections currently open
-
-    private transient int _connectionsOpenMin;           // min number of connections open simultaneously
-    private transient int _connectionsOpenMax;           // max number of connections open simultaneously
-    private transient long _connectionsDurationMin;      // min duration of a connection
-
-    private transient long _connectionsDurationMax;      // max duration of a connection
-
-    private transient long _connectionsDurationTotal;    // total duration of all coneection
-
-    private transient int _errors;                       // total bad requests to the server
-
-    private transient int _requests;                     // total requests made to the server
-
-    private transient int _requestsActive;               // number of requests currently being handled
-
-    private transient int _requestsActiveMin;            // min number of connections handled simultaneously
-    private transient int _requestsActiveMax;            // max number of connections handled simultaneously
-    private transient int _connectionsRequestsMin;       // min requests per connection
-
-    private transient int _connectionsRequestsMax;       // max requests per connection
-
-    private transient long _requestsDurationMin;         // min request duration
-
-    private transient long _requestsDurationMax;         // max request duration
-
-    private transient long _requestsDurationTotal;       // total request duration
-
     /**
      * Constructor.
      */
@@ -160,7 +134,7 @@ public class HttpServer extends Container implements LifeCycle, Serializable {
         _virtualHostMap.clear();
         setContexts(contexts);
         setListeners(listeners);
-        _statsLock = new Object[0];
+        _stats = new Stats(0, 0);
     }
 
     /**
@@ -959,33 +933,13 @@ public class HttpServer extends Container implements LifeCycle, Serializable {
 
     /**
      * Reset statistics.
+     * The connections and requests in progress are not counted any more, but the minimum and maximum of the open
+     * connections and of the active requests start from their current number.
      */
     public void statsReset() {
         _statsStartedAt = System.currentTimeMillis();
-
-        _connections = 0;
-
-        _connectionsOpenMin = _connectionsOpen;
-        _connectionsOpenMax = _connectionsOpen;
-        _connectionsOpen = 0;
-
-        _connectionsDurationMin = 0;
-        _connectionsDurationMax = 0;
-        _connectionsDurationTotal = 0;
-
-        _errors = 0;
-        _requests = 0;
-
-        _requestsActiveMin = _requestsActive;
-        _requestsActiveMax = _requestsActive;
-        _requestsActive = 0;
-
-        _connectionsRequestsMin = 0;
-        _connectionsRequestsMax = 0;
-
-        _requestsDurationMin = 0;
-        _requestsDurationMax = 0;
-        _requestsDurationTotal = 0;
+        Stats stats = _stats;
+        _stats = new Stats(stats._connectionsOpen.get(), stats._requestsActive.get());
     }
 
     /**
@@ -1011,208 +965,220 @@ public class HttpServer extends Container implements LifeCycle, Serializable {
      * @return Returns the connectionsDurationMin.
      */
     public long getConnectionsDurationMin() {
-        return _connectionsDurationMin;
+        return _stats._connectionsDurationMin.get();
     }
 
     /**
      * @return Returns the connectionsDurationTotal.
      */
     public long getConnectionsDurationTotal() {
-        return _connectionsDurationTotal;
+        return _stats._connectionsDurationTotal.sum();
     }
 
     /**
      * @return Returns the connectionsOpenMin.
      */
     public int getConnectionsOpenMin() {
-        return _connectionsOpenMin;
+        return _stats._connectionsOpenMin.get();
     }
 
     /**
      * @return Returns the connectionsRequestsMin.
      */
     public int getConnectionsRequestsMin() {
-        return _connectionsRequestsMin;
+        return _stats._connectionsRequestsMin.get();
     }
 
     /**
      * @return Returns the requestsActiveMin.
      */
     public int getRequestsActiveMin() {
-        return _requestsActiveMin;
+        return _stats._requestsActiveMin.get();
     }
 
     /**
      * @return Returns the requestsDurationMin.
      */
     public long getRequestsDurationMin() {
-        return _requestsDurationMin;
+        return _stats._requestsDurationMin.get();
     }
 
     /**
      * @return Returns the requestsDurationTotal.
      */
     public long getRequestsDurationTotal() {
-        return _requestsDurationTotal;
+        return _stats._requestsDurationTotal.sum();
     }
 
     /**
      * @return Number of connections accepted by the server since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getConnections() {
-        return _connections;
+        return _stats._connections.intValue();
     }
 
     /**
      * @return Number of connections currently open that were opened since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getConnectionsOpen() {
-        return _connectionsOpen;
+        return _stats._connectionsOpen.get();
     }
 
     /**
      * @return Maximum number of connections opened simultaneously since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getConnectionsOpenMax() {
-        return _connectionsOpenMax;
+        return _stats._connectionsOpenMax.get();
     }
 
     /**
      * @return Average duration in milliseconds of open connections since statsReset() called. Undefined if setStatsOn(false).
      */
     public long getConnectionsDurationAve() {
-        return _connections == 0 ? 0 : (_connectionsDurationTotal / _connections);
+        Stats stats = _stats;
+        long connections = stats._connections.sum();
+        return connections == 0 ? 0 : (stats._connectionsDurationTotal.sum() / connections);
     }
 
     /**
      * @return Maximum duration in milliseconds of an open connection since statsReset() called. Undefined if setStatsOn(false).
      */
     public long getConnectionsDurationMax() {
-        return _connectionsDurationMax;
+        return _stats._connectionsDurationMax.get();
     }
 
     /**
      * @return Average number of requests per connection since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getConnectionsRequestsAve() {
-        return _connections == 0 ? 0 : (_requests / _connections);
+        Stats stats = _stats;
+        long connections = stats._connections.sum();
+        return connections == 0 ? 0 : (int) (stats._requests.sum() / connections);
     }
 
     /**
      * @return Maximum number of requests per connection since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getConnectionsRequestsMax() {
-        return _connectionsRequestsMax;
+        return _stats._connectionsRequestsMax.get();
     }
 
     /**
      * @return Number of errors generated while handling requests since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getErrors() {
-        return _errors;
+        return _stats._errors.intValue();
     }
 
     /**
      * @return Number of requests since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getRequests() {
-        return _requests;
+        return _stats._requests.intValue();
     }
 
     /**
      * @return Number of requests currently active. Undefined if setStatsOn(false).
      */
     public int getRequestsActive() {
-        return _requestsActive;
+        return _stats._requestsActive.get();
     }
 
     /**
      * @return Maximum number of active requests since statsReset() called. Undefined if setStatsOn(false).
      */
     public int getRequestsActiveMax() {
-        return _requestsActiveMax;
+        return _stats._requestsActiveMax.get();
     }
 
     /**
      * @return Average duration of request handling in milliseconds since statsReset() called. Undefined if setStatsOn(false).
      */
     public long getRequestsDurationAve() {
-        return _requests == 0 ? 0 : (_requestsDurationTotal / _requests);
+        Stats stats = _stats;
+        long requests = stats._requests.sum();
+        return requests == 0 ? 0 : (stats._requestsDurationTotal.sum() / requests);
     }
 
     /**
      * @return Get maximum duration in milliseconds of request handling since statsReset() called. Undefined if setStatsOn(false).
      */
     public long getRequestsDurationMax() {
-        return _requestsDurationMax;
+        return _stats._requestsDurationMax.get();
     }
 
     void statsOpenConnection() {
-        synchronized (_statsLock) {
-            _connectionsOpen++;
-            if (_connectionsOpen > _connectionsOpenMax) {
-                _connectionsOpenMax = _connectionsOpen;
-            }
-        }
+        Stats stats = _stats;
+        updateMax(stats._connectionsOpenMax, stats._connectionsOpen.incrementAndGet());
     }
 
     void statsGotRequest() {
-        synchronized (_statsLock) {
-            _requestsActive++;
-            if (_requestsActive > _requestsActiveMax) {
-                _requestsActiveMax = _requestsActive;
-            }
-        }
+        Stats stats = _stats;
+        updateMax(stats._requestsActiveMax, stats._requestsActive.incrementAndGet());
     }
 
     void statsEndRequest(long duration, boolean ok) {
-        synchronized (_statsLock) {
-            _requests++;
-            _requestsActive--;
-            if (_requestsActive < 0) {
-                _requestsActive = 0;
-            }
-            if (_requestsActive < _requestsActiveMin) {
-                _requestsActiveMin = _requestsActive;
-            }
-
-            if (ok) {
-                _requestsDurationTotal += duration;
-                if (_requestsDurationMin == 0 || duration < _requestsDurationMin) {
-                    _requestsDurationMin = duration;
-                }
-                if (duration > _requestsDurationMax) {
-                    _requestsDurationMax = duration;
-                }
-            } else {
-                _errors++;
-            }
+        Stats stats = _stats;
+        stats._requests.increment();
+        updateMin(stats._requestsActiveMin, decrement(stats._requestsActive), false);
+
+        if (ok) {
+            stats._requestsDurationTotal.add(duration);
+            updateMin(stats._requestsDurationMin, duration, true);
+            updateMax(stats._requestsDurationMax, duration);
+        } else {
+            stats._errors.increment();
         }
     }
 
     void statsCloseConnection(long duration, int requests) {
-        synchronized (_statsLock) {
-            _connections++;
-            _connectionsOpen--;
-            _connectionsDurationTotal += duration;
-            if (_connectionsOpen < 0) {
-                _connectionsOpen = 0;
-            }
-            if (_connectionsOpen < _connectionsOpenMin) {
-                _connectionsOpenMin = _connectionsOpen;
-            }
-            if (_connectionsDurationMin == 0 || duration < _connectionsDurationMin) {
-                _connectionsDurationMin = duration;
-            }
-            if (duration > _connectionsDurationMax) {
-                _connectionsDurationMax = duration;
-            }
-            if (_connectionsRequestsMin == 0 || requests < _connectionsRequestsMin) {
-                _connectionsRequestsMin = requests;
-            }
-            if (requests > _connectionsRequestsMax) {
-                _connectionsRequestsMax = requests;
-            }
+        Stats stats = _stats;
+        stats._connections.increment();
+        stats._connectionsDurationTotal.add(duration);
+        updateMin(stats._connectionsOpenMin, decrement(stats._connectionsOpen), false);
+        updateMin(stats._connectionsDurationMin, duration, true);
+        updateMax(stats._connectionsDurationMax, duration);
+        updateMin(stats._connectionsRequestsMin, requests, true);
+        updateMax(stats._connectionsRequestsMax, requests);
+    }
+
+    /**
+     * Decrement a gauge, but not below 0: the connections and requests in progress at a reset are not counted.
+     *
+     * @return The new value.
+     */
+    private static int decrement(AtomicInteger gauge) {
+        return gauge.updateAndGet(value -> value > 0 ? value - 1 : 0);
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @param unsetIfZero True if 0 means no value yet, so any value replaces it.
+     */
+    private static void updateMin(AtomicInteger min, int value, boolean unsetIfZero) {
+        int current = min.get();
+        while ((value < current || unsetIfZero && current == 0) && current != value && !min.compareAndSet(current, value)) {
+            current = min.get();
+        }
+    }
+
+    private static void updateMin(AtomicLong min, long value, boolean unsetIfZero) {
+        long current = min.get();
+        while ((value < current || unsetIfZero && current == 0) && current != value && !min.compareAndSet(current, value)) {
+            current = min.get();
         }
     }
 
@@ -1254,4 +1220,36 @@ public class HttpServer extends Container implements LifeCycle, Serializable {
 
         super.destroy();
     }
+
+    /**
+     * Statistics of the server.
+     * The counters are striped (LongAdder) and the minimums and maximums are updated with compare-and-set, so the
+     * connection and request threads do not contend on a lock. A reset replaces the whole instance.
+     */
+    private static final class Stats {
+        private final LongAdder _connections = new LongAdder();              // total number of connections made to server
+        private final AtomicInteger _connectionsOpen = new AtomicInteger();  // number of connections currently open
+        private final AtomicInteger _connectionsOpenMin;                     // min number of connections open simultaneously
+        private final AtomicInteger _connectionsOpenMax;                     // max number of connections open simultaneously
+        private final AtomicLong _connectionsDurationMin = new AtomicLong(); // min duration of a connection
+        private final AtomicLong _connectionsDurationMax = new AtomicLong(); // max duration of a connection
+        private final LongAdder _connectionsDurationTotal = new LongAdder(); // total duration of all connections
+        private final AtomicInteger _connectionsRequestsMin = new AtomicInteger(); // min requests per connection
+        private final AtomicInteger _connectionsRequestsMax = new AtomicInteger(); // max requests per connection
+        private final LongAdder _errors = new LongAdder();                   // total bad requests to the server
+        private final LongAdder _requests = new LongAdder();                 // total requests made to the server
+        private final AtomicInteger _requestsActive = new AtomicInteger();   // number of requests currently being handled
+        private final AtomicInteger _requestsActiveMin;                      // min number of requests handled simultaneously
+        private final AtomicInteger _requestsActiveMax;                      // max number of requests handled simultaneously
+        private final AtomicLong _requestsDurationMin = new AtomicLong();    // min request duration
+        private final AtomicLong _requestsDurationMax = new AtomicLong();    // max request duration
+        private final LongAdder _requestsDurationTotal = new LongAdder();    // total request duration
+
+        Stats(int connectionsOpen, int requestsActive) {
+            _connectionsOpenMin = new AtomicInteger(connectionsOpen);
+            _connectionsOpenMax = new AtomicInteger(connectionsOpen);
+            _requestsActiveMin = new AtomicInteger(requestsActive);
+            _requestsActiveMax = new AtomicInteger(requestsActive);
+        }
+    }
 }
@@ -24,6 +24,8 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * HTTP Tunnel.
@@ -36,6 +38,9 @@ import java.net.Socket;
  * @see HttpConnection
  */
 public class HttpTunnel {
+    private static final AtomicInteger __open = new AtomicInteger();
+    private static final LongAdder __upstreamBytes = new LongAdder();
+    private static final LongAdder __downstreamBytes = new LongAdder();
     private final Logger log = LoggerFactory.getLogger(HttpTunnel.class);
 
     private Thread _thread;
@@ -139,7 +144,7 @@ public class HttpTunnel {
             _thread = Thread.currentThread();
             copy.start();
 
-            copydata(_sIn, _out);
+            copydata(_sIn, _out, __downstreamBytes);
         } catch (Exception e) {
             log.debug("Ex at Tunnel copydata", e);
         } finally {
@@ -159,7 +164,7 @@ public class HttpTunnel {
         }
     }
 
-    private void copydata(InputStream in, OutputStream out) throws java.io.IOException {
+    private void copydata(InputStream in, OutputStream out, LongAdder counter) throws java.io.IOException {
         long timestamp = 0;
         long byteCount = 0;
         while (true) {
@@ -169,6 +174,7 @@ public class HttpTunnel {
                 if (byteCount == -1) {
                     return;
                 }
+                counter.add(byteCount);
             } catch (InterruptedIOException e) {
                 if (timestamp == 0) {
                     timestamp = System.currentTimeMillis();
@@ -202,6 +208,60 @@ public class HttpTunnel {
         _timeoutMs = timeoutMs;
     }
 
+    /**
+     * Is the tunnel detached.
+     * A tunnel that keeps running after its handle method returned owns the connection and closes it when done,
+     * so the HttpConnection and the listener must not close it.
+     *
+     * @return True if the connection has been taken over by the tunnel. This implementation returns false.
+     */
+    public boolean isDetached() {
+        return false;
+    }
+
+    /**
+     * @return The number of tunnels currently open.
+     */
+    public static int getOpenTunnels() {
+        return __open.get();
+    }
+
+    /**
+     * @return The number of bytes copied from the clients to the tunnel sockets.
+     */
+    public static long getUpstreamBytes() {
+        return __upstreamBytes.sum();
+    }
+
+    /**
+     * @return The number of bytes copied from the tunnel sockets to the clients.
+     */
+    public static long getDownstreamBytes() {
+        return __downstreamBytes.sum();
+    }
+
+    /**
+     * Counts a tunnel as open. Called by the HttpConnection before the tunnel is handled.
+     */
+    static void opened() {
+        __open.incrementAndGet();
+    }
+
+    /**
+     * Counts a tunnel as closed. Called by the HttpConnection when the handle method returned, or by the detached
+     * tunnel itself when it is done.
+     */
+    static void closed() {
+        __open.decrementAndGet();
+    }
+
+    /**
+     * Counts the bytes copied by a tunnel that does not copy through this class.
+     */
+    static void copied(boolean upstream, long byteCount) {
+        (upstream ? __upstreamBytes : __downstreamBytes).add(byteCount);
+    }
+
     /**
      * Copy thread.
      * Helper thread to copy from the HTTP input to the sockets output
@@ -209,7 +269,7 @@ public class HttpTunnel {
     private class Copy extends Thread {
         public void run() {
             try {
-                copydata(_in, _sOut);
+                copydata(_in, _sOut, __upstreamBytes);
             } catch (Exception e) {
                 //
             } finally {
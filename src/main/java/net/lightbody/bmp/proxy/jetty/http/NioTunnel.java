@@ -0,0 +1,240 @@
+package net.lightbody.bmp.proxy.jetty.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking HTTP Tunnel.
+ * Instead of blocking the connection thread and a copy thread for the lifetime of the tunnel, the client and the
+ * tunnel channels are switched to non-blocking mode and handed over to a {@link TunnelSelector}, which multiplexes
+ * any number of tunnels on a few threads using direct ByteBuffers. The connection thread returns as soon as the
+ * tunnel is registered, and the tunnel closes both channels when done.
+ * <p>
+ * If the client connection has no channel (eg it was not accepted from a ServerSocketChannel), the tunnel falls
+ * back to the blocking copy of {@link HttpTunnel}.
+ *
+ * @see HttpConnection#setHttpTunnel(HttpTunnel)
+ */
+public class NioTunnel extends HttpTunnel {
+    private static final Logger log = LoggerFactory.getLogger(NioTunnel.class);
+    private static final LongAdder __registered = new LongAdder();
+
+    private final SocketChannel _channel;
+    private SocketChannel _client;
+    private boolean _detached;
+    private final AtomicBoolean _closed = new AtomicBoolean();
+    private long _idleTimeoutMs;
+    private volatile long _lastActivity;
+    private Direction _upstream;
+    private Direction _downstream;
+
+    /**
+     * Constructor.
+     *
+     * @param channel The connected tunnel channel, in blocking mode.
+     * @throws IOException
+     */
+    public NioTunnel(SocketChannel channel) throws IOException {
+        super(channel.socket());
+        _channel = channel;
+    }
+
+    /**
+     * handle method.
+     * Registers the tunnel with a selector and returns. Any data the client sent behind the tunnel request and that
+     * has already been buffered by the connection is written to the tunnel channel first.
+     */
+    public void handle(InputStream in, OutputStream out) {
+        HttpConnection connection = HttpConnection.getHttpConnection();
+        Object socket = connection == null ? null : connection.getConnection();
+        SocketChannel client = socket instanceof Socket ? ((Socket) socket).getChannel() : null;
+        if (client == null) {
+            super.handle(in, out);
+            return;
+        }
+
+        try {
+            int soTimeout = ((Socket) socket).getSoTimeout();
+            _idleTimeoutMs = soTimeout > 0 ? soTimeout + getTimeoutMs() : 0;
+
+            int available = in.available();
+            if (available > 0) {
+                byte[] buffered = new byte[available];
+                int length = in.read(buffered, 0, available);
+                if (length > 0) {
+                    _channel.write(ByteBuffer.wrap(buffered, 0, length));
+                }
+            }
+
+            _client = client;
+            _client.configureBlocking(false);
+            _channel.configureBlocking(false);
+            _lastActivity = System.currentTimeMillis();
+            _detached = true;
+            TunnelSelector.next().register(this);
+            __registered.increment();
+        } catch (IOException e) {
+            log.debug("Ex at NioTunnel register", e);
+            close();
+        }
+    }
+
+    /**
+     * @return The number of tunnels handed over to the selector threads so far, not counting the blocking fallbacks.
+     */
+    public static long getRegisteredTunnels() {
+        return __registered.sum();
+    }
+
+    /**
+     * @return true as the tunnel owns the client connection once it has been registered with a selector.
+     */
+    public boolean isDetached() {
+        return _detached;
+    }
+
+    /**
+     * Called on the selector thread when the tunnel has been registered.
+     */
+    void registered(SelectionKey clientKey, SelectionKey channelKey) {
+        _upstream = new Direction(clientKey, channelKey, true);
+        _downstream = new Direction(channelKey, clientKey, false);
+        clientKey.attach(this);
+        channelKey.attach(this);
+    }
+
+    /**
+     * Called on the selector thread when either channel is ready.
+     */
+    void ready(SelectionKey key) {
+        try {
+            _lastActivity = System.currentTimeMillis();
+            if (key.isReadable()) {
+                (key.channel() == _client ? _upstream : _downstream).read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                (key.channel() == _client ? _downstream : _upstream).write();
+            }
+            if (_upstream.isDone() && _downstream.isDone()) {
+                close();
+            }
+        } catch (IOException e) {
+            log.debug("Ex at NioTunnel copy", e);
+            close();
+        }
+    }
+
+    boolean isIdle(long now) {
+        return _idleTimeoutMs > 0 && now - _lastActivity > _idleTimeoutMs;
+    }
+
+    SocketChannel getClientChannel() {
+        return _client;
+    }
+
+    SocketChannel getChannel() {
+        return _channel;
+    }
+
+    void close() {
+        if (_detached && _closed.compareAndSet(false, true)) {
+            HttpTunnel.closed();
+        }
+        if (_upstream != null) {
+            _upstream.release();
+            _downstream.release();
+        }
+        try {
+            if (_client != null) {
+                _client.close();
+            }
+        } catch (IOException e) {
+            //
+        }
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    public String toString() {
+        return "NioTunnel " + _client + " <-> " + _channel;
+    }
+
+    /**
+     * One direction of the tunnel: reads from one channel and writes to the other, through a direct buffer.
+     * Reading is suspended while the buffer cannot be written out, so memory per tunnel stays bounded.
+     */
+    private static class Direction {
+        private final SelectionKey _from;
+        private final SelectionKey _to;
+        private final boolean _toUpstream;
+        private ByteBuffer _buffer;
+        private boolean _eof;
+
+        Direction(SelectionKey from, SelectionKey to, boolean toUpstream) {
+            _from = from;
+            _to = to;
+            _toUpstream = toUpstream;
+        }
+
+        void read() throws IOException {
+            if (_buffer == null) {
+                _buffer = TunnelSelector.acquireBuffer();
+            }
+            int len = ((SocketChannel) _from.channel()).read(_buffer);
+            if (len < 0) {
+                _eof = true;
+                _from.interestOps(_from.interestOps() & ~SelectionKey.OP_READ);
+            } else if (len > 0) {
+                HttpTunnel.copied(_toUpstream, len);
+            }
+            write();
+        }
+
+        void write() throws IOException {
+            if (_buffer != null) {
+                _buffer.flip();
+                ((SocketChannel) _to.channel()).write(_buffer);
+                _buffer.compact();
+            }
+            if (_buffer != null && _buffer.position() > 0) {
+                // the other side is slow, wait until it can take more
+                _from.interestOps(_from.interestOps() & ~SelectionKey.OP_READ);
+                _to.interestOps(_to.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            _to.interestOps(_to.interestOps() & ~SelectionKey.OP_WRITE);
+            if (_eof) {
+                ((SocketChannel) _to.channel()).shutdownOutput();
+                release();
+            } else {
+                _from.interestOps(_from.interestOps() | SelectionKey.OP_READ);
+                // keep the buffer only while data is flowing
+                release();
+            }
+        }
+
+        boolean isDone() {
+            return _eof && _buffer == null;
+        }
+
+        void release() {
+            if (_buffer != null) {
+                TunnelSelector.releaseBuffer(_buffer);
+                _buffer = null;
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ import java.net.Socket;
  * MaxIdleTimeMs - Time for an idle thread to wait for a request or read.
  * LowResourcePersistTimeMs - time in ms that connections will persist if listener is low on resources.
  * </PRE>
+ * When the connections are given to an executor (eg virtual threads), the listener is never low on resources.
  *
  * @author Greg Wilkins (gregw)
  * @version $Id: SocketListener.java,v 1.39 2006/02/27 13:03:50 gregwilkins Exp $
@@ -181,6 +182,9 @@ public class SocketListener extends ThreadedServer implements HttpListener {
             log.warn(LogSupport.EXCEPTION, e);
         }
         connection.handle();
+        if (connection.isDetached()) {
+            detach(socket);
+        }
     }
 
     /**
@@ -262,6 +266,9 @@ public class SocketListener extends ThreadedServer implements HttpListener {
      * @return True if low on idle threads.
      */
     public boolean isLowOnResources() {
+        if (isExecutorMode()) {
+            return false;
+        }
         int spare = getMaxThreads() - getThreads();
         int lr = _lowResources > 0 ? _lowResources : getMinThreads();
         boolean low = (spare + getIdleThreads()) < lr;
@@ -291,6 +298,9 @@ public class SocketListener extends ThreadedServer implements HttpListener {
      * @return True if out of resources.
      */
     public boolean isOutOfResources() {
+        if (isExecutorMode()) {
+            return false;
+        }
         boolean out = getThreads() == getMaxThreads() && getIdleThreads() == 0;
 
         if (out && !_isOut) {
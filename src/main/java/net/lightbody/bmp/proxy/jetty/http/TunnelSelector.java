@@ -0,0 +1,146 @@
+package net.lightbody.bmp.proxy.jetty.http;
+
+import net.lightbody.bmp.proxy.jetty.util.IO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector thread of the {@link NioTunnel}s.
+ * A few daemon threads, each with its own Selector, are started on first use and the tunnels are spread over them.
+ * Idle tunnels are closed once their idle timeout expired. The direct buffers used for copying are pooled, and are
+ * only held by a tunnel while data is flowing, so idle tunnels cost no buffer memory. At most
+ * {@link #MAX_POOLED_BUFFERS} idle buffers are kept, so a burst of tunnels does not pin its buffers for good.
+ */
+class TunnelSelector implements Runnable {
+    /**
+     * Number of selector threads, from the system property of this class name, defaults to half of the processors, at least 1.
+     */
+    static final int SELECTORS = Integer.getInteger(TunnelSelector.class.getName(),
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    /**
+     * Maximum number of idle direct buffers kept in the pool, from the system property of this class name with a
+     * ".buffers" suffix, defaults to 64 per selector thread. Buffers released beyond it are left to the garbage collector.
+     */
+    static final int MAX_POOLED_BUFFERS = Integer.getInteger(TunnelSelector.class.getName() + ".buffers", 64 * SELECTORS);
+    private static final Logger log = LoggerFactory.getLogger(TunnelSelector.class);
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final Queue<ByteBuffer> __buffers = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger __pooled = new AtomicInteger();
+    private static final AtomicInteger __next = new AtomicInteger();
+    private static TunnelSelector[] __selectors;
+
+    private final Selector _selector;
+    private final Queue<NioTunnel> _pending = new ConcurrentLinkedQueue<>();
+
+    private TunnelSelector() throws IOException {
+        _selector = Selector.open();
+    }
+
+    /**
+     * @return the selector the next tunnel should be registered with.
+     */
+    static synchronized TunnelSelector next() throws IOException {
+        if (__selectors == null) {
+            TunnelSelector[] selectors = new TunnelSelector[SELECTORS];
+            for (int i = 0; i < selectors.length; i++) {
+                selectors[i] = new TunnelSelector();
+                Thread thread = new Thread(selectors[i], "TunnelSelector-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            __selectors = selectors;
+        }
+        return __selectors[Math.floorMod(__next.getAndIncrement(), __selectors.length)];
+    }
+
+    static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = __buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(IO.bufferSize);
+        }
+        __pooled.decrementAndGet();
+        return buffer;
+    }
+
+    static void releaseBuffer(ByteBuffer buffer) {
+        if (__pooled.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            __pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        __buffers.offer(buffer);
+    }
+
+    /**
+     * @return the number of idle direct buffers in the pool.
+     */
+    static int getPooledBuffers() {
+        return __pooled.get();
+    }
+
+    void register(NioTunnel tunnel) {
+        _pending.add(tunnel);
+        _selector.wakeup();
+    }
+
+    public void run() {
+        long lastIdleCheck = System.currentTimeMillis();
+        while (true) {
+            try {
+                _selector.select(SELECT_TIMEOUT_MS);
+                registerPending();
+
+                Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((NioTunnel) key.attachment()).ready(key);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= SELECT_TIMEOUT_MS) {
+                    lastIdleCheck = now;
+                    closeIdle(now);
+                }
+            } catch (Exception e) {
+                log.warn("Unexpected problem in tunnel selector", e);
+            }
+        }
+    }
+
+    private void registerPending() {
+        NioTunnel tunnel;
+        while ((tunnel = _pending.poll()) != null) {
+            try {
+                SelectionKey clientKey = tunnel.getClientChannel().register(_selector, SelectionKey.OP_READ);
+                SelectionKey channelKey = tunnel.getChannel().register(_selector, SelectionKey.OP_READ);
+                tunnel.registered(clientKey, channelKey);
+            } catch (ClosedChannelException e) {
+                log.debug("Tunnel closed before registration", e);
+                tunnel.close();
+            }
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : _selector.keys()) {
+            NioTunnel tunnel = (NioTunnel) key.attachment();
+            if (key.isValid() && tunnel != null && tunnel.isIdle(now)) {
+                log.debug("Closing idle {}", tunnel);
+                tunnel.close();
+            }
+        }
+    }
+}
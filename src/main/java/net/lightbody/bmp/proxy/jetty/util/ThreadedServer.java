@@ -23,9 +23,16 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Threaded socket server. This class listens at a socket and gives the connections received to a pool of Threads
@@ -34,6 +41,9 @@ import java.net.UnknownHostException;
  * <p>
  * The properties THREADED_SERVER_MIN_THREADS and THREADED_SERVER_MAX_THREADS can be set to control the number of threads created.
  * <p>
+ * Alternatively the connections may be given to an {@link Executor}, or run on virtual threads when the JVM supports them,
+ * see {@link #setExecutor(Executor)} and {@link #setVirtualThreads(boolean)}.
+ * <p>
  *
  * @author Greg Wilkins
  * @version $Id: ThreadedServer.java,v 1.41 2005/12/10 00:38:20 gregwilkins Exp $
@@ -43,10 +53,18 @@ abstract public class ThreadedServer extends ThreadPool {
     
     private InetAddrPort _address = null;
     private int _soTimeOut = -1;
+    private int _acceptors = 1;
+    private boolean _virtualThreads = false;
+    private boolean _selectable = false;
+    private Executor _executor;
 
     private transient Acceptor[] _acceptor;
+    private transient volatile Executor _runner;
+    private transient ExecutorService _virtualThreadExecutor;
+    private final transient Set<Socket> _connections = ConcurrentHashMap.newKeySet();
     private transient ServerSocket _listen = null;
     private transient boolean _running = false;
+    private final transient Set<Socket> _detached = ConcurrentHashMap.newKeySet();
     
     /**
      * Construct.
@@ -201,6 +219,117 @@ abstract public class ThreadedServer extends ThreadPool {
         }
     }
 
+    /**
+     * @return Number of acceptor threads.
+     */
+    public int getAcceptors() {
+        return _acceptors;
+    }
+
+    /**
+     * Set the number of acceptor threads. Takes effect on the next start.
+     *
+     * @param acceptors Number of threads accepting connections on the server socket, at least 1.
+     */
+    public void setAcceptors(int acceptors) {
+        if (acceptors < 1) {
+            throw new IllegalArgumentException("acceptors must be at least 1");
+        }
+        if (isStarted()) {
+            log.warn(this + " is started");
+        }
+        _acceptors = acceptors;
+    }
+
+    /**
+     * @return The executor the connections are given to, or null if they are handled by the thread pool.
+     */
+    public Executor getExecutor() {
+        return _executor;
+    }
+
+    /**
+     * Set the executor of the connections. Instead of waiting for a free pool thread, every accepted connection is
+     * given to the executor. The executor is not shut down when the server stops.
+     *
+     * @param executor The executor, or null to use the thread pool.
+     */
+    public void setExecutor(Executor executor) {
+        if (isStarted()) {
+            log.warn(this + " is started");
+        }
+        _executor = executor;
+    }
+
+    /**
+     * @return True if the connections are handled on virtual threads, or asked to be.
+     */
+    public boolean getVirtualThreads() {
+        return _virtualThreads;
+    }
+
+    /**
+     * Handle every connection on a new virtual thread. When the JVM does not support virtual threads, the
+     * thread pool (or the executor, if one is set) is used. Takes effect on the next start.
+     *
+     * @param virtualThreads True to use virtual threads.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (isStarted()) {
+            log.warn(this + " is started");
+        }
+        _virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return True if the server socket is opened through a channel.
+     */
+    public boolean isSelectable() {
+        return _selectable;
+    }
+
+    /**
+     * Open the server socket through a ServerSocketChannel, so the accepted sockets have channels too, and may be
+     * handed over to a selector. Takes effect on the next start.
+     *
+     * @param selectable True to open the server socket through a channel.
+     */
+    public void setSelectable(boolean selectable) {
+        if (isStarted()) {
+            log.warn(this + " is started");
+        }
+        _selectable = selectable;
+    }
+
+    /**
+     * @return True if the connections are currently given to an executor instead of the thread pool.
+     */
+    public boolean isExecutorMode() {
+        return _runner != null;
+    }
+
+    /**
+     * @return The number of connections currently handled by the executor, 0 if the thread pool is used.
+     */
+    public int getExecutorConnections() {
+        return _connections.size();
+    }
+
+    /**
+     * Create an executor running every task on a new virtual thread.
+     *
+     * @return The executor, or null if the JVM does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // looked up reflectively, as virtual threads are not part of the java version the proxy is built for
+            return (ExecutorService) java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            log.debug("Virtual threads are not supported", e);
+            return null;
+        }
+    }
+
     /**
      * Handle new connection. This method should be overridden by the derived class to implement the
      * required handling. It is called by a thread created for it and does not need to return until
@@ -245,13 +374,47 @@ abstract public class ThreadedServer extends ThreadPool {
             log.debug("Connection problem", e);
         } finally {
             try {
-                socket.close();
+                if (!_detached.remove(socket)) {
+                    socket.close();
+                }
             } catch (Exception e) {
                 log.debug("Connection problem", e);
             }
         }
     }
 
+    /**
+     * Give a connection to the executor. The connection is tracked until it is handled, so it can be closed on stop.
+     *
+     * @param socket The accepted connection.
+     */
+    private void execute(final Socket socket) throws IOException {
+        _connections.add(socket);
+        try {
+            _runner.execute(() -> {
+                try {
+                    handle(socket);
+                } finally {
+                    _connections.remove(socket);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            _connections.remove(socket);
+            log.warn("No thread for {}", socket);
+            socket.close();
+        }
+    }
+
+    /**
+     * Detach a connection. Called from handleConnection, when the socket has been handed over to something
+     * that outlives the handling (eg a non-blocking tunnel), so the socket is not closed when handling returns.
+     *
+     * @param socket The connection being handled.
+     */
+    protected void detach(Socket socket) {
+        _detached.add(socket);
+    }
+
     /**
      * New server socket. Creates a new servers socket. May be overriden by derived class to create specialist serversockets (eg SSL).
      *
@@ -261,10 +424,25 @@ abstract public class ThreadedServer extends ThreadPool {
      * @throws java.io.IOException
      */
     protected ServerSocket newServerSocket(InetAddrPort address, int acceptQueueSize) throws java.io.IOException {
-        if (address == null) {
-            return new ServerSocket(0, acceptQueueSize);
+        if (!_selectable) {
+            if (address == null) {
+                return new ServerSocket(0, acceptQueueSize);
+            }
+            return new ServerSocket(address.getPort(), acceptQueueSize, address.getInetAddress());
         }
-        return new ServerSocket(address.getPort(), acceptQueueSize, address.getInetAddress());
+
+        ServerSocket serverSocket = ServerSocketChannel.open().socket();
+        try {
+            if (address == null) {
+                serverSocket.bind(new InetSocketAddress(0), acceptQueueSize);
+            } else {
+                serverSocket.bind(new InetSocketAddress(address.getInetAddress(), address.getPort()), acceptQueueSize);
+            }
+        } catch (java.io.IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        return serverSocket;
     }
 
     /**
@@ -356,8 +534,17 @@ abstract public class ThreadedServer extends ThreadPool {
 
             open();
 
+            _runner = _executor;
+            if (_virtualThreads) {
+                _virtualThreadExecutor = newVirtualThreadExecutor();
+                if (_virtualThreadExecutor != null) {
+                    _runner = _virtualThreadExecutor;
+                } else {
+                    log.info("Virtual threads are not supported, using {} for {}", _executor == null ? "the thread pool" : _executor, this);
+                }
+            }
+
             _running = true;
-            int _acceptors = 1;
             _acceptor = new Acceptor[_acceptors];
             for (int a = 0; a < _acceptor.length; a++) {
                 _acceptor[a] = new Acceptor();
@@ -406,6 +593,17 @@ abstract public class ThreadedServer extends ThreadPool {
                     _acceptor[a] = null;
                 }
             }
+
+            // Close the connections handled by the executor, as the pool does for its jobs
+            for (Socket socket : _connections) {
+                stopJob(null, socket);
+            }
+            _connections.clear();
+            if (_virtualThreadExecutor != null) {
+                _virtualThreadExecutor.shutdown();
+                _virtualThreadExecutor = null;
+            }
+            _runner = null;
         }
 
         // Stop the thread pool
@@ -460,10 +658,12 @@ abstract public class ThreadedServer extends ThreadPool {
 
                         // Handle the socket
                         if (socket != null) {
-                            if (_running) {
-                                threadedServer.run(socket);
-                            } else {
+                            if (!_running) {
                                 socket.close();
+                            } else if (_runner != null) {
+                                execute(socket);
+                            } else {
+                                threadedServer.run(socket);
                             }
                         }
                     } catch (Throwable e) {
@@ -25,6 +25,7 @@ import java.security.cert.X509Certificate;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Methods for creating certificates.
@@ -75,6 +76,7 @@ public class CertificateCreator {
      * X.509 OID for Additional CA Issuers for AIA - Omitted when duplicating a cert by default.
      */
     public static final String OID_ID_AD_CAISSUERS = "1.3.6.1.5.5.7.48.2";
+    private static final AtomicLong SERIAL_NUMBER = new AtomicLong(System.currentTimeMillis());
     private static final HashSet<String> clientCertOidsNeverToCopy = new HashSet<>();
     private static final HashSet<String> clientCertDefaultOidsNotToCopy = new HashSet<>();
 
@@ -213,7 +215,8 @@ public class CertificateCreator {
         X509v3CertificateBuilder x509v3CertificateBuilder = new JcaX509v3CertificateBuilder(
                 caCert.getSubjectX500Principal(),
                 // This is not a secure serial number generator, (duh!) but it's good enough for our purposes.
-                new BigInteger(Long.toString(System.currentTimeMillis())),
+                // Still, serials of the same issuer must not repeat, even when forged within the same millisecond.
+                BigInteger.valueOf(SERIAL_NUMBER.incrementAndGet()),
                 new Date(System.currentTimeMillis() - 1000L * 60 * 60 * 24 * 30 * 12),
                 new Date(System.currentTimeMillis() + 30L * 60 * 60 * 24 * 30 * 12),
                 new X500Principal(subject),
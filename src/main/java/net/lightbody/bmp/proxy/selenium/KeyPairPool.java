@@ -0,0 +1,166 @@
+package net.lightbody.bmp.proxy.selenium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of pre-generated key pairs for the forged certificates.
+ * <p>
+ * Generating an RSA key pair takes tens to hundreds of milliseconds, which would directly add to the TLS handshake
+ * of the first connection to a new host. The pool keeps a number of key pairs ready and refills itself on a
+ * background daemon thread; a key pair is only generated on the calling thread when the pool is drained.
+ * <p>
+ * Supported algorithms are {@link #RSA} (2048 bits) and {@link #EC} (P-256), the latter being much cheaper to
+ * generate and to handshake with.
+ */
+public class KeyPairPool {
+    public static final String RSA = "RSA";
+    public static final String EC = "EC";
+    public static final int DEFAULT_SIZE = 8;
+    private static final Logger log = LoggerFactory.getLogger(KeyPairPool.class);
+    private static final Map<String, KeyPairPool> pools = new ConcurrentHashMap<>();
+    private static volatile int sharedSize = DEFAULT_SIZE;
+    private static final ExecutorService refiller = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "KeyPairPool Refill Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String algorithm;
+    private final Queue<KeyPair> keyPairs = new ConcurrentLinkedQueue<>();
+    private volatile int size;
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private KeyPairGenerator refillGenerator;
+
+    public KeyPairPool(String algorithm, int size) {
+        this.algorithm = algorithm;
+        this.size = size;
+        refill();
+    }
+
+    /**
+     * Gets the shared pool of the given algorithm, with the size set by {@link #setSharedSize(int)}.
+     *
+     * @param algorithm {@link #RSA} or {@link #EC}
+     */
+    public static KeyPairPool getPool(String algorithm) {
+        return pools.computeIfAbsent(algorithm, a -> new KeyPairPool(a, sharedSize));
+    }
+
+    public static int getSharedSize() {
+        return sharedSize;
+    }
+
+    /**
+     * Sets the number of key pairs the shared pools keep ready, the pools created so far are resized too.
+     */
+    public static void setSharedSize(int size) {
+        sharedSize = size;
+        for (KeyPairPool pool : pools.values()) {
+            pool.setSize(size);
+        }
+    }
+
+    /**
+     * Takes a ready key pair, or generates one if the pool is drained. Either way the pool is refilled in the background.
+     */
+    public KeyPair take() {
+        KeyPair keyPair = keyPairs.poll();
+        refill();
+        if (keyPair != null) {
+            hits.incrementAndGet();
+            return keyPair;
+        }
+        misses.incrementAndGet();
+        try {
+            return newGenerator(algorithm).generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Unable to generate " + algorithm + " key pair", e);
+        }
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the number of key pairs kept ready. A smaller pool is not drained, it is just not refilled until the
+     * number of ready key pairs falls below the new size.
+     */
+    public void setSize(int size) {
+        this.size = size;
+        refill();
+    }
+
+    /**
+     * @return the number of key pairs ready to be taken
+     */
+    public int available() {
+        return keyPairs.size();
+    }
+
+    /**
+     * @return the number of key pairs that were taken from the pool
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of key pairs that had to be generated on the calling thread
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void refill() {
+        if (keyPairs.size() < size && refilling.compareAndSet(false, true)) {
+            refiller.execute(() -> {
+                try {
+                    if (refillGenerator == null) {
+                        refillGenerator = newGenerator(algorithm);
+                    }
+                    while (keyPairs.size() < size) {
+                        keyPairs.offer(refillGenerator.generateKeyPair());
+                    }
+                } catch (Exception e) {
+                    log.warn("Unable to refill {} key pair pool", algorithm, e);
+                    return;
+                } finally {
+                    refilling.set(false);
+                }
+                // a key pair may have been taken after the last check
+                refill();
+            });
+        }
+    }
+
+    private static KeyPairGenerator newGenerator(String algorithm) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        if (EC.equals(algorithm)) {
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+        } else {
+            generator.initialize(2048);
+        }
+        return generator;
+    }
+}
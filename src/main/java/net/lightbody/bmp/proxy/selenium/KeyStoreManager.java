@@ -538,7 +538,7 @@ public class KeyStoreManager {
      * @return
      */
     public KeyPair getRSAKeyPair() {
-        KeyPair kp = _rsaKpg.generateKeyPair();
+        KeyPair kp = KeyPairPool.getPool(KeyPairPool.RSA).take();
         rememberKeyPair(kp);
         return kp;
 
@@ -0,0 +1,264 @@
+package net.lightbody.bmp.proxy.selenium;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import java.io.InputStream;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory factory of forged server certificates, signed by the Cybervillains CA.
+ * <p>
+ * The CA certificate and private key are loaded once from the classpath, every forged certificate shares the same
+ * leaf key pair (unless a key pair per host is asked for, taken from a {@link KeyPairPool}), and the forged
+ * certificates are kept in a bounded LRU cache with a time to live. Nothing is written to or read from the filesystem
+ * when a certificate is forged.
+ * <p>
+ * The intercepted hosts are served by a single shared server SSLContext (see {@link #getServerSslContext()}), that
+ * picks the forged certificate per handshake, so its session cache - and the session tickets it issues - are shared
+ * too, and a returning client resumes its session instead of doing a full handshake.
+ */
+public class MitmCertificateFactory {
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE_MS = TimeUnit.HOURS.toMillis(1);
+    public static final int DEFAULT_SERVER_SESSION_CACHE_SIZE = 20480;
+    public static final int DEFAULT_SERVER_SESSION_TIMEOUT_S = (int) TimeUnit.HOURS.toSeconds(1);
+    private static final String CA_KEYSTORE = "/sslSupport/cybervillainsCA.jks";
+    private static final String CA_CERT_ALIAS = "signingCert";
+    private static final String CA_PRIVATE_KEY_ALIAS = KeyStoreManager._caPrivKeyAlias;
+    private static final char[] PASSWORD = "password".toCharArray();
+    private static final String PROTOCOL = "TLS";
+    private static volatile MitmCertificateFactory instance;
+
+    private final Logger log = LoggerFactory.getLogger(MitmCertificateFactory.class);
+    private final X509Certificate caCert;
+    private final PrivateKey caPrivateKey;
+    private volatile KeyPairPool leafKeyPool = KeyPairPool.getPool(KeyPairPool.RSA);
+    private volatile KeyPair leafKeyPair;
+    private volatile boolean leafKeyPerHost = false;
+    private final Map<String, Forged> cache = new LinkedHashMap<String, Forged>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Forged> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long timeToLiveMs = DEFAULT_TIME_TO_LIVE_MS;
+    private volatile int serverSessionCacheSize = DEFAULT_SERVER_SESSION_CACHE_SIZE;
+    private volatile int serverSessionTimeoutS = DEFAULT_SERVER_SESSION_TIMEOUT_S;
+    private MitmKeyManager serverKeyManager;
+    private SSLContext serverSslContext;
+
+    MitmCertificateFactory(X509Certificate caCert, PrivateKey caPrivateKey) {
+        this.caCert = caCert;
+        this.caPrivateKey = caPrivateKey;
+        this.leafKeyPair = leafKeyPool.take();
+    }
+
+    /**
+     * Gets the factory of the Cybervillains CA, loading the CA on first use.
+     */
+    public static MitmCertificateFactory getInstance() {
+        if (instance == null) {
+            synchronized (MitmCertificateFactory.class) {
+                if (instance == null) {
+                    instance = load();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static MitmCertificateFactory load() {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.insertProviderAt(new BouncyCastleProvider(), 2);
+        }
+        try (InputStream is = MitmCertificateFactory.class.getResourceAsStream(CA_KEYSTORE)) {
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(is, PASSWORD);
+            X509Certificate caCert = (X509Certificate) keyStore.getCertificate(CA_CERT_ALIAS);
+            PrivateKey caPrivateKey = (PrivateKey) keyStore.getKey(CA_PRIVATE_KEY_ALIAS, PASSWORD);
+            return new MitmCertificateFactory(caCert, caPrivateKey);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to load the CA from " + CA_KEYSTORE, e);
+        }
+    }
+
+    /**
+     * Gets the forged certificate chain and its private key for the given host name.
+     */
+    public KeyStore.PrivateKeyEntry getEntry(String hostname) {
+        return getForged(hostname).entry;
+    }
+
+    /**
+     * Gets the server SSLContext shared by every intercepted host: the forged certificate is selected per handshake
+     * by the SNI of the client, or by the host registered at the {@link MitmKeyManager} of the context.
+     */
+    public synchronized SSLContext getServerSslContext() {
+        if (serverSslContext == null) {
+            try {
+                MitmKeyManager keyManager = new MitmKeyManager(this);
+                SSLContext context = SSLContext.getInstance(PROTOCOL);
+                context.init(new KeyManager[]{keyManager}, null, new SecureRandom());
+                context.getServerSessionContext().setSessionCacheSize(serverSessionCacheSize);
+                context.getServerSessionContext().setSessionTimeout(serverSessionTimeoutS);
+                serverKeyManager = keyManager;
+                serverSslContext = context;
+                log.debug("Created the shared server SSLContext");
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to create the shared server SSLContext", e);
+            }
+        }
+        return serverSslContext;
+    }
+
+    /**
+     * Gets the key manager of the shared server SSLContext, to register the hosts of the clients without SNI.
+     */
+    synchronized MitmKeyManager getServerKeyManager() {
+        getServerSslContext();
+        return serverKeyManager;
+    }
+
+    public int getServerSessionCacheSize() {
+        return serverSessionCacheSize;
+    }
+
+    /**
+     * Sets the number of sessions the shared server SSLContext keeps for resumption, 0 for no limit.
+     */
+    public synchronized void setServerSessionCacheSize(int serverSessionCacheSize) {
+        this.serverSessionCacheSize = serverSessionCacheSize;
+        if (serverSslContext != null) {
+            serverSslContext.getServerSessionContext().setSessionCacheSize(serverSessionCacheSize);
+        }
+    }
+
+    public int getServerSessionTimeoutS() {
+        return serverSessionTimeoutS;
+    }
+
+    /**
+     * Sets the time (in seconds) a session of the shared server SSLContext can be resumed for, 0 for no limit.
+     */
+    public synchronized void setServerSessionTimeoutS(int serverSessionTimeoutS) {
+        this.serverSessionTimeoutS = serverSessionTimeoutS;
+        if (serverSslContext != null) {
+            serverSslContext.getServerSessionContext().setSessionTimeout(serverSessionTimeoutS);
+        }
+    }
+
+    public X509Certificate getSigningCert() {
+        return caCert;
+    }
+
+    public String getLeafKeyAlgorithm() {
+        return leafKeyPool.getAlgorithm();
+    }
+
+    /**
+     * Sets the key algorithm of the forged certificates, {@link KeyPairPool#RSA} or {@link KeyPairPool#EC}.
+     * The certificates forged so far are dropped.
+     */
+    public void setLeafKeyAlgorithm(String algorithm) {
+        KeyPairPool pool = KeyPairPool.getPool(algorithm);
+        synchronized (cache) {
+            leafKeyPool = pool;
+            leafKeyPair = pool.take();
+            cache.clear();
+        }
+    }
+
+    public boolean isLeafKeyPerHost() {
+        return leafKeyPerHost;
+    }
+
+    /**
+     * When set, every forged certificate gets its own key pair from the pool, instead of the shared one.
+     */
+    public void setLeafKeyPerHost(boolean leafKeyPerHost) {
+        this.leafKeyPerHost = leafKeyPerHost;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getTimeToLiveMs() {
+        return timeToLiveMs;
+    }
+
+    public void setTimeToLiveMs(long timeToLiveMs) {
+        this.timeToLiveMs = timeToLiveMs;
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private Forged getForged(String hostname) {
+        long now = System.currentTimeMillis();
+        Forged cached;
+        synchronized (cache) {
+            cached = cache.get(hostname);
+            if (cached != null && now - cached.created < timeToLiveMs) {
+                return cached;
+            }
+        }
+        // forge outside of the lock, so one slow host does not hold up the others
+        Forged forged = new Forged(forge(hostname), now);
+        synchronized (cache) {
+            Forged other = cache.get(hostname);
+            if (other != null && other != cached && now - other.created < timeToLiveMs) {
+                return other;
+            }
+            cache.put(hostname, forged);
+        }
+        return forged;
+    }
+
+    private KeyStore.PrivateKeyEntry forge(String hostname) {
+        KeyPair keyPair = leafKeyPerHost ? leafKeyPool.take() : leafKeyPair;
+        try {
+            X509Certificate cert = CertificateCreator.generateStdSSLServerCertificate(keyPair.getPublic(), caCert, caPrivateKey,
+                    "CN=" + hostname + ", OU=Test, O=CyberVillainsCA, L=Seattle, S=Washington, C=US");
+            return new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), new X509Certificate[]{cert, caCert});
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to forge certificate for " + hostname, e);
+        }
+    }
+
+    private static class Forged {
+        private final KeyStore.PrivateKeyEntry entry;
+        private final long created;
+
+        Forged(KeyStore.PrivateKeyEntry entry, long created) {
+            this.entry = entry;
+            this.created = created;
+        }
+    }
+}
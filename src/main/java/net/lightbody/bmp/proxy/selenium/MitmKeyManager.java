@@ -0,0 +1,133 @@
+package net.lightbody.bmp.proxy.selenium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.StandardConstants;
+import javax.net.ssl.X509ExtendedKeyManager;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Key manager that serves a forged server certificate for whatever host the client asks for.
+ * <p>
+ * The host is taken from the SNI extension of the ClientHello, or - when the client does not send SNI - from the
+ * host that was registered for the socket via {@link #expect(Socket, String)}, or for the local port of a relay
+ * listener via {@link #expect(int, String)}, which is the CONNECT target.
+ * Certificates come from the {@link MitmCertificateFactory}, so a single SSLContext can terminate TLS
+ * for any number of hosts.
+ */
+class MitmKeyManager extends X509ExtendedKeyManager {
+    private final Logger log = LoggerFactory.getLogger(MitmKeyManager.class);
+    private final MitmCertificateFactory certificateFactory;
+    private final Map<Socket, String> expectedHosts = new ConcurrentHashMap<>();
+    private final Map<Integer, String> expectedPortHosts = new ConcurrentHashMap<>();
+
+    MitmKeyManager(MitmCertificateFactory certificateFactory) {
+        this.certificateFactory = certificateFactory;
+    }
+
+    /**
+     * Registers the host to be used for the given socket when the client does not send SNI.
+     */
+    void expect(Socket socket, String host) {
+        expectedHosts.put(socket, host);
+    }
+
+    void forget(Socket socket) {
+        expectedHosts.remove(socket);
+    }
+
+    /**
+     * Registers the host to be used for the sockets accepted on the given local port when the client does not send SNI.
+     */
+    void expect(int localPort, String host) {
+        expectedPortHosts.put(localPort, host);
+    }
+
+    void forget(int localPort) {
+        expectedPortHosts.remove(localPort);
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        if (!certificateFactory.getLeafKeyAlgorithm().equals(keyType) || !(socket instanceof SSLSocket)) {
+            return null;
+        }
+        String host = requestedHost(((SSLSocket) socket).getHandshakeSession());
+        if (host == null) {
+            host = expectedHosts.get(socket);
+        }
+        return host != null ? host : expectedPortHosts.get(socket.getLocalPort());
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        if (!certificateFactory.getLeafKeyAlgorithm().equals(keyType)) {
+            return null;
+        }
+        String host = requestedHost(engine.getHandshakeSession());
+        return host != null ? host : engine.getPeerHost();
+    }
+
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        return null;
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        KeyStore.PrivateKeyEntry entry = getEntry(alias);
+        return entry == null ? null : (X509Certificate[]) entry.getCertificateChain();
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) {
+        KeyStore.PrivateKeyEntry entry = getEntry(alias);
+        return entry == null ? null : entry.getPrivateKey();
+    }
+
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        return null;
+    }
+
+    @Override
+    public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+        return null;
+    }
+
+    private String requestedHost(SSLSession session) {
+        if (session instanceof ExtendedSSLSession) {
+            for (SNIServerName name : ((ExtendedSSLSession) session).getRequestedServerNames()) {
+                if (name.getType() == StandardConstants.SNI_HOST_NAME) {
+                    return ((SNIHostName) name).getAsciiName();
+                }
+            }
+        }
+        return null;
+    }
+
+    private KeyStore.PrivateKeyEntry getEntry(String host) {
+        if (host == null) {
+            return null;
+        }
+        try {
+            return certificateFactory.getEntry(host);
+        } catch (RuntimeException e) {
+            log.warn("Unable to forge certificate for {}", host, e);
+            return null;
+        }
+    }
+}
@@ -9,18 +9,20 @@ import net.lightbody.bmp.proxy.jetty.http.HttpRequest;
 import net.lightbody.bmp.proxy.jetty.http.HttpResponse;
 import net.lightbody.bmp.proxy.jetty.http.HttpServer;
 import net.lightbody.bmp.proxy.jetty.http.HttpTunnel;
+import net.lightbody.bmp.proxy.jetty.http.NioTunnel;
 import net.lightbody.bmp.proxy.jetty.http.SslListener;
 import net.lightbody.bmp.proxy.jetty.http.handler.AbstractHttpHandler;
 import net.lightbody.bmp.proxy.jetty.util.IO;
 import net.lightbody.bmp.proxy.jetty.util.InetAddrPort;
 import net.lightbody.bmp.proxy.jetty.util.StringMap;
 import net.lightbody.bmp.proxy.jetty.util.URI;
-import net.lightbody.bmp.proxy.util.ResourceExtractor;
 import net.lightbody.bmp.proxy.util.TrustEverythingSSLTrustManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.SSLHandshakeException;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -37,6 +39,7 @@ import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -84,6 +87,7 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
 
     // see docs for the lock object on SeleniumServer for information on this and why it is IMPORTANT!
     private Object shutdownLock;
+    private SslTerminator sslTerminator;
 
     {
         Object o = new Object();
@@ -125,6 +129,16 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
         super.start();
     }
 
+    public void stop() throws InterruptedException {
+        synchronized (_sslMap) {
+            if (sslTerminator != null) {
+                sslTerminator.stop();
+                sslTerminator = null;
+            }
+        }
+        super.stop();
+    }
+
     public int getTunnelTimeoutMs() {
         return _tunnelTimeoutMs;
     }
@@ -464,6 +478,12 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
 
                 HttpServer server = http_connection.getHttpServer();
 
+                if (ProxyServer.getSslTerminationInPlace() && useCyberVillains && http_connection.getConnection() instanceof Socket) {
+                    terminateSslInPlace(uri, addrPort, server, request, response);
+                    request.setHandled(true);
+                    return;
+                }
+
                 SslRelay listener = getSslRelayOrCreateNew(uri, addrPort, server);
 
                 int port = listener.getPort();
@@ -503,6 +523,45 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
         }
     }
 
+    /**
+     * Answers the CONNECT and takes over the client connection with the shared {@link SslTerminator},
+     * instead of relaying it to a per-host SslRelay listener.
+     */
+    protected void terminateSslInPlace(URI uri, InetAddrPort addrPort, HttpServer server, HttpRequest request, HttpResponse response) throws Exception {
+        Socket socket = (Socket) request.getHttpConnection().getConnection();
+        int timeoutMs = socket.getSoTimeout();
+        if (_tunnelTimeoutMs > 0) {
+            timeoutMs = _tunnelTimeoutMs;
+        }
+
+        // we do this because the URI above doesn't actually have the host broken up (it returns null on getHost())
+        String host = new URL("https://" + uri.toString()).getHost();
+        HttpTunnel tunnel = getSslTerminator(server).newTunnel(socket, addrPort, getCertificateHostname(host), timeoutMs);
+
+        request.getHttpConnection().setHttpTunnel(tunnel);
+        response.setStatus(HttpResponse.__200_OK);
+        response.setContentLength(0);
+    }
+
+    protected SslTerminator getSslTerminator(HttpServer server) throws Exception {
+        synchronized (_sslMap) {
+            if (sslTerminator == null) {
+                SslTerminator terminator = new SslTerminator();
+                terminator.setHttpServer(server);
+                terminator.start();
+                sslTerminator = terminator;
+            }
+            return sslTerminator;
+        }
+    }
+
+    /**
+     * The host name the forged certificate is issued to, when connecting to the given host.
+     */
+    protected String getCertificateHostname(String host) {
+        return host;
+    }
+
     protected SslRelay getSslRelayOrCreateNew(URI uri, InetAddrPort addrPort, HttpServer server) throws Exception {
         SslRelay listener;
         synchronized (_sslMap) {
@@ -512,6 +571,7 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
                 String host = new URL("https://" + uri.toString()).getHost();
 
                 listener = new SslRelay(addrPort);
+                ProxyServer.configureListener(listener);
 
                 if (useCyberVillains) {
                     wireUpSslWithCyberVilliansCA(host, listener);
@@ -568,28 +628,19 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
     }
 
     protected void wireUpSslWithCyberVilliansCA(String host, SslRelay listener) {
-        try {
-            File root = File.createTempFile("seleniumSslSupport", host);
-            root.delete();
-            root.mkdirs();
-
-            ResourceExtractor.extractResourcePath(getClass(), "/sslSupport", root);
-
-            KeyStoreManager mgr = new KeyStoreManager(root);
-            mgr.getCertificateByHostname(host);
-            mgr.getKeyStore().deleteEntry(KeyStoreManager._caPrivKeyAlias);
-            mgr.persist();
-
-//            listener.setKeystore(new File(root, "mitmProxy_keystore.jks").getAbsolutePath());
-            listener.setKeystore(new File(root, "cybervillainsCA.jks").getAbsolutePath());
-            listener.setNukeDirOrFile(root);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+        // the server context is shared by every relay, so a returning client can resume its session
+        listener.setSslContext(MitmCertificateFactory.getInstance().getServerSslContext());
+        listener.setCertificateHost(host);
     }
 
     protected HttpTunnel newHttpTunnel(HttpRequest request, HttpResponse response, InetAddress iaddr, int port, int timeoutMS) throws IOException {
         try {
+            if (ProxyServer.getNonBlockingTunnel()) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(iaddr, port));
+                channel.socket().setSoTimeout(timeoutMS);
+                channel.socket().setTcpNoDelay(true);
+                return new NioTunnel(channel);
+            }
             Socket socket = new Socket(iaddr, port);
             socket.setSoTimeout(timeoutMS);
             socket.setTcpNoDelay(true);
@@ -704,14 +755,54 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
         this.shutdownLock = shutdownLock;
     }
 
+    /**
+     * @return the number of SslRelay listeners created for the intercepted hosts
+     */
+    public int getSslRelayCount() {
+        synchronized (_sslMap) {
+            return _sslMap.size();
+        }
+    }
+
     public static class SslRelay extends SslListener {
         InetAddrPort _addr;
         File nukeDirOrFile;
+        SSLContext sslContext;
+        String certificateHost;
 
         SslRelay(InetAddrPort addr) {
             _addr = addr;
         }
 
+        /**
+         * Serve the given in-memory context, instead of loading the keystore file.
+         */
+        public void setSslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+        }
+
+        /**
+         * Sets the host of the forged certificate, served to the clients that do not send SNI on the shared
+         * server SSLContext.
+         */
+        public void setCertificateHost(String certificateHost) {
+            this.certificateHost = certificateHost;
+        }
+
+        public void start() throws Exception {
+            super.start();
+            if (certificateHost != null) {
+                MitmCertificateFactory.getInstance().getServerKeyManager().expect(getPort(), certificateHost);
+            }
+        }
+
+        protected SSLServerSocketFactory createFactory() throws Exception {
+            if (sslContext != null) {
+                return sslContext.getServerSocketFactory();
+            }
+            return super.createFactory();
+        }
+
         public void setNukeDirOrFile(File nukeDirOrFile) {
             this.nukeDirOrFile = nukeDirOrFile;
         }
@@ -730,6 +821,9 @@ public class SeleniumProxyHandler extends AbstractHttpHandler {
         }
 
         public void stop() throws InterruptedException {
+            if (certificateHost != null) {
+                MitmCertificateFactory.getInstance().getServerKeyManager().forget(getPort());
+            }
             super.stop();
 
             if (nukeDirOrFile != null) {
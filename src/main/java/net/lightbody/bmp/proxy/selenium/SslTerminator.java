@@ -0,0 +1,154 @@
+package net.lightbody.bmp.proxy.selenium;
+
+import net.lightbody.bmp.proxy.jetty.http.HttpConnection;
+import net.lightbody.bmp.proxy.jetty.http.HttpRequest;
+import net.lightbody.bmp.proxy.jetty.http.HttpTunnel;
+import net.lightbody.bmp.proxy.jetty.http.SslListener;
+import net.lightbody.bmp.proxy.jetty.util.InetAddrPort;
+import net.lightbody.bmp.proxy.jetty.util.URI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Terminates the TLS of CONNECT tunnels in place, on the client socket of the proxy connection itself.
+ * <p>
+ * Unlike {@link SeleniumProxyHandler.SslRelay} there is no listening socket per host and no loopback tunnel:
+ * once the CONNECT is answered, the client socket is wrapped into a server mode SSLSocket and the decrypted
+ * requests are handled by a new HttpConnection on the very same thread. A single instance serves every host,
+ * the certificate is selected per handshake by {@link MitmKeyManager} of the shared server SSLContext of the
+ * {@link MitmCertificateFactory}.
+ * <p>
+ * The terminator never opens a server socket, it is started and stopped by the proxy handler that owns it.
+ */
+public class SslTerminator extends SslListener {
+    private final Logger log = LoggerFactory.getLogger(SslTerminator.class);
+    private volatile boolean started;
+    private MitmKeyManager keyManager;
+    private SSLSocketFactory socketFactory;
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (started) {
+            return;
+        }
+        // the context is shared with the relays, so the sessions can be resumed whichever way the client comes back
+        MitmCertificateFactory certificateFactory = MitmCertificateFactory.getInstance();
+        keyManager = certificateFactory.getServerKeyManager();
+        socketFactory = certificateFactory.getServerSslContext().getSocketFactory();
+        started = true;
+        log.info("Started SslTerminator");
+    }
+
+    @Override
+    public synchronized void stop() {
+        started = false;
+        log.info("Stopped SslTerminator");
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * The decrypted connections run on the threads of the listener that accepted the CONNECT,
+     * so resources are accounted there.
+     */
+    @Override
+    public boolean isLowOnResources() {
+        return false;
+    }
+
+    @Override
+    public boolean isOutOfResources() {
+        return false;
+    }
+
+    /**
+     * Creates the tunnel that takes over the proxy connection after the CONNECT response has been sent.
+     *
+     * @param socket    the client socket of the proxy connection
+     * @param addr      the CONNECT target, used to rewrite the decrypted request URIs
+     * @param host      the host name for the forged certificate, when the client does not send SNI
+     * @param timeoutMs read timeout of the decrypted connection
+     * @return the tunnel to be set on the proxy connection
+     */
+    public HttpTunnel newTunnel(Socket socket, InetAddrPort addr, String host, int timeoutMs) {
+        return new TerminatingTunnel(socket, addr, host, timeoutMs);
+    }
+
+    protected void customizeRequest(Socket socket, HttpRequest request) {
+        super.customizeRequest(socket, request);
+        InetAddrPort addr = (InetAddrPort) request.getHttpConnection().getObject();
+        URI uri = request.getURI();
+
+        // same as SslRelay: build a brand-new URI, so the path and query string are left intact
+        request.setURI(new URI("https://" + addr.getHost() + ":" + addr.getPort() + uri.toString()));
+    }
+
+    private void terminate(Socket socket, InputStream in, InetAddrPort addr, String host, int timeoutMs) throws IOException {
+        // the client may have sent its ClientHello right behind the CONNECT, do not lose what is already buffered
+        byte[] consumed = new byte[in.available()];
+        int length = 0;
+        while (length < consumed.length) {
+            int read = in.read(consumed, length, consumed.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+
+        SSLSocket sslSocket = (SSLSocket) socketFactory.createSocket(socket, new ByteArrayInputStream(consumed, 0, length), true);
+        keyManager.expect(sslSocket, host);
+        try {
+            sslSocket.setSoTimeout(timeoutMs);
+            sslSocket.startHandshake();
+        } finally {
+            keyManager.forget(sslSocket);
+        }
+
+        HttpConnection connection = createConnection(sslSocket);
+        connection.setObject(addr);
+        connection.handle();
+    }
+
+    private class TerminatingTunnel extends HttpTunnel {
+        private final Socket socket;
+        private final InetAddrPort addr;
+        private final String host;
+        private final int timeoutMs;
+
+        TerminatingTunnel(Socket socket, InetAddrPort addr, String host, int timeoutMs) {
+            this.socket = socket;
+            this.addr = addr;
+            this.host = host;
+            this.timeoutMs = timeoutMs;
+        }
+
+        @Override
+        public void handle(InputStream in, OutputStream out) {
+            try {
+                terminate(socket, in, addr, host, timeoutMs);
+            } catch (Exception e) {
+                log.debug("Ex at in-place SSL termination of {}", addr, e);
+                try {
+                    socket.close();
+                } catch (IOException e1) {
+                    //
+                }
+            }
+        }
+
+        public String toString() {
+            return "SslTerminator tunnel to " + addr;
+        }
+    }
+}
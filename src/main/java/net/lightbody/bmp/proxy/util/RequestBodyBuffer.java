@@ -0,0 +1,214 @@
+package net.lightbody.bmp.proxy.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffer of a request body, read once from the client and shared by every reader of the body.
+ * <p>
+ * Bodies up to the spill threshold are kept in a single byte array; above that the body is written to a temporary
+ * file, that is deleted when the buffer is released. Any number of independent input streams can be opened on the
+ * buffer, none of them copies the body.
+ * <p>
+ * The buffer is reference counted: it starts with one reference, {@link #retain()} adds one, and {@link #release()}
+ * drops one. Once the last reference is dropped, the temporary file is deleted and the streams can no longer be read.
+ */
+public class RequestBodyBuffer {
+    private static final int INITIAL_SIZE = 4096;
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final byte[] memory;
+    private final FileChannel file;
+    private final long size;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private RequestBodyBuffer(byte[] memory, FileChannel file, long size) {
+        this.memory = memory;
+        this.file = file;
+        this.size = size;
+    }
+
+    /**
+     * Reads the whole stream into a new buffer.
+     *
+     * @param in             is the body to be read, it is not closed
+     * @param spillThreshold is the largest body size kept in memory, larger bodies go to a temporary file
+     * @return with the buffer, holding one reference
+     * @throws IOException if the body cannot be read or the temporary file cannot be written
+     */
+    public static RequestBodyBuffer read(InputStream in, int spillThreshold) throws IOException {
+        int threshold = Math.max(0, spillThreshold);
+        byte[] buffer = new byte[Math.min(threshold, INITIAL_SIZE)];
+        int count = 0;
+        while (true) {
+            if (count == buffer.length) {
+                if (buffer.length == threshold) {
+                    break;
+                }
+                buffer = Arrays.copyOf(buffer, (int) Math.min(threshold, buffer.length * 2L));
+            }
+            int length = in.read(buffer, count, buffer.length - count);
+            if (length < 0) {
+                return new RequestBodyBuffer(buffer, null, count);
+            }
+            count += length;
+        }
+
+        // the memory part is full, spill only if there is more
+        int next = in.read();
+        if (next < 0) {
+            return new RequestBodyBuffer(buffer, null, count);
+        }
+        Path path = Files.createTempFile("mitm-request-body", ".tmp");
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            long size = write(file, ByteBuffer.wrap(buffer, 0, count));
+            size += write(file, ByteBuffer.wrap(new byte[]{(byte) next}));
+            byte[] copy = buffer.length >= COPY_BUFFER_SIZE ? buffer : new byte[COPY_BUFFER_SIZE];
+            int length;
+            while ((length = in.read(copy)) != -1) {
+                size += write(file, ByteBuffer.wrap(copy, 0, length));
+            }
+            return new RequestBodyBuffer(null, file, size);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static int write(FileChannel file, ByteBuffer buffer) throws IOException {
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            file.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * @return the size of the body in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the body has been written to a temporary file
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Opens a new stream on the body, starting at its beginning. The stream supports mark and reset.
+     */
+    public InputStream newInputStream() {
+        return new View();
+    }
+
+    /**
+     * Copies the whole body into a new array.
+     */
+    public byte[] toByteArray() throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Body is too large to fit in an array: " + size);
+        }
+        if (memory != null) {
+            return Arrays.copyOf(memory, (int) size);
+        }
+        byte[] bytes = new byte[(int) size];
+        read(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    public RequestBodyBuffer retain() {
+        if (references.getAndIncrement() <= 0) {
+            references.decrementAndGet();
+            throw new IllegalStateException("Request body buffer is already released");
+        }
+        return this;
+    }
+
+    /**
+     * Drops a reference; the last one deletes the temporary file, if any.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0 && file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ok to ignore
+            }
+        }
+    }
+
+    private int read(long position, byte[] b, int off, int len) throws IOException {
+        if (references.get() <= 0) {
+            throw new IOException("Request body buffer is already released");
+        }
+        if (position >= size) {
+            return -1;
+        }
+        int length = (int) Math.min(len, size - position);
+        if (memory != null) {
+            System.arraycopy(memory, (int) position, b, off, length);
+            return length;
+        }
+        ByteBuffer target = ByteBuffer.wrap(b, off, length);
+        while (target.hasRemaining()) {
+            if (file.read(target, position + target.position() - off) < 0) {
+                break;
+            }
+        }
+        return target.position() - off;
+    }
+
+    private class View extends InputStream {
+        private long position;
+        private long mark;
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int length = RequestBodyBuffer.this.read(position, b, off, len);
+            if (length > 0) {
+                position += length;
+            }
+            return length;
+        }
+
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - position);
+        }
+
+        public boolean markSupported() {
+            return true;
+        }
+
+        public void mark(int readlimit) {
+            mark = position;
+        }
+
+        public void reset() {
+            position = mark;
+        }
+    }
+}
@@ -12,5 +12,12 @@ public class CurrentDateProvider {
     public Date getCurrentDate() {
         return new Date();
     }
+
+    /**
+     * @return the current time in ms, without allocating a Date
+     */
+    public long getCurrentTimeMillis() {
+        return System.currentTimeMillis();
+    }
 }
 
@@ -1,59 +1,78 @@
 package website.magyar.mitm.idgenerator;
 
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The purpose is to generate a Message ID that is used to mark the messages.
  * Same ID is used for a request and response pairs. Usually it is a timestamp + a 4 digit number.
  * More than 4 digit is possible, but in theory only, as that would mean we have over 10K message pairs in a sec.
+ * <p>
+ * The generator is lock-free: the formatted timestamp is cached for the current second, together with the counter
+ * of that second, and is swapped atomically when the second changes. The IDs never go back in time, even if the
+ * clock does, and within a second the numbers are increasing. A number taken from a second that was swapped out
+ * meanwhile is dropped and taken again from the new second, so the IDs follow the order they were issued in.
  *
  * @author Tamas_Kohegyi
  */
 public class TimeStampBasedIdGenerator {
 
     private static final int NO_DIGITS = 4;
-    private final AtomicInteger currentNumber = new AtomicInteger();
+    private static final DateTimeFormatter FILE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private final AtomicReference<Second> currentSecond = new AtomicReference<>();
     private final CurrentDateProvider currentDateProvider = new CurrentDateProvider();
-    private final SimpleDateFormat fileSimpleDateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
-    private String previousSimpleDate;
 
-
-    public synchronized String nextIdentifier() {
-        String currentSimpleDate = getCurrentDateFormattedForFiles();
-        checkPreviousDate(currentSimpleDate);
-        return currentSimpleDate + "." + fourDigitString();
-    }
-
-    private String getCurrentDateFormattedForFiles() {
-        return fileSimpleDateFormat.format(currentDateProvider.getCurrentDate());
+    public String nextIdentifier() {
+        while (true) {
+            Second second = getCurrentSecond(currentDateProvider.getCurrentTimeMillis() / 1000);
+            int number = second.number.getAndIncrement();
+            if (currentSecond.get() == second) {
+                return second.format(number);
+            }
+        }
     }
 
-    private void checkPreviousDate(final String currentSimpleDate) {
-        if (!currentSimpleDate.equals(previousSimpleDate)) {
-            previousSimpleDate = currentSimpleDate;
-            currentNumber.set(0);
+    private Second getCurrentSecond(final long epochSecond) {
+        while (true) {
+            Second second = currentSecond.get();
+            if (second != null && epochSecond <= second.epochSecond) {
+                return second;
+            }
+            String simpleDate = FILE_DATE_FORMAT.format(Instant.ofEpochSecond(epochSecond).atZone(ZoneId.systemDefault()));
+            Second next = new Second(epochSecond, simpleDate);
+            if (currentSecond.compareAndSet(second, next)) {
+                return next;
+            }
         }
     }
 
-    private String fourDigitString() {
-        String convertedNumber = String.valueOf(currentNumber.getAndIncrement());
-        String zeros = createZeros(convertedNumber);
-        return zeros + convertedNumber;
-    }
+    private static final class Second {
+        private final long epochSecond;
+        private final char[] prefix;
+        private final AtomicInteger number = new AtomicInteger();
+
+        private Second(final long epochSecond, final String simpleDate) {
+            this.epochSecond = epochSecond;
+            this.prefix = (simpleDate + ".").toCharArray();
+        }
 
-    private String createZeros(final String convertedNumber) {
-        int size = NO_DIGITS - convertedNumber.length();
-        if (size <= 0) {
-            return "";
-        } else {
-            StringBuilder outputBuffer = new StringBuilder(size);
-            for (int i = 0; i < size; i++) {
-                outputBuffer.append("0");
+        private String format(final int value) {
+            int digits = NO_DIGITS;
+            for (long limit = 10000; value >= limit; limit *= 10) {
+                digits++;
+            }
+            char[] id = new char[prefix.length + digits];
+            System.arraycopy(prefix, 0, id, 0, prefix.length);
+            int remaining = value;
+            for (int i = id.length - 1; i >= prefix.length; i--) {
+                id[i] = (char) ('0' + remaining % 10);
+                remaining /= 10;
             }
-            return outputBuffer.toString();
+            return new String(id);
         }
     }
 
 }
-
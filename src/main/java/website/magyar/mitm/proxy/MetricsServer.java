@@ -0,0 +1,354 @@
+package website.magyar.mitm.proxy;
+/*==========================================================================
+Copyright since 2020, Tamas Kohegyi
+===========================================================================*/
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.lightbody.bmp.proxy.http.BrowserMobHttpClient;
+import net.lightbody.bmp.proxy.http.LatencyHistograms;
+import net.lightbody.bmp.proxy.http.ResponseCache;
+import net.lightbody.bmp.proxy.jetty.http.HttpListener;
+import net.lightbody.bmp.proxy.jetty.http.HttpTunnel;
+import net.lightbody.bmp.proxy.jetty.jetty.BmpServer;
+import net.lightbody.bmp.proxy.jetty.util.ThreadPool;
+import net.lightbody.bmp.proxy.jetty.util.ThreadedServer;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lightweight HTTP endpoint that exports the statistics of a running proxy at /metrics, in the Prometheus text
+ * format, on a port of its own. It is started by the proxy when {@link ProxyServer#setMetricsPort(Integer)} is set,
+ * and listens on the loopback interface, unless {@link ProxyServer#setMetricsHost(String)} says otherwise.
+ * <p>
+ * The exported values are the connection and request statistics of the proxy listener, the requests in progress, the
+ * upstream connection pool, the listener threads, the SslRelays, the CONNECT tunnels, the body and tunnel bytes, the
+ * time spent in the interceptors, and, when they are used, the response cache, the request coalescing and the
+ * latency histograms.
+ * <p>
+ * The labels have a fixed set of values, except the host label of the per host latency histograms: each upstream host
+ * adds 8 phases of 6 series, and the hosts over {@link ProxyServer#setLatencyHistogramsMaxHosts(Integer)} are
+ * counted under the host "(other)", so that setting bounds the number of series.
+ * <p>
+ * A POST to /metrics/latency/reset clears the latency histograms, see {@link ProxyServer#resetLatencyHistograms()}.
+ */
+public class MetricsServer {
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "mitm_proxy_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+    private final ProxyServer proxyServer;
+    private final String host;
+    private final int port;
+    private HttpServer server;
+
+    /**
+     * @param proxyServer is the proxy to export the statistics of
+     * @param host        is the address the endpoint listens on
+     * @param port        is the port of the endpoint, 0 for a random port
+     */
+    public MetricsServer(final ProxyServer proxyServer, final String host, final int port) {
+        this.proxyServer = proxyServer;
+        this.host = host;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::handle);
+        server.createContext("/metrics/latency/reset", this::handleLatencyReset);
+        server.start();
+        logger.info("Metrics endpoint started on: {}:{}", host, getPort());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * @return the port the endpoint listens on, -1 if it is not started
+     */
+    public int getPort() {
+        HttpServer running = server;
+        return running == null ? -1 : running.getAddress().getPort();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to collect the metrics.", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleLatencyReset(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            // 404 if the latency histograms are not used
+            exchange.sendResponseHeaders(proxyServer.resetLatencyHistograms() == null ? 404 : 204, -1);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to reset the latency histograms.", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the current values of the metrics, in the Prometheus text format
+     */
+    String scrape() {
+        TextFormat text = new TextFormat();
+        appendServerStats(text, proxyServer.getBmpServer());
+        appendThreads(text, proxyServer.getBmpServer());
+        text.gauge("ssl_relays", "SslRelay listeners created for the intercepted hosts.");
+        text.sample("ssl_relays", proxyServer.getHandler().getSslRelayCount());
+        text.gauge("tunnels_open", "CONNECT tunnels currently open.");
+        text.sample("tunnels_open", HttpTunnel.getOpenTunnels());
+        text.counter("tunnel_bytes_total", "Bytes copied by the CONNECT tunnels, upstream (from the clients) and downstream (to the clients).");
+        text.sample("tunnel_bytes_total", HttpTunnel.getUpstreamBytes(), "direction", "upstream");
+        text.sample("tunnel_bytes_total", HttpTunnel.getDownstreamBytes(), "direction", "downstream");
+
+        BrowserMobHttpClient client = proxyServer.getClient();
+        text.gauge("upstream_requests_active", "Requests currently sent to the servers by the proxy.");
+        text.sample("upstream_requests_active", proxyServer.getActiveRequests());
+        text.counter("body_bytes_total", "Bytes of the request bodies sent to the servers (out) and of the response bodies received (in).");
+        text.sample("body_bytes_total", client.getResponseBodyBytes(), "direction", "in");
+        text.sample("body_bytes_total", client.getRequestBodyBytes(), "direction", "out");
+        text.counter("interceptor_seconds_total", "Time spent in the request and response interceptors.");
+        text.sample("interceptor_seconds_total", seconds(client.getRequestInterceptorNanos()), "type", "request");
+        text.sample("interceptor_seconds_total", seconds(client.getResponseInterceptorNanos()), "type", "response");
+        appendConnectionPool(text, client);
+        text.counter("upstream_ssl_handshakes_total", "TLS handshakes with the servers, by whether a cached session was resumed.");
+        text.sample("upstream_ssl_handshakes_total", client.getSslFullHandshakes(), "type", "full");
+        text.sample("upstream_ssl_handshakes_total", client.getSslResumedHandshakes(), "type", "resumed");
+        text.counter("coalesced_requests_total", "Requests served by the upstream call of an identical concurrent request.");
+        text.sample("coalesced_requests_total", client.getCoalescedRequests());
+        appendResponseCache(text, client.getResponseCache());
+        appendLatency(text, proxyServer.getLatencySnapshot());
+        return text.toString();
+    }
+
+    private static void appendServerStats(final TextFormat text, final BmpServer server) {
+        text.counter("connections_total", "Client connections handled by the proxy, counted when closed.");
+        text.sample("connections_total", server.getConnections());
+        text.gauge("connections_open", "Client connections currently open.");
+        text.sample("connections_open", server.getConnectionsOpen());
+        text.gauge("connections_open_max", "Maximum number of client connections open at the same time.");
+        text.sample("connections_open_max", server.getConnectionsOpenMax());
+        text.counter("connection_duration_seconds_total", "Total duration of the closed client connections.");
+        text.sample("connection_duration_seconds_total", server.getConnectionsDurationTotal() / 1000.0);
+        text.gauge("connection_duration_seconds_max", "Duration of the longest closed client connection.");
+        text.sample("connection_duration_seconds_max", server.getConnectionsDurationMax() / 1000.0);
+        text.counter("requests_total", "Client requests handled by the proxy.");
+        text.sample("requests_total", server.getRequests());
+        text.counter("request_errors_total", "Client requests that failed.");
+        text.sample("request_errors_total", server.getErrors());
+        text.gauge("requests_active", "Client requests currently handled.");
+        text.sample("requests_active", server.getRequestsActive());
+        text.gauge("requests_active_max", "Maximum number of client requests handled at the same time.");
+        text.sample("requests_active_max", server.getRequestsActiveMax());
+        text.counter("request_duration_seconds_total", "Total duration of the handled client requests.");
+        text.sample("request_duration_seconds_total", server.getRequestsDurationTotal() / 1000.0);
+        text.gauge("request_duration_seconds_max", "Duration of the longest handled client request.");
+        text.sample("request_duration_seconds_max", server.getRequestsDurationMax() / 1000.0);
+    }
+
+    /**
+     * The threads of the proxy listener and of the SslRelays, the latter summed up. In executor (virtual thread) mode
+     * the connections given to the executor are counted as busy threads.
+     */
+    private void appendThreads(final TextFormat text, final BmpServer server) {
+        int[] proxy = new int[3];
+        int[] relays = new int[3];
+        for (HttpListener listener : server.getListeners()) {
+            if (listener instanceof ThreadPool) {
+                ThreadPool pool = (ThreadPool) listener;
+                int[] counts = listener == proxyServer.getListener() ? proxy : relays;
+                int idle = pool.getIdleThreads();
+                counts[0] += pool.getThreads() - idle;
+                counts[1] += idle;
+                counts[2] += pool.getMaxThreads();
+                if (pool instanceof ThreadedServer) {
+                    counts[0] += ((ThreadedServer) pool).getExecutorConnections();
+                }
+            }
+        }
+        text.gauge("threads", "Threads of the listeners, by state.");
+        text.sample("threads", proxy[0], "listener", "proxy", "state", "busy");
+        text.sample("threads", proxy[1], "listener", "proxy", "state", "idle");
+        text.sample("threads", relays[0], "listener", "ssl_relay", "state", "busy");
+        text.sample("threads", relays[1], "listener", "ssl_relay", "state", "idle");
+        text.gauge("threads_max", "Maximum number of pool threads of the listeners.");
+        text.sample("threads_max", proxy[2], "listener", "proxy");
+        text.sample("threads_max", relays[2], "listener", "ssl_relay");
+    }
+
+    private static void appendConnectionPool(final TextFormat text, final BrowserMobHttpClient client) {
+        PoolStats total = client.getConnectionPoolStats();
+        text.gauge("upstream_connections", "Pooled connections to the servers, by state.");
+        text.sample("upstream_connections", total.getLeased(), "state", "leased");
+        text.sample("upstream_connections", total.getAvailable(), "state", "available");
+        text.sample("upstream_connections", total.getPending(), "state", "pending");
+        text.gauge("upstream_connections_max", "Maximum number of pooled connections to the servers.");
+        text.sample("upstream_connections_max", total.getMax());
+        text.gauge("upstream_route_connections", "Pooled connections to the servers per route, by state.");
+        for (Map.Entry<String, PoolStats> route : client.getConnectionPoolRouteStats().entrySet()) {
+            PoolStats stats = route.getValue();
+            text.sample("upstream_route_connections", stats.getLeased(), "route", route.getKey(), "state", "leased");
+            text.sample("upstream_route_connections", stats.getAvailable(), "route", route.getKey(), "state", "available");
+            text.sample("upstream_route_connections", stats.getPending(), "route", route.getKey(), "state", "pending");
+        }
+    }
+
+    private static void appendResponseCache(final TextFormat text, final ResponseCache cache) {
+        if (cache == null) {
+            return;
+        }
+        text.counter("cache_requests_total", "Cacheable requests, by outcome.");
+        text.sample("cache_requests_total", cache.getHits(), "result", "hit");
+        text.sample("cache_requests_total", cache.getRevalidations(), "result", "revalidated");
+        text.sample("cache_requests_total", cache.getMisses(), "result", "miss");
+        text.gauge("cache_entries", "Responses stored in the cache.");
+        text.sample("cache_entries", cache.getEntryCount());
+        text.gauge("cache_bytes", "Bytes of the response bodies stored in the cache, by tier.");
+        text.sample("cache_bytes", cache.getMemoryBytes(), "tier", "memory");
+        text.sample("cache_bytes", cache.getDiskBytes(), "tier", "disk");
+    }
+
+    private static void appendLatency(final TextFormat text, final LatencyHistograms.Snapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        text.summary("request_phase_seconds", "Duration of the request phases, for all the upstream hosts.");
+        for (LatencyHistograms.Phase phase : LatencyHistograms.Phase.values()) {
+            appendSummary(text, "request_phase_seconds", snapshot.getGlobal(phase), "phase", phaseName(phase));
+        }
+        text.summary("host_request_phase_seconds", "Duration of the request phases, per upstream host.");
+        for (String host : snapshot.getHosts()) {
+            for (LatencyHistograms.Phase phase : LatencyHistograms.Phase.values()) {
+                appendSummary(text, "host_request_phase_seconds", snapshot.getHost(host, phase), "host", host, "phase", phaseName(phase));
+            }
+        }
+    }
+
+    private static void appendSummary(final TextFormat text, final String name, final LatencyHistograms.HistogramSnapshot histogram,
+                                      final String... labels) {
+        String[] withQuantile = new String[labels.length + 2];
+        System.arraycopy(labels, 0, withQuantile, 0, labels.length);
+        withQuantile[labels.length] = "quantile";
+        for (double quantile : QUANTILES) {
+            withQuantile[labels.length + 1] = TextFormat.format(quantile);
+            text.sample(name, histogram.getValueAtPercentile(quantile * 100) / 1000, withQuantile);
+        }
+        text.sample(name + "_sum", histogram.getSum() / 1000, labels);
+        text.sample(name + "_count", histogram.getCount(), labels);
+    }
+
+    private static String phaseName(final LatencyHistograms.Phase phase) {
+        return phase.name().toLowerCase(Locale.ROOT);
+    }
+
+    private static double seconds(final long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Builds the text of the metrics: a HELP and TYPE line per metric, then its samples with the labels given as name
+     * and value pairs.
+     */
+    static final class TextFormat {
+        private final StringBuilder text = new StringBuilder(4096);
+
+        void counter(final String name, final String help) {
+            header(name, help, "counter");
+        }
+
+        void gauge(final String name, final String help) {
+            header(name, help, "gauge");
+        }
+
+        void summary(final String name, final String help) {
+            header(name, help, "summary");
+        }
+
+        private void header(final String name, final String help, final String type) {
+            text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+            text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        }
+
+        void sample(final String name, final double value, final String... labels) {
+            text.append(PREFIX).append(name);
+            if (labels.length > 0) {
+                text.append('{');
+                for (int i = 0; i < labels.length; i += 2) {
+                    if (i > 0) {
+                        text.append(',');
+                    }
+                    text.append(labels[i]).append("=\"");
+                    escape(labels[i + 1]);
+                    text.append('"');
+                }
+                text.append('}');
+            }
+            text.append(' ').append(format(value)).append('\n');
+        }
+
+        private void escape(final String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    text.append('\\').append(c);
+                } else if (c == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(c);
+                }
+            }
+        }
+
+        static String format(final double value) {
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                return Long.toString((long) value);
+            }
+            return Double.toString(value);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
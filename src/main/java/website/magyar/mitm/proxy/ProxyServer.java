@@ -5,20 +5,30 @@ Copyright since 2020, Tamas Kohegyi
 
 import net.lightbody.bmp.core.har.Har;
 import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarEntryStore;
 import net.lightbody.bmp.core.har.HarLog;
 import net.lightbody.bmp.core.har.HarNameVersion;
 import net.lightbody.bmp.core.har.HarPage;
+import net.lightbody.bmp.core.har.HarStreamWriter;
 import net.lightbody.bmp.core.util.ThreadUtils;
 import net.lightbody.bmp.proxy.BrowserMobProxyHandler;
 import net.lightbody.bmp.proxy.http.BrowserMobHttpClient;
+import net.lightbody.bmp.proxy.http.LatencyHistograms;
+import net.lightbody.bmp.proxy.http.ResponseCache;
 import net.lightbody.bmp.proxy.jetty.http.HttpContext;
-import net.lightbody.bmp.proxy.jetty.http.HttpListener;
 import net.lightbody.bmp.proxy.jetty.http.SocketListener;
 import net.lightbody.bmp.proxy.jetty.jetty.BmpServer;
 import net.lightbody.bmp.proxy.jetty.util.InetAddrPort;
+import net.lightbody.bmp.proxy.jetty.util.ThreadedServer;
+import net.lightbody.bmp.proxy.selenium.KeyPairPool;
+import net.lightbody.bmp.proxy.selenium.MitmCertificateFactory;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -27,16 +37,51 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class ProxyServer {
     protected static final Logger logger = LoggerFactory.getLogger(ProxyServer.class);
     private static final HarNameVersion CREATOR = new HarNameVersion("Mitm Java Proxy", "0.0");
+    private static final String SESSION_TICKETS_PROPERTY = "jdk.tls.server.enableSessionTicketExtension";
     public static int PROXY_TIMEOUT = 240000; //4 minutes, by default will be set during ProxyServer.start()
     private static Boolean responseVolatile = Boolean.FALSE;  //general default approach is that the response is not volatile
     private static Boolean shouldKeepSslConnectionAlive = Boolean.FALSE; //set it to true if such (e.g. .net) clients we have
+    private static Boolean sslTerminationInPlace = Boolean.FALSE; //set it to true to terminate CONNECT tunnels on the client socket, without SslRelay
+    private static Boolean nonBlockingTunnel = Boolean.FALSE; //set it to true to multiplex the CONNECT tunnels on selector threads
+    private static Boolean virtualThreads = Boolean.FALSE; //set it to true to handle the connections on virtual threads, where the JVM supports them
+    private static Integer acceptors = 1; //number of threads accepting the connections of a listener
+    private static Integer requestBodySpillThreshold = 1024 * 1024; //request bodies above this size (in bytes) are buffered in a temp file
+    private static Integer maxConnections = 30; //upstream connections pooled in total
+    private static Integer maxConnectionsPerRoute = 6; //upstream connections pooled to a single host
+    private static Integer validateAfterInactivity = 2000; //ms after which an idle pooled connection is checked before reuse, 0 to never check
+    private static Integer idleConnectionTimeout = 0; //ms after which idle pooled connections are closed, 0 to keep them
+    private static Integer connectionAcquireTimeout = 0; //ms to wait for a pooled connection when the pool is full, 0 to wait as long as needed
+    private static Boolean dnsAsync = Boolean.FALSE; //set it to true to run the DNS lookups on the resolver executor
+    private static Boolean dnsIpv6Enabled = Boolean.FALSE; //set it to true to use the AAAA records together with the A records
+    private static Integer dnsNegativeCacheTimeout = 5000; //ms a failed DNS lookup is remembered for
+    private static String hostsFile; //hosts file style remapping table, reloaded when modified, null if not used
+    private static Integer sslSessionCacheSize = 20480; //upstream TLS sessions kept for resumption, 0 for no limit
+    private static Integer sslSessionTimeout = 86400; //seconds an upstream TLS session can be resumed for, 0 for no limit
+    private static Boolean requestCoalescing = Boolean.FALSE; //set it to true to let concurrent identical GET requests share one upstream call
+    private static String requestCoalescingHeaders; //comma separated request headers that have to match for coalescing, null for the defaults
+    private static Boolean responseCacheEnabled = Boolean.FALSE; //set it to true to serve the cacheable responses from an RFC 7234 cache
+    private static Integer responseCacheMemorySize = 64; //MB of response bodies the cache keeps in memory
+    private static String responseCacheDirectory; //directory of the disk tier of the cache, null if not used
+    private static Integer responseCacheDiskSize = 1024; //MB of response bodies the cache keeps on disk
+    private static String responseCacheRules; //comma separated hosts (or *.domain) to cache, the ones starting with - are not cached, * is the default
+    private static Boolean latencyHistogramsEnabled = Boolean.FALSE; //set it to true to aggregate the request phase timings per upstream host
+    private static Integer latencyHistogramsMaxHosts = 100; //number of upstream hosts with their own latency histograms
+    private static Boolean http2Upstream = Boolean.FALSE; //set it to true to send the https requests over HTTP/2, where the server supports it
+    private static Integer metricsPort = -1; //port of the Prometheus style metrics endpoint, 0 for a random port, -1 for no endpoint
+    private static String metricsHost = "127.0.0.1"; //address the metrics endpoint listens on, 0.0.0.0 for all interfaces
     private final AtomicInteger requestCounter = new AtomicInteger(0);
     private BmpServer bmpServer;
+    private SocketListener listener;
+    private MetricsServer metricsServer;
     private int port = -1;
     private BrowserMobHttpClient client;
     private HarPage currentPage;
     private BrowserMobProxyHandler handler;
     private int pageCount = 1;
+    private int harMaxEntries = 0;
+    private long harMaxBytes = 0;
+    private HarEntryStore.EvictionPolicy harEvictionPolicy = HarEntryStore.EvictionPolicy.DROP_OLDEST;
+    private HarStreamWriter harStreamWriter;
 
     public ProxyServer() {
     }
@@ -61,6 +106,383 @@ public class ProxyServer {
         ProxyServer.shouldKeepSslConnectionAlive = shouldKeepSslConnectionAlive;
     }
 
+    public static Boolean getSslTerminationInPlace() {
+        return sslTerminationInPlace;
+    }
+
+    public static void setSslTerminationInPlace(Boolean sslTerminationInPlace) {
+        ProxyServer.sslTerminationInPlace = sslTerminationInPlace;
+    }
+
+    public static Boolean getNonBlockingTunnel() {
+        return nonBlockingTunnel;
+    }
+
+    public static void setNonBlockingTunnel(Boolean nonBlockingTunnel) {
+        ProxyServer.nonBlockingTunnel = nonBlockingTunnel;
+    }
+
+    public static Boolean getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public static void setVirtualThreads(Boolean virtualThreads) {
+        ProxyServer.virtualThreads = virtualThreads;
+    }
+
+    public static Integer getAcceptors() {
+        return acceptors;
+    }
+
+    public static void setAcceptors(Integer acceptors) {
+        ProxyServer.acceptors = acceptors;
+    }
+
+    public static Integer getRequestBodySpillThreshold() {
+        return requestBodySpillThreshold;
+    }
+
+    /**
+     * Sets the size (in bytes) above which the request bodies are buffered in a temporary file instead of the memory.
+     */
+    public static void setRequestBodySpillThreshold(Integer requestBodySpillThreshold) {
+        ProxyServer.requestBodySpillThreshold = requestBodySpillThreshold;
+    }
+
+    public static Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of pooled upstream connections in total, applied when the proxy is started.
+     */
+    public static void setMaxConnections(Integer maxConnections) {
+        ProxyServer.maxConnections = maxConnections;
+    }
+
+    public static Integer getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the maximum number of pooled upstream connections to a single host, applied when the proxy is started.
+     */
+    public static void setMaxConnectionsPerRoute(Integer maxConnectionsPerRoute) {
+        ProxyServer.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public static Integer getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    /**
+     * Sets the time (in ms) after which an idle pooled connection is checked before it is reused, applied when the proxy is started.
+     */
+    public static void setValidateAfterInactivity(Integer validateAfterInactivity) {
+        ProxyServer.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    public static Integer getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Sets the time (in ms) after which idle pooled connections are closed, applied when the proxy is started.
+     */
+    public static void setIdleConnectionTimeout(Integer idleConnectionTimeout) {
+        ProxyServer.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
+    public static Integer getConnectionAcquireTimeout() {
+        return connectionAcquireTimeout;
+    }
+
+    /**
+     * Sets the time (in ms) a request waits for a pooled connection when the pool is full, applied when the proxy is started.
+     */
+    public static void setConnectionAcquireTimeout(Integer connectionAcquireTimeout) {
+        ProxyServer.connectionAcquireTimeout = connectionAcquireTimeout;
+    }
+
+    public static Boolean getDnsAsync() {
+        return dnsAsync;
+    }
+
+    /**
+     * Sets whether the DNS lookups run on the resolver executor (A and AAAA in parallel), applied when the proxy is started.
+     */
+    public static void setDnsAsync(Boolean dnsAsync) {
+        ProxyServer.dnsAsync = dnsAsync;
+    }
+
+    public static Boolean getDnsIpv6Enabled() {
+        return dnsIpv6Enabled;
+    }
+
+    /**
+     * Sets whether the AAAA records are used together with the A records, not only if there is no A record,
+     * applied when the proxy is started.
+     */
+    public static void setDnsIpv6Enabled(Boolean dnsIpv6Enabled) {
+        ProxyServer.dnsIpv6Enabled = dnsIpv6Enabled;
+    }
+
+    public static Integer getDnsNegativeCacheTimeout() {
+        return dnsNegativeCacheTimeout;
+    }
+
+    /**
+     * Sets the time (in ms) a failed DNS lookup is remembered for, applied when the proxy is started.
+     */
+    public static void setDnsNegativeCacheTimeout(Integer dnsNegativeCacheTimeout) {
+        ProxyServer.dnsNegativeCacheTimeout = dnsNegativeCacheTimeout;
+    }
+
+    public static String getHostsFile() {
+        return hostsFile;
+    }
+
+    /**
+     * Sets the hosts file style remapping table (lines of "target host..."), loaded when the proxy is started.
+     */
+    public static void setHostsFile(String hostsFile) {
+        ProxyServer.hostsFile = hostsFile;
+    }
+
+    public static Integer getSslSessionCacheSize() {
+        return sslSessionCacheSize;
+    }
+
+    /**
+     * Sets the number of upstream TLS sessions kept for resumption, applied when the proxy is started.
+     */
+    public static void setSslSessionCacheSize(Integer sslSessionCacheSize) {
+        ProxyServer.sslSessionCacheSize = sslSessionCacheSize;
+    }
+
+    public static Integer getSslSessionTimeout() {
+        return sslSessionTimeout;
+    }
+
+    /**
+     * Sets the time (in seconds) an upstream TLS session can be resumed for, applied when the proxy is started.
+     */
+    public static void setSslSessionTimeout(Integer sslSessionTimeout) {
+        ProxyServer.sslSessionTimeout = sslSessionTimeout;
+    }
+
+    public static Boolean getRequestCoalescing() {
+        return requestCoalescing;
+    }
+
+    /**
+     * Sets whether concurrent identical GET and HEAD requests share one upstream call, applied when the proxy is started.
+     */
+    public static void setRequestCoalescing(Boolean requestCoalescing) {
+        ProxyServer.requestCoalescing = requestCoalescing;
+    }
+
+    public static String getRequestCoalescingHeaders() {
+        return requestCoalescingHeaders;
+    }
+
+    /**
+     * Sets the comma separated request headers that have to match, besides the URL, for requests to share an upstream
+     * call, applied when the proxy is started. Null keeps the defaults (Accept, Accept-Encoding, Accept-Language,
+     * Authorization, Cookie, Range).
+     */
+    public static void setRequestCoalescingHeaders(String requestCoalescingHeaders) {
+        ProxyServer.requestCoalescingHeaders = requestCoalescingHeaders;
+    }
+
+    public static Boolean getResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    /**
+     * Sets whether the cacheable responses are served from the RFC 7234 cache of the proxy, applied when the proxy is started.
+     */
+    public static void setResponseCacheEnabled(Boolean responseCacheEnabled) {
+        ProxyServer.responseCacheEnabled = responseCacheEnabled;
+    }
+
+    public static Integer getResponseCacheMemorySize() {
+        return responseCacheMemorySize;
+    }
+
+    /**
+     * Sets the size (in MB) of the response bodies the cache keeps in memory, applied when the proxy is started.
+     */
+    public static void setResponseCacheMemorySize(Integer responseCacheMemorySize) {
+        ProxyServer.responseCacheMemorySize = responseCacheMemorySize;
+    }
+
+    public static String getResponseCacheDirectory() {
+        return responseCacheDirectory;
+    }
+
+    /**
+     * Sets the directory of the disk tier of the cache (null for no disk tier), applied when the proxy is started.
+     */
+    public static void setResponseCacheDirectory(String responseCacheDirectory) {
+        ProxyServer.responseCacheDirectory = responseCacheDirectory;
+    }
+
+    public static Integer getResponseCacheDiskSize() {
+        return responseCacheDiskSize;
+    }
+
+    /**
+     * Sets the size (in MB) of the response bodies the cache keeps on disk, applied when the proxy is started.
+     */
+    public static void setResponseCacheDiskSize(Integer responseCacheDiskSize) {
+        ProxyServer.responseCacheDiskSize = responseCacheDiskSize;
+    }
+
+    public static String getResponseCacheRules() {
+        return responseCacheRules;
+    }
+
+    /**
+     * Sets the hosts the cache is used for, see {@link ResponseCache#setHostRules(String)}, applied when the proxy is started.
+     */
+    public static void setResponseCacheRules(String responseCacheRules) {
+        ProxyServer.responseCacheRules = responseCacheRules;
+    }
+
+    public static Boolean getLatencyHistogramsEnabled() {
+        return latencyHistogramsEnabled;
+    }
+
+    /**
+     * Turns on the latency histograms of the request phases, applied when the proxy is started.
+     */
+    public static void setLatencyHistogramsEnabled(Boolean latencyHistogramsEnabled) {
+        ProxyServer.latencyHistogramsEnabled = latencyHistogramsEnabled;
+    }
+
+    public static Integer getLatencyHistogramsMaxHosts() {
+        return latencyHistogramsMaxHosts;
+    }
+
+    /**
+     * Sets the number of upstream hosts with their own latency histograms, applied when the proxy is started.
+     */
+    public static void setLatencyHistogramsMaxHosts(Integer latencyHistogramsMaxHosts) {
+        ProxyServer.latencyHistogramsMaxHosts = latencyHistogramsMaxHosts;
+    }
+
+    public static Boolean getHttp2Upstream() {
+        return http2Upstream;
+    }
+
+    /**
+     * Sets whether the https requests are sent over HTTP/2 (negotiated with ALPN, falling back to HTTP/1.1), so the
+     * concurrent requests to the same origin share one connection, applied when the proxy is started.
+     */
+    public static void setHttp2Upstream(Boolean http2Upstream) {
+        ProxyServer.http2Upstream = http2Upstream;
+    }
+
+    public static Integer getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Sets the port of the metrics endpoint, see {@link MetricsServer}, -1 to not start it, applied when the proxy is started.
+     */
+    public static void setMetricsPort(Integer metricsPort) {
+        ProxyServer.metricsPort = metricsPort;
+    }
+
+    public static String getMetricsHost() {
+        return metricsHost;
+    }
+
+    /**
+     * Sets the address the metrics endpoint listens on, the loopback interface by default, applied when the proxy is started.
+     */
+    public static void setMetricsHost(String metricsHost) {
+        ProxyServer.metricsHost = metricsHost;
+    }
+
+    /**
+     * Applies the threading settings (virtual threads, acceptors) to a listener, before it is started.
+     */
+    public static void configureListener(ThreadedServer listener) {
+        listener.setVirtualThreads(virtualThreads);
+        listener.setAcceptors(acceptors);
+        listener.setSelectable(nonBlockingTunnel);
+    }
+
+    public static String getMitmKeyAlgorithm() {
+        return MitmCertificateFactory.getInstance().getLeafKeyAlgorithm();
+    }
+
+    /**
+     * Sets the key algorithm of the forged server certificates, "RSA" (default) or "EC" (P-256, cheaper to generate and handshake).
+     */
+    public static void setMitmKeyAlgorithm(String mitmKeyAlgorithm) {
+        MitmCertificateFactory.getInstance().setLeafKeyAlgorithm(mitmKeyAlgorithm);
+    }
+
+    public static Integer getMitmKeyPoolSize() {
+        return KeyPairPool.getSharedSize();
+    }
+
+    /**
+     * Sets the number of key pairs kept ready for the forged server certificates, per key algorithm.
+     */
+    public static void setMitmKeyPoolSize(Integer mitmKeyPoolSize) {
+        KeyPairPool.setSharedSize(mitmKeyPoolSize);
+    }
+
+    public static Boolean getMitmKeyPerHost() {
+        return MitmCertificateFactory.getInstance().isLeafKeyPerHost();
+    }
+
+    /**
+     * Sets whether every forged server certificate gets its own key pair from the pool, instead of sharing one.
+     */
+    public static void setMitmKeyPerHost(Boolean mitmKeyPerHost) {
+        MitmCertificateFactory.getInstance().setLeafKeyPerHost(mitmKeyPerHost);
+    }
+
+    public static Integer getMitmSessionCacheSize() {
+        return MitmCertificateFactory.getInstance().getServerSessionCacheSize();
+    }
+
+    /**
+     * Sets the number of client sessions the intercepting TLS listeners keep for resumption, shared by all hosts.
+     */
+    public static void setMitmSessionCacheSize(Integer mitmSessionCacheSize) {
+        MitmCertificateFactory.getInstance().setServerSessionCacheSize(mitmSessionCacheSize);
+    }
+
+    public static Integer getMitmSessionTimeout() {
+        return MitmCertificateFactory.getInstance().getServerSessionTimeoutS();
+    }
+
+    /**
+     * Sets the time (in seconds) a client session of the intercepting TLS listeners can be resumed for.
+     */
+    public static void setMitmSessionTimeout(Integer mitmSessionTimeout) {
+        MitmCertificateFactory.getInstance().setServerSessionTimeoutS(mitmSessionTimeout);
+    }
+
+    public static Boolean getMitmSessionTickets() {
+        return Boolean.valueOf(System.getProperty(SESSION_TICKETS_PROPERTY, "true"));
+    }
+
+    /**
+     * Sets whether the intercepting TLS listeners resume sessions with stateless session tickets (RFC 5077, and the
+     * TLS 1.3 tickets), instead of keeping every session in the cache. It is a JVM wide setting of the JSSE, it has
+     * to be set before the first TLS connection is made.
+     */
+    public static void setMitmSessionTickets(Boolean mitmSessionTickets) {
+        System.setProperty(SESSION_TICKETS_PROPERTY, mitmSessionTickets.toString());
+    }
+
     public void start(final int requestTimeOut) throws Exception {
         if (port == -1) {
             throw new IllegalStateException("Must set port before starting");
@@ -69,7 +491,9 @@ public class ProxyServer {
         PROXY_TIMEOUT = requestTimeOut;
 
         bmpServer = new BmpServer();
-        HttpListener listener = new SocketListener(new InetAddrPort(getPort()));
+        bmpServer.setStatsOn(metricsPort >= 0);
+        listener = new SocketListener(new InetAddrPort(getPort()));
+        configureListener(listener);
         bmpServer.addListener(listener);
         HttpContext context = new HttpContext();
         context.setContextPath("/");
@@ -79,6 +503,36 @@ public class ProxyServer {
         handler.setJettyServer(bmpServer);
         handler.setShutdownLock(new Object());
         client = new BrowserMobHttpClient(requestCounter, requestTimeOut);
+        client.setMaxConnections(maxConnections);
+        client.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+        client.setValidateAfterInactivity(validateAfterInactivity);
+        client.setIdleConnectionTimeout(idleConnectionTimeout);
+        client.setConnectionAcquireTimeout(connectionAcquireTimeout);
+        client.setDNSAsync(dnsAsync);
+        client.setDNSIpv6Enabled(dnsIpv6Enabled);
+        client.setDNSNegativeCacheTimeout(dnsNegativeCacheTimeout);
+        if (hostsFile != null) {
+            client.loadHostsFile(new File(hostsFile));
+        }
+        client.setSslSessionCacheSize(sslSessionCacheSize);
+        client.setSslSessionTimeout(sslSessionTimeout);
+        client.setHttp2Upstream(http2Upstream);
+        if (responseCacheEnabled) {
+            long megabyte = 1024L * 1024L;
+            ResponseCache cache = new ResponseCache(responseCacheMemorySize * megabyte,
+                    responseCacheDirectory == null ? null : new File(responseCacheDirectory), responseCacheDiskSize * megabyte);
+            if (responseCacheRules != null) {
+                cache.setHostRules(responseCacheRules);
+            }
+            client.setResponseCache(cache);
+        }
+        if (latencyHistogramsEnabled) {
+            client.setLatencyHistograms(new LatencyHistograms(latencyHistogramsMaxHosts));
+        }
+        client.setRequestCoalescing(requestCoalescing);
+        if (requestCoalescingHeaders != null) {
+            client.setRequestCoalescingHeaders(Arrays.asList(requestCoalescingHeaders.trim().split("\\s*,\\s*")));
+        }
         client.prepareForBrowser();
         handler.setHttpClient(client);
 
@@ -87,6 +541,11 @@ public class ProxyServer {
         bmpServer.start();
 
         setPort(listener.getPort());
+
+        if (metricsPort >= 0) {
+            metricsServer = new MetricsServer(this, metricsHost, metricsPort);
+            metricsServer.start();
+        }
     }
 
     public void cleanup() {
@@ -94,6 +553,10 @@ public class ProxyServer {
     }
 
     public void stop() throws Exception {
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
         cleanup();
         client.shutdown();
         bmpServer.stop();
@@ -135,12 +598,55 @@ public class ProxyServer {
         Har oldHar = getHar();
 
         Har har = new Har(new HarLog(CREATOR));
+        configureEntryStore(har.getLog().getEntryStore());
+        har.getLog().setStreamWriter(harStreamWriter);
         client.setHar(har);
         newPage(initialPageRef);
 
         return oldHar;
     }
 
+    /**
+     * Caps the entries of the current and the new HARs.
+     *
+     * @param maxEntries     is the maximum number of entries, 0 for no limit
+     * @param maxBytes       is the maximum estimated size of the entries (headers, captured content), 0 for no limit
+     * @param evictionPolicy tells whether the oldest or the newest entries are dropped when a cap is hit
+     */
+    public void setHarLimits(final int maxEntries, final long maxBytes, final HarEntryStore.EvictionPolicy evictionPolicy) {
+        harMaxEntries = maxEntries;
+        harMaxBytes = maxBytes;
+        harEvictionPolicy = evictionPolicy;
+        Har har = client.getHar();
+        if (har != null && har.getLog() != null) {
+            configureEntryStore(har.getLog().getEntryStore());
+        }
+    }
+
+    private void configureEntryStore(final HarEntryStore entryStore) {
+        entryStore.setEvictionPolicy(harEvictionPolicy);
+        entryStore.setMaxEntries(harMaxEntries);
+        entryStore.setMaxBytes(harMaxBytes);
+    }
+
+    /**
+     * Streams the completed entries of the current and the new HARs to disk, instead of holding them in memory.
+     * The HARs then only hold the entries in flight. The writer is not closed by the proxy.
+     *
+     * @param streamWriter is the writer of the entries, null to hold the entries in memory again
+     */
+    public void setHarStreamWriter(final HarStreamWriter streamWriter) {
+        harStreamWriter = streamWriter;
+        Har har = client.getHar();
+        if (har != null && har.getLog() != null) {
+            har.getLog().setStreamWriter(streamWriter);
+        }
+    }
+
+    public HarStreamWriter getHarStreamWriter() {
+        return harStreamWriter;
+    }
+
     public void newPage(String pageRef) {
         if (pageRef == null) {
             pageRef = "Page " + pageCount;
@@ -161,6 +667,13 @@ public class ProxyServer {
         client.addResponseInterceptor(interceptor);
     }
 
+    /**
+     * Adds an interceptor that rewrites the volatile response bodies chunk by chunk, instead of buffering them.
+     */
+    public void addStreamingResponseInterceptor(final StreamingResponseInterceptor interceptor) {
+        client.addStreamingResponseInterceptor(interceptor);
+    }
+
     public void setRequestTimeout(final int requestTimeout) {
         client.setRequestTimeout(requestTimeout);
     }
@@ -185,6 +698,117 @@ public class ProxyServer {
         client.setCaptureBinaryContent(captureBinaryContent);
     }
 
+    /**
+     * Sets the maximum number of pooled upstream connections to a given host of the running proxy.
+     *
+     * @param target                 is the scheme, host and optional port of the upstream, like https://example.com:8443
+     * @param maxConnectionsPerRoute is the limit of the host
+     */
+    public void setMaxConnectionsPerRoute(final String target, final int maxConnectionsPerRoute) {
+        client.setMaxConnectionsPerRoute(target, maxConnectionsPerRoute);
+    }
+
+    /**
+     * @return the live statistics (leased, available, pending connections and the limit) of the upstream connection pool
+     */
+    public PoolStats getConnectionPoolStats() {
+        return client.getConnectionPoolStats();
+    }
+
+    /**
+     * @return the live statistics of the upstream connection pool per route, keyed by the target of the route
+     */
+    public Map<String, PoolStats> getConnectionPoolRouteStats() {
+        return client.getConnectionPoolRouteStats();
+    }
+
+    /**
+     * @return the response cache of the running proxy (with its hit and miss counters), or null if it is not used
+     */
+    public ResponseCache getResponseCache() {
+        return client.getResponseCache();
+    }
+
+    /**
+     * @return the latency histograms of the request phases, globally and per upstream host, or null if they are not used
+     */
+    public LatencyHistograms.Snapshot getLatencySnapshot() {
+        LatencyHistograms histograms = client.getLatencyHistograms();
+        return histograms == null ? null : histograms.snapshot();
+    }
+
+    /**
+     * Clears the latency histograms, so they start over.
+     *
+     * @return the latency histograms as they were before the reset, or null if they are not used
+     */
+    public LatencyHistograms.Snapshot resetLatencyHistograms() {
+        LatencyHistograms histograms = client.getLatencyHistograms();
+        return histograms == null ? null : histograms.snapshotAndReset();
+    }
+
+    /**
+     * @return the number of requests that were served by the upstream call of an identical concurrent request
+     */
+    public long getCoalescedRequests() {
+        return client.getCoalescedRequests();
+    }
+
+    /**
+     * @return the number of upstream TLS handshakes that established a new session
+     */
+    public long getSslFullHandshakes() {
+        return client.getSslFullHandshakes();
+    }
+
+    /**
+     * @return the number of upstream TLS handshakes that resumed a cached session
+     */
+    public long getSslResumedHandshakes() {
+        return client.getSslResumedHandshakes();
+    }
+
+    /**
+     * @return the metrics endpoint of the running proxy, or null if it is not started
+     */
+    public MetricsServer getMetricsServer() {
+        return metricsServer;
+    }
+
+    BmpServer getBmpServer() {
+        return bmpServer;
+    }
+
+    SocketListener getListener() {
+        return listener;
+    }
+
+    BrowserMobProxyHandler getHandler() {
+        return handler;
+    }
+
+    BrowserMobHttpClient getClient() {
+        return client;
+    }
+
+    int getActiveRequests() {
+        return requestCounter.get();
+    }
+
+    /**
+     * Remaps a host name, or the subdomains matching a wildcard rule like *.internal.example, to a target host or IP address.
+     */
+    public void remapHost(final String source, final String target) {
+        client.remapHost(source, target);
+    }
+
+    /**
+     * Loads (replaces) the hosts file style remapping table of the running proxy; it is reloaded when modified.
+     */
+    public void loadHostsFile(final File file) throws IOException {
+        client.loadHostsFile(file);
+    }
+
     public void clearDNSCache() {
         client.clearDNSCache();
     }
@@ -193,6 +817,10 @@ public class ProxyServer {
         client.setDNSCacheTimeout(timeout);
     }
 
+    public void setDNSNegativeCacheTimeout(final int timeout) {
+        client.setDNSNegativeCacheTimeout(timeout);
+    }
+
     public void waitForNetworkTrafficToStop(final long quietPeriodInMs, final long timeoutInMs) {
         boolean result = ThreadUtils.waitFor(new ThreadUtils.WaitCondition() {
             @Override
@@ -203,6 +831,11 @@ public class ProxyServer {
                     return true;
                 }
 
+                // the completed entries may have been streamed to disk or evicted already
+                if (har.getLog().getLastCompletedEntryEnd() > 0) {
+                    lastCompleted = new Date(har.getLog().getLastCompletedEntryEnd());
+                }
+
                 for (HarEntry entry : har.getLog().getEntries()) {
                     // if there is an active request, just stop looking
                     if (entry.getResponse().getStatus() < 0) {
@@ -0,0 +1,39 @@
+package website.magyar.mitm.proxy;
+
+import website.magyar.mitm.proxy.http.MitmJavaProxyHttpResponse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface to be implemented in order to rewrite volatile response bodies on the fly, chunk by chunk.
+ * <p>
+ * Once a streaming response interceptor is added, volatile responses are no longer buffered: the response interceptors
+ * are called first (so the status and the headers can still be altered, but the body is not available to them), then
+ * the body is read from the server in chunks, every chunk is passed through the streaming interceptors in the order
+ * they were added, and the result is sent back to the client right away, with chunked transfer encoding.
+ * The response content is not captured in this mode.
+ *
+ * @author Tamas Kohegyi
+ */
+public interface StreamingResponseInterceptor {
+
+    /**
+     * Called with every chunk of the response body, as it arrives from the server.
+     * The chunk is only valid during the call, copy it if it is to be kept.
+     *
+     * @param response is the response being streamed
+     * @param chunk    is the next part of the body
+     * @return with the data to be sent on instead: the same chunk, a transformed one, or an empty buffer (or null) to hold the data back
+     */
+    ByteBuffer process(MitmJavaProxyHttpResponse response, ByteBuffer chunk);
+
+    /**
+     * Called when the whole body has been read from the server.
+     *
+     * @param response is the response being streamed
+     * @return with any data that was held back and is to be sent at the end of the body, or null
+     */
+    default ByteBuffer finish(MitmJavaProxyHttpResponse response) {
+        return null;
+    }
+}
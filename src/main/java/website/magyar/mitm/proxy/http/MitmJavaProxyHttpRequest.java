@@ -6,10 +6,13 @@ import net.lightbody.bmp.proxy.http.RequestCallback;
 import net.lightbody.bmp.proxy.jetty.http.HttpRequest;
 import net.lightbody.bmp.proxy.util.Base64;
 import net.lightbody.bmp.proxy.util.ClonedInputStream;
+import net.lightbody.bmp.proxy.util.RequestBodyBuffer;
+import org.apache.http.HttpEntity;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.InputStreamEntity;
@@ -19,10 +22,12 @@ import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
@@ -43,6 +48,7 @@ public class MitmJavaProxyHttpRequest {
     private StringEntity stringEntity;
     private ByteArrayEntity byteArrayEntity;
     private InputStreamEntity inputStreamEntity;
+    private RequestBodyBuffer bodyBuffer;
     private MultipartEntityBuilder multipartEntityBuilder;
     private OutputStream outputStream;
     private RequestCallback requestCallback;
@@ -103,6 +109,51 @@ public class MitmJavaProxyHttpRequest {
         inputStreamEntity = new InputStreamEntity(is, length);
     }
 
+    /**
+     * Sets the body of the request from a shared buffer. The upstream entity reads the buffer directly, and the
+     * content capture (if enabled) copies it only when the HAR entry is built, so the body is not cloned while sent.
+     *
+     * @param bodyBuffer is the body, as read from the client
+     */
+    public void setRequestBodyBuffer(final RequestBodyBuffer bodyBuffer) {
+        this.bodyBuffer = bodyBuffer;
+    }
+
+    public RequestBodyBuffer getRequestBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    /**
+     * Gets the request body for the content capture. If the body was replaced by a request interceptor (eg by
+     * {@link #setBody(byte[])}), the replacement is captured, as that is what was sent upstream.
+     *
+     * @return with the body sent upstream, or null if it is not collected
+     */
+    public byte[] getCapturedBody() {
+        if (!collectAdditionalInfo) {
+            return null;
+        }
+        HttpEntity entity = method instanceof HttpEntityEnclosingRequestBase ? ((HttpEntityEnclosingRequestBase) method).getEntity() : null;
+        if (entity != null && entity.isRepeatable()) {
+            try {
+                return EntityUtils.toByteArray(entity);
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.debug("Cannot capture the request entity", e);
+            }
+        }
+        if (copy != null) {
+            return copy.toByteArray();
+        }
+        if (bodyBuffer != null) {
+            try {
+                return bodyBuffer.toByteArray();
+            } catch (IOException e) {
+                logger.debug("Cannot capture the request body", e);
+            }
+        }
+        return null;
+    }
+
     public HttpRequestBase getMethod() {
         return method;
     }
@@ -145,6 +196,8 @@ public class MitmJavaProxyHttpRequest {
                 enclosingRequest.setEntity(stringEntity);
             } else if (inputStreamEntity != null) {
                 enclosingRequest.setEntity(inputStreamEntity);
+            } else if (bodyBuffer != null) {
+                enclosingRequest.setEntity(new RequestBodyBufferEntity(bodyBuffer));
             }
         }
 
@@ -212,4 +265,46 @@ public class MitmJavaProxyHttpRequest {
             }
         }
     }
+
+    /**
+     * Repeatable entity reading a request body buffer.
+     */
+    private static class RequestBodyBufferEntity extends AbstractHttpEntity {
+        private final RequestBodyBuffer bodyBuffer;
+
+        RequestBodyBufferEntity(final RequestBodyBuffer bodyBuffer) {
+            this.bodyBuffer = bodyBuffer;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return bodyBuffer.size();
+        }
+
+        @Override
+        public InputStream getContent() {
+            return bodyBuffer.newInputStream();
+        }
+
+        @Override
+        public void writeTo(final OutputStream outStream) throws IOException {
+            try (InputStream in = bodyBuffer.newInputStream()) {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    outStream.write(buffer, 0, length);
+                }
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
 }
@@ -17,14 +17,19 @@ import website.magyar.mitm.proxy.header.HttpHeaderToBeRemoved;
 import website.magyar.mitm.proxy.header.HttpHeaderToBeUpdated;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import website.magyar.mitm.proxy.StreamingResponseInterceptor;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class MitmJavaProxyHttpResponse {
+    private static final int STREAM_BUFFER_SIZE = 8192;
     private final Logger logger = LoggerFactory.getLogger(MitmJavaProxyHttpResponse.class);
     private final boolean responseVolatile;
     private final HarEntry entry;
@@ -40,6 +45,8 @@ public class MitmJavaProxyHttpResponse {
     private final OutputStream os;
     private final Map<String, HttpHeaderChange> headerChanges = new HashMap<>();
     private ByteArrayOutputStream bos;
+    private InputStream bodyStream;
+    private List<StreamingResponseInterceptor> streamingInterceptors;
 
     public MitmJavaProxyHttpResponse(int status, HarEntry entry, HttpRequestBase method, URI proxyRequestURI, HttpResponse response,
                                      String errorMessage,
@@ -61,6 +68,36 @@ public class MitmJavaProxyHttpResponse {
         this.reasonPhrase = null;
     }
 
+    /**
+     * MitmJavaProxy internal call - sets the not yet read body of a volatile response, that will be streamed through the
+     * streaming interceptors when answering. Never call it.
+     *
+     * @param bodyStream            is the response body, as it comes from the server
+     * @param streamingInterceptors are the interceptors the body is passed through
+     */
+    public void setBodyStream(InputStream bodyStream, List<StreamingResponseInterceptor> streamingInterceptors) {
+        this.bodyStream = bodyStream;
+        this.streamingInterceptors = streamingInterceptors;
+    }
+
+    /**
+     * MitmJavaProxy internal call - closes the streamed body, if it is not yet answered, so its upstream connection
+     * is released. Never call it.
+     */
+    public void closeBodyStream() {
+        IOUtils.closeQuietly(bodyStream);
+    }
+
+    /**
+     * Tells if the body of the response is streamed through the streaming interceptors, instead of being buffered.
+     * In that case the body is not available via getBodyString() and getBodyBytes(), and cannot be replaced by setBody().
+     *
+     * @return true if the body is streamed
+     */
+    public boolean isBodyStreamed() {
+        return bodyStream != null;
+    }
+
     /**
      * Gets the response body as String. Only available in case Proxy is working in 'captureContent' mode and the content type is not binary.
      * @return with the response body, or null, if body is not available.
@@ -248,6 +285,12 @@ public class MitmJavaProxyHttpResponse {
             response.setStatus(status, reasonPhrase);
         }
 
+        //stream the body through the streaming interceptors - if the response is volatile and streamed
+        if (responseVolatile && bodyStream != null && os != null) {
+            streamAnswer(response);
+            return;
+        }
+
         //prepare body update - only if response is volatile and well prepared
         if (!responseVolatile || bos == null || os == null) {
             return;
@@ -266,6 +309,52 @@ public class MitmJavaProxyHttpResponse {
         }
     }
 
+    private void streamAnswer(net.lightbody.bmp.proxy.jetty.http.HttpResponse response) {
+        long bytes = 0;
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        try {
+            //the length of the rewritten body is not known, so it goes back chunked (or until close, for HTTP/1.0 clients)
+            response.removeField(HttpFields.__ContentLength);
+            int length;
+            while ((length = bodyStream.read(buffer)) != -1) {
+                bytes += length;
+                writeChunk(process(ByteBuffer.wrap(buffer, 0, length), 0));
+            }
+            for (int i = 0; i < streamingInterceptors.size(); i++) {
+                //data held back by an interceptor still goes through the ones after it
+                writeChunk(process(streamingInterceptors.get(i).finish(this), i + 1));
+            }
+        } catch (IOException e) {
+            logger.debug("Streaming of the response body failed.", e);
+        } finally {
+            entry.getResponse().setBodySize(bytes);
+            entry.getResponse().getContent().setSize(bytes);
+            IOUtils.closeQuietly(bodyStream);
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    private ByteBuffer process(ByteBuffer chunk, int from) {
+        for (int i = from; i < streamingInterceptors.size() && chunk != null && chunk.hasRemaining(); i++) {
+            chunk = streamingInterceptors.get(i).process(this, chunk);
+        }
+        return chunk;
+    }
+
+    private void writeChunk(ByteBuffer chunk) throws IOException {
+        if (chunk == null || !chunk.hasRemaining()) {
+            return;
+        }
+        if (chunk.hasArray()) {
+            os.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+        } else {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            os.write(bytes);
+        }
+        os.flush();
+    }
+
     public boolean isResponseVolatile() {
         return responseVolatile;
     }
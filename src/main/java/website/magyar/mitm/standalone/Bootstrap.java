@@ -1,5 +1,6 @@
 package website.magyar.mitm.standalone;
 
+import net.lightbody.bmp.proxy.selenium.KeyPairPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import website.magyar.mitm.proxy.ProxyServer;
@@ -40,6 +41,40 @@ public class Bootstrap {
         Integer port = getPort();
         Integer proxyTimeout = getProxyTimeout();
         Boolean keepSslAlive = getKeepSslAlive();
+        ProxyServer.setSslTerminationInPlace(getSslTerminationInPlace());
+        ProxyServer.setNonBlockingTunnel(getNonBlockingTunnel());
+        ProxyServer.setMitmKeyPoolSize(getIntegerProperty("proxy.mitmKeyPoolSize", ProxyServer.getMitmKeyPoolSize()));
+        ProxyServer.setMitmKeyAlgorithm(getMitmKeyAlgorithm());
+        ProxyServer.setMitmKeyPerHost(Boolean.valueOf(properties.getProperty("proxy.mitmKeyPerHost")));
+        ProxyServer.setMitmSessionCacheSize(getIntegerProperty("proxy.mitmSessionCacheSize", ProxyServer.getMitmSessionCacheSize()));
+        ProxyServer.setMitmSessionTimeout(getIntegerProperty("proxy.mitmSessionTimeout", ProxyServer.getMitmSessionTimeout()));
+        ProxyServer.setMitmSessionTickets(Boolean.valueOf(properties.getProperty("proxy.mitmSessionTickets", "true")));
+        ProxyServer.setVirtualThreads(getVirtualThreads());
+        ProxyServer.setAcceptors(getAcceptors());
+        ProxyServer.setRequestBodySpillThreshold(getRequestBodySpillThreshold());
+        ProxyServer.setMaxConnections(getIntegerProperty("proxy.maxConnections", ProxyServer.getMaxConnections()));
+        ProxyServer.setMaxConnectionsPerRoute(getIntegerProperty("proxy.maxConnectionsPerRoute", ProxyServer.getMaxConnectionsPerRoute()));
+        ProxyServer.setValidateAfterInactivity(getIntegerProperty("proxy.validateAfterInactivity", ProxyServer.getValidateAfterInactivity()));
+        ProxyServer.setIdleConnectionTimeout(getIntegerProperty("proxy.idleConnectionTimeout", ProxyServer.getIdleConnectionTimeout()));
+        ProxyServer.setConnectionAcquireTimeout(getIntegerProperty("proxy.connectionAcquireTimeout", ProxyServer.getConnectionAcquireTimeout()));
+        ProxyServer.setDnsAsync(Boolean.valueOf(properties.getProperty("proxy.dnsAsync")));
+        ProxyServer.setDnsIpv6Enabled(Boolean.valueOf(properties.getProperty("proxy.dnsIpv6Enabled")));
+        ProxyServer.setDnsNegativeCacheTimeout(getIntegerProperty("proxy.dnsNegativeCacheTimeout", ProxyServer.getDnsNegativeCacheTimeout()));
+        ProxyServer.setHostsFile(getHostsFile());
+        ProxyServer.setSslSessionCacheSize(getIntegerProperty("proxy.sslSessionCacheSize", ProxyServer.getSslSessionCacheSize()));
+        ProxyServer.setSslSessionTimeout(getIntegerProperty("proxy.sslSessionTimeout", ProxyServer.getSslSessionTimeout()));
+        ProxyServer.setResponseCacheEnabled(Boolean.valueOf(properties.getProperty("proxy.responseCache")));
+        ProxyServer.setResponseCacheMemorySize(getIntegerProperty("proxy.responseCacheMemorySize", ProxyServer.getResponseCacheMemorySize()));
+        ProxyServer.setResponseCacheDirectory(getOptionalProperty("proxy.responseCacheDirectory"));
+        ProxyServer.setResponseCacheDiskSize(getIntegerProperty("proxy.responseCacheDiskSize", ProxyServer.getResponseCacheDiskSize()));
+        ProxyServer.setResponseCacheRules(getOptionalProperty("proxy.responseCacheRules"));
+        ProxyServer.setLatencyHistogramsEnabled(Boolean.valueOf(properties.getProperty("proxy.latencyHistograms")));
+        ProxyServer.setLatencyHistogramsMaxHosts(getIntegerProperty("proxy.latencyHistogramsMaxHosts", ProxyServer.getLatencyHistogramsMaxHosts()));
+        ProxyServer.setRequestCoalescing(Boolean.valueOf(properties.getProperty("proxy.requestCoalescing")));
+        ProxyServer.setRequestCoalescingHeaders(getRequestCoalescingHeaders());
+        ProxyServer.setHttp2Upstream(Boolean.valueOf(properties.getProperty("proxy.http2Upstream")));
+        ProxyServer.setMetricsPort(getIntegerProperty("proxy.metricsPort", ProxyServer.getMetricsPort()));
+        ProxyServer.setMetricsHost(getMetricsHost());
         try {
             proxyServer = startProxy(port, proxyTimeout, keepSslAlive);
         } catch (Exception e) {
@@ -52,6 +87,81 @@ public class Bootstrap {
         return Boolean.valueOf(properties.getProperty("proxy.keepSslAlive"));
     }
 
+    private Boolean getSslTerminationInPlace() {
+        return Boolean.valueOf(properties.getProperty("proxy.sslTerminationInPlace"));
+    }
+
+    private Boolean getNonBlockingTunnel() {
+        return Boolean.valueOf(properties.getProperty("proxy.nonBlockingTunnel"));
+    }
+
+    private Boolean getVirtualThreads() {
+        return Boolean.valueOf(properties.getProperty("proxy.virtualThreads"));
+    }
+
+    private Integer getAcceptors() {
+        int acceptors = 1;
+        try {
+            acceptors = Integer.parseInt(properties.getProperty("proxy.acceptors", "1"));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid acceptors value! - Using default acceptors:{}", 1);
+        }
+        if (acceptors < 1) {
+            logger.warn("Invalid acceptors value! - Using default acceptors:{}", 1);
+            acceptors = 1;
+        }
+        return acceptors;
+    }
+
+    private Integer getRequestBodySpillThreshold() {
+        int threshold = ProxyServer.getRequestBodySpillThreshold();
+        try {
+            threshold = Integer.parseInt(properties.getProperty("proxy.requestBodySpillThreshold", Integer.toString(threshold)));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid request body spill threshold value! - Using default threshold:{}", threshold);
+        }
+        return threshold;
+    }
+
+    private String getHostsFile() {
+        String hostsFile = properties.getProperty("proxy.hostsFile", "").trim();
+        return hostsFile.isEmpty() ? null : hostsFile;
+    }
+
+    private String getRequestCoalescingHeaders() {
+        String headers = properties.getProperty("proxy.requestCoalescingHeaders", "").trim();
+        return headers.isEmpty() ? null : headers;
+    }
+
+    private String getMetricsHost() {
+        String metricsHost = getOptionalProperty("proxy.metricsHost");
+        return metricsHost == null ? ProxyServer.getMetricsHost() : metricsHost;
+    }
+
+    private String getOptionalProperty(final String name) {
+        String value = properties.getProperty(name, "").trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private Integer getIntegerProperty(final String name, final int defaultValue) {
+        int value = defaultValue;
+        try {
+            value = Integer.parseInt(properties.getProperty(name, Integer.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid {} value! - Using default value:{}", name, defaultValue);
+        }
+        return value;
+    }
+
+    private String getMitmKeyAlgorithm() {
+        String algorithm = properties.getProperty("proxy.mitmKeyAlgorithm", KeyPairPool.RSA);
+        if (!KeyPairPool.RSA.equals(algorithm) && !KeyPairPool.EC.equals(algorithm)) {
+            logger.warn("Invalid MITM key algorithm value! - Using default algorithm:{}", KeyPairPool.RSA);
+            algorithm = KeyPairPool.RSA;
+        }
+        return algorithm;
+    }
+
     private Integer getProxyTimeout() {
         int timeout = PROXY_TIMEOUT;
         try {
@@ -0,0 +1,125 @@
+package net.lightbody.bmp.core.har;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HarEntryStoreTest {
+
+    @Test
+    public void testEntriesAreKeptInOrder() {
+        HarEntryStore store = new HarEntryStore();
+        List<HarEntry> added = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            HarEntry entry = newEntry(i, 10);
+            added.add(entry);
+            assertTrue(store.add(entry));
+        }
+
+        assertEquals(added, store.snapshot());
+        assertEquals(100, store.size());
+        assertEquals(0, store.getEvicted());
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedByLaterChanges() {
+        HarEntryStore store = new HarEntryStore();
+        store.add(newEntry(0, 10));
+        List<HarEntry> snapshot = store.snapshot();
+        store.add(newEntry(1, 10));
+
+        assertEquals(1, snapshot.size());
+        assertEquals(2, store.snapshot().size());
+    }
+
+    @Test
+    public void testOldestEntriesAreDroppedAboveMaxEntries() {
+        HarEntryStore store = new HarEntryStore();
+        store.setMaxEntries(10);
+        HarEntry last = null;
+        for (int i = 0; i < 25; i++) {
+            last = newEntry(i, 10);
+            store.add(last);
+        }
+
+        List<HarEntry> snapshot = store.snapshot();
+        assertEquals(10, snapshot.size());
+        assertEquals("15", snapshot.get(0).getMessageId());
+        assertSame(last, snapshot.get(9));
+        assertEquals(15, store.getEvicted());
+    }
+
+    @Test
+    public void testNewestEntriesAreDroppedAboveMaxEntries() {
+        HarEntryStore store = new HarEntryStore();
+        store.setMaxEntries(10);
+        store.setEvictionPolicy(HarEntryStore.EvictionPolicy.DROP_NEWEST);
+        for (int i = 0; i < 25; i++) {
+            assertEquals(i < 10, store.add(newEntry(i, 10)));
+        }
+
+        List<HarEntry> snapshot = store.snapshot();
+        assertEquals(10, snapshot.size());
+        assertEquals("0", snapshot.get(0).getMessageId());
+        assertEquals(15, store.getEvicted());
+    }
+
+    @Test
+    public void testOldestEntriesAreDroppedAboveMaxBytes() {
+        HarEntryStore store = new HarEntryStore();
+        store.setMaxBytes(1000);
+        for (int i = 0; i < 10; i++) {
+            HarEntry entry = newEntry(i, 300);
+            store.add(entry);
+            store.completed(entry);
+        }
+
+        assertTrue(store.getBytes() <= 1000);
+        assertTrue(store.size() < 10);
+        assertEquals("9", store.snapshot().get(store.size() - 1).getMessageId());
+    }
+
+    @Test
+    public void testEvictedEntryIsNotAccounted() {
+        HarEntryStore store = new HarEntryStore();
+        store.setMaxEntries(1);
+        HarEntry first = newEntry(0, 100);
+        store.add(first);
+        store.add(newEntry(1, 100));
+        store.completed(first);
+
+        assertEquals(0, store.getBytes());
+        assertFalse(store.snapshot().contains(first));
+    }
+
+    @Test
+    public void testClear() {
+        HarEntryStore store = new HarEntryStore();
+        HarEntry entry = newEntry(0, 100);
+        store.add(entry);
+        store.completed(entry);
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(0, store.getBytes());
+        assertTrue(store.snapshot().isEmpty());
+    }
+
+    private HarEntry newEntry(int id, int contentLength) {
+        HarEntry entry = new HarEntry("page", Integer.toString(id));
+        entry.setRequest(new HarRequest("GET", "http://a", "HTTP/1.1"));
+        entry.setResponse(new HarResponse(200, "OK", "HTTP/1.1"));
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < contentLength; i++) {
+            content.append('x');
+        }
+        entry.getResponse().getContent().setText(content.toString());
+        return entry;
+    }
+}
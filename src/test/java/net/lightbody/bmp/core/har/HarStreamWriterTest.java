@@ -0,0 +1,125 @@
+package net.lightbody.bmp.core.har;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HarStreamWriterTest {
+
+    @Test
+    public void testEntriesAreWrittenAsJsonLines() throws IOException {
+        File directory = Files.createTempDirectory("har-stream").toFile();
+        try {
+            HarStreamWriter writer = new HarStreamWriter(directory, "har", 0, 0, false);
+            writer.write(newEntry(0, "quote \" and\nnew line"));
+            writer.write(newEntry(1, "plain"));
+            writer.close();
+
+            File[] files = directory.listFiles();
+            assertEquals(1, files.length);
+            assertTrue(files[0].getName().startsWith("har-"));
+            assertTrue(files[0].getName().endsWith("-0.jsonl"));
+            List<String> lines = FileUtils.readLines(files[0], StandardCharsets.UTF_8);
+            assertEquals(2, lines.size());
+            assertTrue(lines.get(0).startsWith("{\"pageref\":\"page\",\"startedDateTime\":\""));
+            assertTrue(lines.get(0).contains("\"url\":\"http://a/0\""));
+            assertTrue(lines.get(0).contains("\"text\":\"quote \\\" and\\nnew line\""));
+            assertTrue(lines.get(1).contains("\"_messageId\":\"1\""));
+            assertEquals(2, writer.getEntriesWritten());
+            assertEquals(0, writer.getFailures());
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testFilesAreRolledBySize() throws IOException {
+        File directory = Files.createTempDirectory("har-stream").toFile();
+        try {
+            HarStreamWriter writer = new HarStreamWriter(directory, "har", 1, 0, false);
+            for (int i = 0; i < 3; i++) {
+                writer.write(newEntry(i, "content"));
+            }
+            writer.close();
+
+            File[] files = directory.listFiles();
+            Arrays.sort(files);
+            assertEquals(3, files.length);
+            for (File file : files) {
+                assertEquals(1, FileUtils.readLines(file, StandardCharsets.UTF_8).size());
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testFilesCanBeCompressed() throws IOException {
+        File directory = Files.createTempDirectory("har-stream").toFile();
+        try {
+            HarStreamWriter writer = new HarStreamWriter(directory, "har", 0, 0, true);
+            writer.write(newEntry(0, "content"));
+            writer.close();
+
+            File file = directory.listFiles()[0];
+            assertTrue(file.getName().endsWith(".jsonl.gz"));
+            try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+                List<String> lines = IOUtils.readLines(in, StandardCharsets.UTF_8);
+                assertEquals(1, lines.size());
+                assertTrue(lines.get(0).contains("\"status\":200"));
+            }
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testStreamedEntriesAreNotHeld() throws IOException {
+        File directory = Files.createTempDirectory("har-stream").toFile();
+        try {
+            HarStreamWriter writer = new HarStreamWriter(directory, "har", 0, 0, false);
+            HarLog log = new HarLog(new HarNameVersion("test", "1"));
+            log.setStreamWriter(writer);
+            HarEntry completed = newEntry(0, "content");
+            HarEntry inFlight = newEntry(1, "content");
+            log.addEntry(completed);
+            log.addEntry(inFlight);
+            log.entryCompleted(completed);
+            writer.close();
+
+            assertEquals(1, log.getEntries().size());
+            assertEquals(inFlight, log.getEntries().get(0));
+            assertEquals(completed.getStartedDateTime().getTime() + completed.getTime(), log.getLastCompletedEntryEnd());
+            assertEquals(1, writer.getEntriesWritten());
+            assertNotNull(writer.getCurrentFile());
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    private HarEntry newEntry(int id, String content) {
+        HarEntry entry = new HarEntry("page", Integer.toString(id));
+        entry.setStartedDateTime(new Date(1000000L * (id + 1)));
+        entry.setTime(42);
+        entry.setRequest(new HarRequest("GET", "http://a/" + id, "HTTP/1.1"));
+        entry.getRequest().getHeaders().add(new HarNameValuePair("Host", "a"));
+        entry.setResponse(new HarResponse(200, "OK", "HTTP/1.1"));
+        entry.getResponse().getContent().setText(content);
+        return entry;
+    }
+}
@@ -5,10 +5,12 @@ import org.junit.jupiter.api.Test;
 import org.xbill.DNS.Address;
 import org.xbill.DNS.Cache;
 import org.xbill.DNS.DClass;
+import org.xbill.DNS.SimpleResolver;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.time.Duration;
 
 public class BrowserMobHostNameResolverTest {
 
@@ -57,4 +59,35 @@ public class BrowserMobHostNameResolverTest {
         Assertions.assertNotNull(addr);
     }
 
+    @Test
+    public void testMitmProxyNameResolverAsyncGoogle() throws IOException {
+        BrowserMobHostNameResolver browserMobHostNameResolver = new BrowserMobHostNameResolver(new Cache(DClass.ANY));
+        browserMobHostNameResolver.setAsync(true);
+        InetAddress addr = browserMobHostNameResolver.resolve("google.com");
+        Assertions.assertNotNull(addr);
+        Assertions.assertTrue(browserMobHostNameResolver.isCached("google.com"));
+    }
+
+    @Test
+    public void testMitmProxyNameResolverCachesFailure() throws IOException {
+        BrowserMobHostNameResolver browserMobHostNameResolver = new BrowserMobHostNameResolver(new Cache(DClass.ANY));
+        browserMobHostNameResolver.setNegativeCacheTimeout(60000);
+        Assertions.assertThrows(UnknownHostException.class, () -> browserMobHostNameResolver.resolve("nonexistent.invalid"));
+        Assertions.assertTrue(browserMobHostNameResolver.isCached("nonexistent.invalid"));
+        Assertions.assertThrows(UnknownHostException.class, () -> browserMobHostNameResolver.resolve("nonexistent.invalid"));
+    }
+
+    @Test
+    public void testMitmProxyNameResolverDoesNotCacheTransientFailure() throws IOException {
+        BrowserMobHostNameResolver browserMobHostNameResolver = new BrowserMobHostNameResolver(new Cache(DClass.ANY));
+        browserMobHostNameResolver.setNegativeCacheTimeout(60000);
+        // nothing listens there, so the lookups fail with a network error, that is worth a retry
+        SimpleResolver unreachable = new SimpleResolver("127.0.0.1");
+        unreachable.setPort(1);
+        unreachable.setTimeout(Duration.ofMillis(500));
+        browserMobHostNameResolver.setResolver(unreachable);
+        Assertions.assertThrows(UnknownHostException.class, () -> browserMobHostNameResolver.resolve("example.com"));
+        Assertions.assertFalse(browserMobHostNameResolver.isCached("example.com"));
+    }
+
 }
@@ -0,0 +1,68 @@
+package net.lightbody.bmp.proxy.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HostRemapTableTest {
+
+    @Test
+    public void testHostsFileIsParsed() throws IOException {
+        HostRemapTable table = HostRemapTable.parse(new StringReader(
+                "# stubs\n"
+                        + "127.0.0.1   api.example.com  www.example.com # trailing comment\n"
+                        + "\n"
+                        + "10.0.0.2\t*.internal.example\n"));
+
+        assertEquals(3, table.size());
+        assertEquals("127.0.0.1", table.lookup("api.example.com"));
+        assertEquals("127.0.0.1", table.lookup("WWW.Example.com."));
+        assertEquals("10.0.0.2", table.lookup("db.internal.example"));
+        assertNull(table.lookup("example.com"));
+        assertEquals(Arrays.asList("api.example.com", "www.example.com"), table.sources("127.0.0.1"));
+    }
+
+    @Test
+    public void testWildcardMatchesSubdomainsOnly() throws IOException {
+        HostRemapTable table = HostRemapTable.parse(new StringReader("10.0.0.2 *.internal.example\n"));
+
+        assertEquals("10.0.0.2", table.lookup("a.b.internal.example"));
+        assertNull(table.lookup("internal.example"));
+        assertNull(table.lookup("notinternal.example"));
+        assertNull(table.lookup("example"));
+    }
+
+    @Test
+    public void testMostSpecificRuleWins() {
+        HostRemapTable table = HostRemapTable.EMPTY
+                .with("*.example", "10.0.0.1")
+                .with("*.internal.example", "10.0.0.2")
+                .with("db.internal.example", "10.0.0.3");
+
+        assertEquals("10.0.0.1", table.lookup("www.example"));
+        assertEquals("10.0.0.2", table.lookup("web.internal.example"));
+        assertEquals("10.0.0.3", table.lookup("db.internal.example"));
+        assertEquals("10.0.0.2", table.lookup("x.db.internal.example"));
+    }
+
+    @Test
+    public void testTablesAreNotChanged() {
+        HostRemapTable table = HostRemapTable.EMPTY.with("a.example", "10.0.0.1");
+        HostRemapTable other = table.with(HostRemapTable.EMPTY.with("a.example", "10.0.0.2"));
+
+        assertEquals("10.0.0.1", table.lookup("a.example"));
+        assertEquals("10.0.0.2", other.lookup("a.example"));
+        assertNull(HostRemapTable.EMPTY.lookup("a.example"));
+    }
+
+    @Test
+    public void testLineWithoutHostIsRejected() {
+        assertThrows(IOException.class, () -> HostRemapTable.parse(new StringReader("127.0.0.1\n")));
+    }
+}
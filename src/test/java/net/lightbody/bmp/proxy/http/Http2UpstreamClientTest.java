@@ -0,0 +1,184 @@
+package net.lightbody.bmp.proxy.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import website.magyar.mitm.proxy.help.SelfSignedSslEngineSource;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class Http2UpstreamClientTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final CountDownLatch stallReleased = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(body)) {
+                gzip.write("compressed".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().add("X-Test", "yes");
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream os = exchange.getResponseBody()) {
+                body.writeTo(os);
+            }
+        });
+        server.createContext("/echo", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", exchange.getRequestHeaders().getFirst("Content-Type"));
+            exchange.sendResponseHeaders(201, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/stall", exchange -> {
+            exchange.sendResponseHeaders(200, 100);
+            OutputStream os = exchange.getResponseBody();
+            os.write("partial".getBytes(StandardCharsets.UTF_8));
+            os.flush();
+            try {
+                stallReleased.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        stallReleased.countDown();
+        server.stop(0);
+    }
+
+    @Test
+    public void testCompressedResponseIsDecoded() throws IOException {
+        Http2UpstreamClient client = new Http2UpstreamClient(5000);
+
+        HttpResponse response = client.execute(new HttpGet(URI.create(baseUrl + "/gzip")), 5000);
+
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        assertEquals("OK", response.getStatusLine().getReasonPhrase());
+        assertEquals("yes", response.getFirstHeader("X-Test").getValue());
+        assertNull(response.getFirstHeader("Content-Encoding"));
+        assertEquals("compressed", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testRequestBodyIsSent() throws IOException {
+        Http2UpstreamClient client = new Http2UpstreamClient(5000);
+        HttpPost post = new HttpPost(URI.create(baseUrl + "/echo"));
+        post.setHeader("Connection", "keep-alive");
+        post.setEntity(new StringEntity("payload", "UTF-8"));
+
+        HttpResponse response = client.execute(post, 5000);
+
+        assertEquals(201, response.getStatusLine().getStatusCode());
+        assertEquals("text/plain; charset=UTF-8", response.getFirstHeader("Content-Type").getValue());
+        assertEquals("payload", EntityUtils.toString(response.getEntity()));
+    }
+
+    @Test
+    public void testAbortClosesStalledBody() throws Exception {
+        Http2UpstreamClient client = new Http2UpstreamClient(5000);
+        HttpGet get = new HttpGet(URI.create(baseUrl + "/stall"));
+
+        HttpResponse response = client.execute(get, 5000);
+        InputStream body = response.getEntity().getContent();
+        assertEquals("partial", new String(body.readNBytes(7), StandardCharsets.UTF_8));
+
+        Thread aborter = new Thread(() -> {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            get.abort();
+        });
+        aborter.start();
+        assertThrows(IOException.class, () -> body.read());
+        aborter.join();
+    }
+
+    @Test
+    public void testHttp2OverTls() throws Exception {
+        SslContextFactory.Server sslContextFactory = new SslContextFactory.Server();
+        sslContextFactory.setSslContext(new SelfSignedSslEngineSource().getSslContext());
+        sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+        HttpConfiguration configuration = new HttpConfiguration();
+        SecureRequestCustomizer customizer = new SecureRequestCustomizer();
+        customizer.setSniHostCheck(false);
+        configuration.addCustomizer(customizer);
+        HttpConnectionFactory http1 = new HttpConnectionFactory(configuration);
+        HTTP2ServerConnectionFactory http2 = new HTTP2ServerConnectionFactory(configuration);
+        ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory();
+        alpn.setDefaultProtocol(http1.getProtocol());
+        SslConnectionFactory ssl = new SslConnectionFactory(sslContextFactory, alpn.getProtocol());
+
+        Server tlsServer = new Server();
+        ServerConnector connector = new ServerConnector(tlsServer, ssl, alpn, http2, http1);
+        connector.setHost("127.0.0.1");
+        tlsServer.addConnector(connector);
+        tlsServer.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+                    throws IOException {
+                response.setContentType("text/plain");
+                response.getWriter().print(request.getProtocol());
+                baseRequest.setHandled(true);
+            }
+        });
+        tlsServer.start();
+        try {
+            Http2UpstreamClient client = new Http2UpstreamClient(5000);
+
+            // the self-signed certificate is accepted and h2 is negotiated by ALPN
+            HttpResponse response = client.execute(
+                    new HttpGet(URI.create("https://127.0.0.1:" + connector.getLocalPort() + "/")), 5000);
+
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            assertEquals("HTTP/2.0", EntityUtils.toString(response.getEntity()));
+        } finally {
+            tlsServer.stop();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.lightbody.bmp.proxy.http;
+
+import net.lightbody.bmp.proxy.http.LatencyHistograms.HistogramSnapshot;
+import net.lightbody.bmp.proxy.http.LatencyHistograms.Phase;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramsTest {
+
+    @Test
+    public void testBucketsKeepTheValuesWithinThreePercent() {
+        for (long value = 0; value < 1L << 31; value = value * 3 / 2 + 1) {
+            int index = LatencyHistograms.Histogram.indexOf(value);
+            assertTrue(index >= 0 && index < LatencyHistograms.Histogram.BUCKETS);
+            long bucketValue = LatencyHistograms.Histogram.valueOf(index);
+            assertTrue(Math.abs(bucketValue - value) <= value * 0.03 + 0.5, value + " -> " + bucketValue);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistograms.Histogram histogram = new LatencyHistograms.Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot(false);
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500, snapshot.getValueAtPercentile(50), 500 * 0.03);
+        assertEquals(990, snapshot.getValueAtPercentile(99), 990 * 0.03);
+        assertEquals(1000, snapshot.getMax(), 0.001);
+        assertEquals(500.5, snapshot.getMean(), 0.001);
+    }
+
+    @Test
+    public void testPhasesAreRecordedPerHostAndGlobally() {
+        LatencyHistograms histograms = new LatencyHistograms(10);
+
+        histograms.record("a.example.com", request(5, 20));
+        histograms.record("a.example.com", request(7, 40));
+        histograms.record("b.example.com", request(9, 60));
+
+        LatencyHistograms.Snapshot snapshot = histograms.snapshot();
+        assertEquals(3, snapshot.getGlobal(Phase.WAIT).getCount());
+        assertEquals(2, snapshot.getHost("a.example.com", Phase.WAIT).getCount());
+        assertEquals(40, snapshot.getHost("a.example.com", Phase.WAIT).getMax(), 0.001);
+        assertEquals(9, snapshot.getHost("b.example.com", Phase.CONNECT).getMax(), 0.001);
+        assertEquals(0, snapshot.getGlobal(Phase.DNS).getCount());
+        assertTrue(snapshot.getGlobal(Phase.TOTAL).getMax() >= 69);
+    }
+
+    @Test
+    public void testHostsOverTheCapAreCountedTogether() {
+        LatencyHistograms histograms = new LatencyHistograms(2);
+
+        histograms.record("a", request(1, 1));
+        histograms.record("b", request(1, 1));
+        histograms.record("c", request(1, 1));
+        histograms.record("d", request(1, 1));
+
+        LatencyHistograms.Snapshot snapshot = histograms.snapshot();
+        assertEquals(2, snapshot.getHost(LatencyHistograms.OTHER_HOSTS, Phase.TOTAL).getCount());
+        assertNull(snapshot.getHost("c", Phase.TOTAL));
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistograms histograms = new LatencyHistograms(10);
+        histograms.record("a", request(1, 1));
+
+        LatencyHistograms.Snapshot before = histograms.snapshotAndReset();
+        histograms.record("b", request(1, 1));
+        LatencyHistograms.Snapshot after = histograms.snapshot();
+
+        assertEquals(1, before.getHost("a", Phase.TOTAL).getCount());
+        assertEquals(1, after.getGlobal(Phase.TOTAL).getCount());
+        assertNull(after.getHost("a", Phase.TOTAL));
+        assertEquals(1, after.getHost("b", Phase.TOTAL).getCount());
+    }
+
+    @Test
+    public void testResetKeepsTheActiveHostsAndEvictsTheIdleOnes() {
+        LatencyHistograms histograms = new LatencyHistograms(1);
+        histograms.record("a", request(1, 1));
+
+        histograms.snapshotAndReset();
+        histograms.record("a", request(1, 1));
+        assertEquals(1, histograms.snapshot().getHost("a", Phase.TOTAL).getCount());
+
+        // "a" had requests, so it is reset in place, then it is idle for a whole period, so it is evicted
+        histograms.snapshotAndReset();
+        histograms.snapshotAndReset();
+        histograms.record("b", request(1, 1));
+
+        LatencyHistograms.Snapshot snapshot = histograms.snapshot();
+        assertEquals(1, snapshot.getHost("b", Phase.TOTAL).getCount());
+        assertNull(snapshot.getHost(LatencyHistograms.OTHER_HOSTS, Phase.TOTAL));
+    }
+
+    private static RequestInfo request(final long connectMs, final long waitMs) {
+        RequestInfo.clear("http://example.com/", null);
+        RequestInfo info = RequestInfo.get();
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(connectMs + waitMs);
+        long connected = start + TimeUnit.MILLISECONDS.toNanos(connectMs);
+        info.connect(start, connected);
+        info.wait(connected, connected + TimeUnit.MILLISECONDS.toNanos(waitMs));
+        info.finish();
+        return info;
+    }
+}
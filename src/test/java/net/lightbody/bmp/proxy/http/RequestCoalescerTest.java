@@ -0,0 +1,128 @@
+package net.lightbody.bmp.proxy.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestCoalescerTest {
+
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareTheUpstreamCall() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<String> leader = executor.submit(() -> fetch(coalescer, new HttpGet("http://example.com/a"), "body"));
+            waitForUpstreamCalls(1);
+            Future<String> follower1 = executor.submit(() -> fetch(coalescer, new HttpGet("http://example.com/a"), "other"));
+            Future<String> follower2 = executor.submit(() -> fetch(coalescer, new HttpGet("http://example.com/a"), "other"));
+            Thread.sleep(200);
+            release.countDown();
+
+            assertEquals("body", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("body", follower1.get(5, TimeUnit.SECONDS));
+            assertEquals("body", follower2.get(5, TimeUnit.SECONDS));
+            assertEquals(1, upstreamCalls.get());
+            assertEquals(2, coalescer.getCoalescedRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDifferentKeyHeadersAreNotShared() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            HttpGet english = new HttpGet("http://example.com/a");
+            english.addHeader("Accept-Language", "en");
+            HttpGet hungarian = new HttpGet("http://example.com/a");
+            hungarian.addHeader("Accept-Language", "hu");
+            Future<String> first = executor.submit(() -> fetch(coalescer, english, "en"));
+            waitForUpstreamCalls(1);
+            Future<String> second = executor.submit(() -> fetch(coalescer, hungarian, "hu"));
+            waitForUpstreamCalls(2);
+            release.countDown();
+
+            assertEquals("en", first.get(5, TimeUnit.SECONDS));
+            assertEquals("hu", second.get(5, TimeUnit.SECONDS));
+            assertEquals(0, coalescer.getCoalescedRequests());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLargeResponseIsNotShared() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> fetch(coalescer, new HttpGet("http://example.com/a"), "large"));
+            waitForUpstreamCalls(1);
+            Future<String> follower = executor.submit(() -> fetch(coalescer, new HttpGet("http://example.com/a"), "own"));
+            Thread.sleep(200);
+            release.countDown();
+
+            assertEquals("large", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("own", follower.get(5, TimeUnit.SECONDS));
+            assertEquals(2, upstreamCalls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConditionalRequestsAreNotCoalescable() {
+        RequestCoalescer coalescer = new RequestCoalescer(1024);
+        assertTrue(coalescer.isCoalescable(new HttpGet("http://example.com/a")));
+        assertTrue(coalescer.isCoalescable(new HttpHead("http://example.com/a")));
+        assertFalse(coalescer.isCoalescable(new HttpPost("http://example.com/a")));
+        for (String name : new String[]{"If-None-Match", "If-Modified-Since", "If-Match", "If-Unmodified-Since", "If-Range"}) {
+            HttpGet conditional = new HttpGet("http://example.com/a");
+            conditional.addHeader(name, "\"v1\"");
+            assertFalse(coalescer.isCoalescable(conditional), name);
+        }
+    }
+
+    private String fetch(final RequestCoalescer coalescer, final HttpGet method, final String body) throws IOException {
+        HttpResponse response = coalescer.execute(method, () -> {
+            upstreamCalls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            BasicHttpResponse upstream = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            upstream.setEntity(new ByteArrayEntity(body.getBytes()));
+            return upstream;
+        });
+        return EntityUtils.toString(response.getEntity());
+    }
+
+    private void waitForUpstreamCalls(final int calls) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (upstreamCalls.get() < calls && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.lightbody.bmp.proxy.http;
+
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarTimings;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestInfoTest {
+
+    @Test
+    public void testPhasesAreReportedInMilliseconds() {
+        RequestInfo.clear("http://example.com/", new HarEntry(null, "1"));
+        RequestInfo info = RequestInfo.get();
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(100);
+
+        info.dns(start, start + TimeUnit.MILLISECONDS.toNanos(10), "127.0.0.1");
+        info.send(start + TimeUnit.MILLISECONDS.toNanos(10), start + TimeUnit.MILLISECONDS.toNanos(15));
+        info.wait(start + TimeUnit.MILLISECONDS.toNanos(15), start + TimeUnit.MILLISECONDS.toNanos(45));
+        info.finish();
+
+        HarTimings timings = info.getTimings();
+        assertEquals(Long.valueOf(10), timings.getDns());
+        assertEquals(5, timings.getSend());
+        assertEquals(30, timings.getWait());
+        assertTrue(info.getTotalTime() >= 100);
+        assertTrue(timings.getReceive() >= 55);
+        assertTrue(Math.abs(System.currentTimeMillis() - 100 - info.getStart().getTime()) < 50);
+        assertEquals("127.0.0.1", info.getResolvedAddress());
+    }
+
+    @Test
+    public void testSkippedRequestIsNotRecorded() {
+        RequestInfo.clear("http://example.com/", new HarEntry(null, "1"));
+        RequestInfo.get().wait(System.nanoTime(), System.nanoTime());
+
+        RequestInfo.skip();
+        RequestInfo info = RequestInfo.get();
+        long now = System.nanoTime();
+        info.dns(now, now, "127.0.0.1");
+        info.wait(now, now);
+
+        assertFalse(info.isRecording());
+        assertNull(info.getWait());
+        assertNull(info.getDns());
+        assertNull(info.getEntry());
+    }
+}
@@ -0,0 +1,171 @@
+package net.lightbody.bmp.proxy.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ResponseCacheTest {
+
+    private final List<HttpRequestBase> upstreamRequests = new ArrayList<HttpRequestBase>();
+
+    @Test
+    public void testFreshResponseIsServedFromTheCache() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+
+        assertEquals("one", fetch(cache, new HttpGet("http://example.com/a"), response(200, "one", "Cache-Control", "max-age=60")));
+        HttpResponse cached = cache.execute(new HttpGet("http://example.com/a"), () -> response(200, "two"));
+
+        assertEquals("one", EntityUtils.toString(cached.getEntity()));
+        assertNotNull(cached.getFirstHeader("Age"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, upstreamRequests.size());
+    }
+
+    @Test
+    public void testStaleResponseIsRevalidated() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+
+        fetch(cache, new HttpGet("http://example.com/a"), response(200, "one", "Cache-Control", "max-age=0", "ETag", "\"v1\""));
+        String body = fetch(cache, new HttpGet("http://example.com/a"), response(304, null, "Cache-Control", "max-age=60"));
+
+        assertEquals("one", body);
+        assertEquals("\"v1\"", upstreamRequests.get(1).getFirstHeader("If-None-Match").getValue());
+        assertEquals(1, cache.getRevalidations());
+        // refreshed by the 304, fresh now
+        assertEquals("one", fetch(cache, new HttpGet("http://example.com/a"), response(200, "two")));
+        assertEquals(2, upstreamRequests.size());
+    }
+
+    @Test
+    public void testConditionalClientRequestIsAnsweredFromTheCache() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+        fetch(cache, new HttpGet("http://example.com/a"), response(200, "one", "Cache-Control", "max-age=60", "ETag", "W/\"v1\""));
+
+        HttpGet conditional = new HttpGet("http://example.com/a");
+        conditional.addHeader("If-None-Match", "\"v0\", \"v1\"");
+        HttpResponse response = cache.execute(conditional, () -> response(200, "two"));
+
+        assertEquals(304, response.getStatusLine().getStatusCode());
+        assertNull(response.getEntity());
+    }
+
+    @Test
+    public void testNoStoreAndPrivateResponsesAreNotStored() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+
+        fetch(cache, new HttpGet("http://example.com/a"), response(200, "one", "Cache-Control", "no-store"));
+        fetch(cache, new HttpGet("http://example.com/b"), response(200, "one", "Cache-Control", "private, max-age=60"));
+
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testUnsafeRequestInvalidates() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+        fetch(cache, new HttpGet("http://example.com/a"), response(200, "one", "Cache-Control", "max-age=60"));
+
+        fetch(cache, new HttpPost("http://example.com/a"), response(204, null));
+
+        assertEquals(0, cache.getEntryCount());
+        assertEquals("two", fetch(cache, new HttpGet("http://example.com/a"), response(200, "two")));
+    }
+
+    @Test
+    public void testVaryKeepsVariants() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+        HttpGet english = new HttpGet("http://example.com/a");
+        english.addHeader("Accept-Language", "en");
+        HttpGet hungarian = new HttpGet("http://example.com/a");
+        hungarian.addHeader("Accept-Language", "hu");
+
+        fetch(cache, english, response(200, "hello", "Cache-Control", "max-age=60", "Vary", "Accept-Language"));
+        assertEquals("szia", fetch(cache, hungarian, response(200, "szia", "Cache-Control", "max-age=60", "Vary", "Accept-Language")));
+
+        HttpGet again = new HttpGet("http://example.com/a");
+        again.addHeader("Accept-Language", "en");
+        assertEquals("hello", fetch(cache, again, response(200, "other")));
+        assertEquals(2, upstreamRequests.size());
+    }
+
+    @Test
+    public void testHostRules() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+        cache.setHostRules("-*.internal.example, db.internal.example");
+
+        assertTrue(cache.isEnabled("example.com"));
+        assertTrue(cache.isEnabled("db.internal.example"));
+        fetch(cache, new HttpGet("http://web.internal.example/a"), response(200, "one", "Cache-Control", "max-age=60"));
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testHeuristicFreshness() throws IOException {
+        ResponseCache cache = new ResponseCache(1024);
+        long now = System.currentTimeMillis();
+
+        fetch(cache, new HttpGet("http://example.com/a"), response(200, "one",
+                "Date", DateUtils.formatDate(new Date(now)),
+                "Last-Modified", DateUtils.formatDate(new Date(now - 10L * 24 * 3600 * 1000))));
+
+        assertEquals("one", fetch(cache, new HttpGet("http://example.com/a"), response(200, "two")));
+    }
+
+    @Test
+    public void testEvictedBodiesMoveToDisk() throws IOException {
+        File directory = Files.createTempDirectory("response-cache").toFile();
+        ResponseCache cache = new ResponseCache(10, directory, 1024);
+
+        fetch(cache, new HttpGet("http://example.com/a"), response(200, "aaaaaaaa", "Cache-Control", "max-age=60"));
+        fetch(cache, new HttpGet("http://example.com/b"), response(200, "bbbbbbbb", "Cache-Control", "max-age=60"));
+
+        assertEquals(8, cache.getMemoryBytes());
+        assertEquals(8, cache.getDiskBytes());
+        assertEquals("aaaaaaaa", fetch(cache, new HttpGet("http://example.com/a"), response(200, "other")));
+        assertEquals(1, directory.listFiles().length);
+
+        cache.clear();
+        assertEquals(0, directory.listFiles().length);
+        directory.delete();
+    }
+
+    private String fetch(final ResponseCache cache, final HttpRequestBase method, final HttpResponse upstream) throws IOException {
+        HttpResponse response = cache.execute(method, () -> {
+            HttpRequestBase copy = new HttpGet(method.getURI());
+            copy.setHeaders(method.getAllHeaders());
+            upstreamRequests.add(copy);
+            return upstream;
+        });
+        return response.getEntity() == null ? null : EntityUtils.toString(response.getEntity());
+    }
+
+    private static HttpResponse response(final int status, final String body, final String... headers) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+        for (int i = 0; i < headers.length; i += 2) {
+            response.addHeader(headers[i], headers[i + 1]);
+        }
+        if (body != null) {
+            response.setEntity(new ByteArrayEntity(body.getBytes()));
+        }
+        return response;
+    }
+}
@@ -1,13 +1,23 @@
 package net.lightbody.bmp.proxy.http;
 
+import org.apache.http.HttpHost;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.KeyStore;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 /**
@@ -16,9 +26,42 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 public class TrustingSSLSocketFactoryTest {
     private TrustingSSLSocketFactory underTest;
 
+    private SSLServerSocket serverSocket;
+    private Thread server;
+
     @BeforeEach
-    public void setUp() throws UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException, KeyManagementException {
+    public void setUp() throws Exception {
         underTest = new TrustingSSLSocketFactory(60000);
+
+        KeyStore keyStore = KeyStore.getInstance("jks");
+        try (InputStream is = getClass().getResourceAsStream("/sslSupport/cybervillainsCA.jks")) {
+            keyStore.load(is, "password".toCharArray());
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, "password".toCharArray());
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        serverSocket = (SSLServerSocket) sslContext.getServerSocketFactory().createServerSocket(0);
+        server = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                    OutputStream os = socket.getOutputStream();
+                    os.write('x');
+                    os.flush();
+                    socket.getInputStream().read();
+                } catch (Exception e) {
+                    // the test is over, or the client went away
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        server.join(5000);
     }
 
     @Test
@@ -26,4 +69,38 @@ public class TrustingSSLSocketFactoryTest {
         assertNotNull(underTest);
     }
 
+    @Test
+    public void testSessionIsResumed() throws Exception {
+        TrustingSSLSocketFactory factory = new TrustingSSLSocketFactory(5000);
+
+        connect(factory);
+        connect(factory);
+
+        assertEquals(1, factory.getFullHandshakes());
+        assertEquals(1, factory.getResumedHandshakes());
+    }
+
+    @Test
+    public void testExpiredSessionIsNotResumed() throws Exception {
+        TrustingSSLSocketFactory factory = new TrustingSSLSocketFactory(5000);
+        factory.setSessionTimeout(1);
+
+        connect(factory);
+        Thread.sleep(2000);
+        connect(factory);
+
+        assertEquals(2, factory.getFullHandshakes());
+        assertEquals(0, factory.getResumedHandshakes());
+    }
+
+    private void connect(final TrustingSSLSocketFactory factory) throws Exception {
+        HttpContext context = new BasicHttpContext();
+        HttpHost host = new HttpHost("localhost", serverSocket.getLocalPort(), "https");
+        try (Socket socket = factory.connectSocket(5000, factory.createSocket(context), host,
+                new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()), null, context)) {
+            // reading lets the client process the TLS 1.3 session ticket sent after the handshake
+            socket.getInputStream().read();
+            socket.getOutputStream().write('y');
+        }
+    }
 }
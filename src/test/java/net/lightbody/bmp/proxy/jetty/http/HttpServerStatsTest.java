@@ -0,0 +1,117 @@
+package net.lightbody.bmp.proxy.jetty.http;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HttpServerStatsTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 1000;
+
+    private HttpServer underTest;
+
+    @BeforeEach
+    public void setUp() {
+        underTest = new HttpServer(true);
+        underTest.setStatsOn(true);
+        underTest.statsReset();
+    }
+
+    @Test
+    public void testConcurrentConnectionsAndRequests() throws Exception {
+        runConcurrently(barrier -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                underTest.statsOpenConnection();
+                underTest.statsGotRequest();
+                underTest.statsEndRequest(i, i % 10 != 0);
+                underTest.statsCloseConnection(i, 1);
+            }
+        });
+
+        assertEquals(0, underTest.getConnectionsOpen());
+        assertEquals(0, underTest.getRequestsActive());
+        assertEquals(THREADS * ROUNDS, underTest.getConnections());
+        assertEquals(THREADS * ROUNDS, underTest.getRequests());
+        assertEquals(THREADS * ROUNDS / 10, underTest.getErrors());
+        assertEquals(ROUNDS - 1, underTest.getConnectionsDurationMax());
+        assertEquals(ROUNDS - 1, underTest.getRequestsDurationMax());
+        assertEquals(1, underTest.getConnectionsRequestsMax());
+    }
+
+    @Test
+    public void testMaximumOfConcurrentConnectionsAndRequests() throws Exception {
+        runConcurrently(barrier -> {
+            underTest.statsOpenConnection();
+            underTest.statsGotRequest();
+            // all of them are open here
+            barrier.await(5, TimeUnit.SECONDS);
+            underTest.statsEndRequest(1, true);
+            underTest.statsCloseConnection(1, 1);
+        });
+
+        assertEquals(THREADS, underTest.getConnectionsOpenMax());
+        assertEquals(THREADS, underTest.getRequestsActiveMax());
+        assertEquals(0, underTest.getConnectionsOpen());
+        assertEquals(0, underTest.getRequestsActive());
+    }
+
+    @Test
+    public void testResetWithConnectionsInFlight() throws Exception {
+        for (int i = 0; i < THREADS; i++) {
+            underTest.statsOpenConnection();
+            underTest.statsGotRequest();
+        }
+
+        underTest.statsReset();
+
+        // the ones in progress are not counted, but the maximum starts from them
+        assertEquals(0, underTest.getConnectionsOpen());
+        assertEquals(0, underTest.getRequestsActive());
+        assertEquals(THREADS, underTest.getConnectionsOpenMax());
+        assertEquals(THREADS, underTest.getRequestsActiveMax());
+
+        runConcurrently(barrier -> {
+            underTest.statsEndRequest(1, true);
+            underTest.statsCloseConnection(1, 1);
+        });
+
+        assertEquals(0, underTest.getConnectionsOpen());
+        assertEquals(0, underTest.getRequestsActive());
+        assertEquals(0, underTest.getConnectionsOpenMin());
+        assertEquals(0, underTest.getRequestsActiveMin());
+        assertEquals(THREADS, underTest.getConnections());
+        assertEquals(THREADS, underTest.getRequests());
+    }
+
+    private void runConcurrently(final Task task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CyclicBarrier barrier = new CyclicBarrier(THREADS);
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    task.run(barrier);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private interface Task {
+        void run(CyclicBarrier barrier) throws Exception;
+    }
+}
@@ -0,0 +1,32 @@
+package net.lightbody.bmp.proxy.jetty.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TunnelSelectorTest {
+
+    @Test
+    public void testBufferPoolIsCapped() {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < TunnelSelector.MAX_POOLED_BUFFERS + 10; i++) {
+            buffers.add(TunnelSelector.acquireBuffer());
+        }
+        for (ByteBuffer buffer : buffers) {
+            assertTrue(buffer.isDirect());
+            TunnelSelector.releaseBuffer(buffer);
+        }
+        assertEquals(TunnelSelector.MAX_POOLED_BUFFERS, TunnelSelector.getPooledBuffers());
+
+        ByteBuffer buffer = TunnelSelector.acquireBuffer();
+        assertEquals(TunnelSelector.MAX_POOLED_BUFFERS - 1, TunnelSelector.getPooledBuffers());
+        assertEquals(buffer.capacity(), buffer.remaining());
+        TunnelSelector.releaseBuffer(buffer);
+    }
+
+}
@@ -0,0 +1,70 @@
+package net.lightbody.bmp.proxy.selenium;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyPairPoolTest {
+
+    @Test
+    public void testRsaKeyPair() {
+        KeyPair keyPair = new KeyPairPool(KeyPairPool.RSA, 1).take();
+        assertTrue(keyPair.getPublic() instanceof RSAPublicKey);
+        assertEquals(2048, ((RSAPublicKey) keyPair.getPublic()).getModulus().bitLength());
+    }
+
+    @Test
+    public void testEcKeyPair() {
+        KeyPair keyPair = new KeyPairPool(KeyPairPool.EC, 1).take();
+        assertTrue(keyPair.getPublic() instanceof ECPublicKey);
+        assertEquals(256, ((ECPublicKey) keyPair.getPublic()).getParams().getCurve().getField().getFieldSize());
+    }
+
+    @Test
+    public void testPoolIsRefilledInBackground() throws Exception {
+        KeyPairPool underTest = new KeyPairPool(KeyPairPool.EC, 4);
+        waitUntilFull(underTest, 4);
+        KeyPair first = underTest.take();
+        KeyPair second = underTest.take();
+        assertNotEquals(first.getPublic(), second.getPublic());
+        assertEquals(2, underTest.getHits());
+        assertEquals(0, underTest.getMisses());
+        waitUntilFull(underTest, 4);
+    }
+
+    @Test
+    public void testDrainedPoolGeneratesOnCallingThread() {
+        KeyPairPool underTest = new KeyPairPool(KeyPairPool.EC, 1);
+        for (int i = 0; i < 10; i++) {
+            underTest.take();
+        }
+        assertEquals(10, underTest.getHits() + underTest.getMisses());
+    }
+
+    @Test
+    public void testPoolCanBeResized() throws Exception {
+        KeyPairPool underTest = new KeyPairPool(KeyPairPool.EC, 1);
+        waitUntilFull(underTest, 1);
+        underTest.setSize(3);
+        waitUntilFull(underTest, 3);
+        underTest.setSize(1);
+        underTest.take();
+        // still above the new size, so it is not refilled
+        Thread.sleep(200);
+        assertEquals(2, underTest.available());
+    }
+
+    private void waitUntilFull(KeyPairPool pool, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.available() < size; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(size, pool.available());
+    }
+
+}
@@ -0,0 +1,122 @@
+package net.lightbody.bmp.proxy.selenium;
+
+import net.lightbody.bmp.proxy.util.TrustEverythingSSLTrustManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MitmCertificateFactoryTest {
+
+    private MitmCertificateFactory underTest;
+
+    @BeforeEach
+    public void setUp() {
+        underTest = MitmCertificateFactory.getInstance();
+        underTest.clear();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        underTest.setMaxEntries(MitmCertificateFactory.DEFAULT_MAX_ENTRIES);
+        underTest.setTimeToLiveMs(MitmCertificateFactory.DEFAULT_TIME_TO_LIVE_MS);
+        underTest.clear();
+    }
+
+    @Test
+    public void testForgedCertificateIsSignedByCa() throws Exception {
+        KeyStore.PrivateKeyEntry entry = underTest.getEntry("www.example.com");
+        X509Certificate cert = (X509Certificate) entry.getCertificate();
+        cert.verify(underTest.getSigningCert().getPublicKey());
+        assertTrue(cert.getSubjectX500Principal().getName().contains("CN=www.example.com"));
+        assertEquals(2, entry.getCertificateChain().length);
+    }
+
+    @Test
+    public void testForgedCertificateIsCached() {
+        assertSame(underTest.getEntry("www.example.com"), underTest.getEntry("www.example.com"));
+        assertEquals(1, underTest.size());
+    }
+
+    @Test
+    public void testLeafKeyPairIsShared() {
+        KeyStore.PrivateKeyEntry a = underTest.getEntry("a.example.com");
+        KeyStore.PrivateKeyEntry b = underTest.getEntry("b.example.com");
+        assertEquals(a.getPrivateKey(), b.getPrivateKey());
+        assertNotSame(a.getCertificate(), b.getCertificate());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        underTest.setMaxEntries(2);
+        KeyStore.PrivateKeyEntry a = underTest.getEntry("a.example.com");
+        underTest.getEntry("b.example.com");
+        underTest.getEntry("a.example.com");
+        underTest.getEntry("c.example.com");
+        assertEquals(2, underTest.size());
+        assertSame(a, underTest.getEntry("a.example.com"));
+    }
+
+    @Test
+    public void testServerSessionIsResumed() throws Exception {
+        SSLServerSocket serverSocket = (SSLServerSocket) underTest.getServerSslContext().getServerSocketFactory().createServerSocket(0);
+        Thread server = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.getOutputStream().write('x');
+                    socket.getInputStream().read();
+                } catch (Exception e) {
+                    // the test is over, or the client went away
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        try {
+            SSLSession first = handshake(serverSocket.getLocalPort(), "a.example.com");
+            long secondStart = System.currentTimeMillis();
+            SSLSession second = handshake(serverSocket.getLocalPort(), "a.example.com");
+
+            assertTrue(((X509Certificate) first.getPeerCertificates()[0]).getSubjectX500Principal().getName().contains("CN=a.example.com"));
+            assertTrue(first.getCreationTime() < secondStart);
+            assertTrue(second.getCreationTime() < secondStart, "The session was not resumed");
+        } finally {
+            serverSocket.close();
+            server.join(5000);
+        }
+    }
+
+    @Test
+    public void testExpiredCertificateIsForgedAgain() {
+        underTest.setTimeToLiveMs(0);
+        KeyStore.PrivateKeyEntry a = underTest.getEntry("a.example.com");
+        assertNotSame(a, underTest.getEntry("a.example.com"));
+    }
+
+    private SSLSession handshake(int port, String host) throws Exception {
+        try (SSLSocket socket = (SSLSocket) TrustEverythingSSLTrustManager.getTrustingSSLSocketFactory().createSocket("localhost", port)) {
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setServerNames(Collections.<SNIServerName>singletonList(new SNIHostName(host)));
+            socket.setSSLParameters(parameters);
+            // reading lets the client process the TLS 1.3 session ticket sent after the handshake
+            socket.getInputStream().read();
+            socket.getOutputStream().write('y');
+            return socket.getSession();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package net.lightbody.bmp.proxy.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestBodyBufferTest {
+
+    @Test
+    public void testSmallBodyStaysInMemory() throws IOException {
+        byte[] body = randomBody(1000);
+        RequestBodyBuffer buffer = RequestBodyBuffer.read(new ByteArrayInputStream(body), 1000);
+
+        assertFalse(buffer.isSpilled());
+        assertEquals(1000, buffer.size());
+        assertArrayEquals(body, IOUtils.toByteArray(buffer.newInputStream()));
+        assertArrayEquals(body, buffer.toByteArray());
+        buffer.release();
+    }
+
+    @Test
+    public void testLargeBodySpillsToFile() throws IOException {
+        byte[] body = randomBody(100000);
+        RequestBodyBuffer buffer = RequestBodyBuffer.read(new ByteArrayInputStream(body), 1000);
+
+        assertTrue(buffer.isSpilled());
+        assertEquals(100000, buffer.size());
+        assertArrayEquals(body, IOUtils.toByteArray(buffer.newInputStream()));
+        assertArrayEquals(body, buffer.toByteArray());
+        buffer.release();
+    }
+
+    @Test
+    public void testEmptyBody() throws IOException {
+        RequestBodyBuffer buffer = RequestBodyBuffer.read(new ByteArrayInputStream(new byte[0]), 0);
+
+        assertFalse(buffer.isSpilled());
+        assertEquals(0, buffer.size());
+        assertEquals(-1, buffer.newInputStream().read());
+        buffer.release();
+    }
+
+    @Test
+    public void testViewsAreIndependentAndSupportMark() throws IOException {
+        byte[] body = randomBody(5000);
+        RequestBodyBuffer buffer = RequestBodyBuffer.read(new ByteArrayInputStream(body), 100);
+        InputStream first = buffer.newInputStream();
+        InputStream second = buffer.newInputStream();
+
+        assertTrue(first.markSupported());
+        first.mark(8192);
+        assertArrayEquals(body, IOUtils.toByteArray(first));
+        first.reset();
+        assertEquals(body[0] & 0xff, first.read());
+        assertArrayEquals(body, IOUtils.toByteArray(second));
+        buffer.release();
+    }
+
+    @Test
+    public void testReleasedBufferCannotBeRead() throws IOException {
+        RequestBodyBuffer buffer = RequestBodyBuffer.read(new ByteArrayInputStream(randomBody(5000)), 100);
+        InputStream in = buffer.newInputStream();
+        buffer.retain();
+
+        buffer.release();
+        assertEquals(5000, IOUtils.toByteArray(in).length);
+        buffer.release();
+        assertThrows(IOException.class, () -> buffer.newInputStream().read());
+        assertThrows(IllegalStateException.class, buffer::retain);
+    }
+
+    private byte[] randomBody(int size) {
+        byte[] body = new byte[size];
+        new Random(size).nextBytes(body);
+        return body;
+    }
+}
@@ -8,9 +8,16 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.internal.util.reflection.Whitebox;
 
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.verify;
@@ -37,70 +44,106 @@ public class TimeStampBasedIdGeneratorTest {
     public void testNextIdentifierShouldReturnAProperIdWhenThePreviousTimestampIsNull() {
         // GIVEN
         String expected = "20200624145212.0000";
-
-        Calendar cal = Calendar.getInstance();
-        cal.set(2020, 5, 24, 14, 52, 12);
-        Date currentDate = cal.getTime();
-        given(currentDateProvider.getCurrentDate()).willReturn(currentDate);
-        Whitebox.setInternalState(underTest, "previousSimpleDate", null);
+        given(currentDateProvider.getCurrentTimeMillis()).willReturn(timeOf(12));
         // WHEN
         String actual = underTest.nextIdentifier();
         // THEN
-        verify(currentDateProvider).getCurrentDate();
-        Assertions.assertEquals(actual, expected);
+        verify(currentDateProvider).getCurrentTimeMillis();
+        Assertions.assertEquals(expected, actual);
     }
 
     @Test
     public void testNextIdentifierShouldReturnAProperIdWhenThePreviousTimestampDiffersFromTheCurrent() {
         // GIVEN
         String expected = "20200624145212.0000";
-
-        Calendar cal = Calendar.getInstance();
-        cal.set(2020, 5, 24, 14, 52, 12);
-        Date currentDate = cal.getTime();
-        given(currentDateProvider.getCurrentDate()).willReturn(currentDate);
-        Whitebox.setInternalState(underTest, "previousSimpleDate", "20200624145211");
+        given(currentDateProvider.getCurrentTimeMillis()).willReturn(timeOf(11), timeOf(12));
+        underTest.nextIdentifier();
         // WHEN
         String actual = underTest.nextIdentifier();
         // THEN
-        verify(currentDateProvider).getCurrentDate();
-        Assertions.assertEquals(actual, expected);
+        Assertions.assertEquals(expected, actual);
     }
 
     @Test
     public void testNextIdentifierShouldReturnAProperIdWhenThePreviousTimestampEqualsTheCurrent() {
         // GIVEN
         String expected = "20200624145212.0888";
-
-        Calendar cal = Calendar.getInstance();
-        cal.set(2020, 5, 24, 14, 52, 12);
-        Date currentDate = cal.getTime();
-        given(currentDateProvider.getCurrentDate()).willReturn(currentDate);
-        Whitebox.setInternalState(underTest, "previousSimpleDate", "20200624145212");
-        Whitebox.setInternalState(underTest, "currentNumber", new AtomicInteger(888));
+        given(currentDateProvider.getCurrentTimeMillis()).willReturn(timeOf(12));
+        for (int i = 0; i < 888; i++) {
+            underTest.nextIdentifier();
+        }
         // WHEN
         String actual = underTest.nextIdentifier();
         // THEN
-        verify(currentDateProvider).getCurrentDate();
-        Assertions.assertEquals(actual, expected);
+        Assertions.assertEquals(expected, actual);
     }
 
     @Test
     public void testNextIdentifierShouldReturnAProperIdWhenThePreviousIDIsAtTheoreticalMaximum() {
         // GIVEN
         String expected = "20200624145212.10000";
-
-        Calendar cal = Calendar.getInstance();
-        cal.set(2020, 5, 24, 14, 52, 12);
-        Date currentDate = cal.getTime();
-        given(currentDateProvider.getCurrentDate()).willReturn(currentDate);
-        Whitebox.setInternalState(underTest, "previousSimpleDate", "20200624145212");
-        Whitebox.setInternalState(underTest, "currentNumber", new AtomicInteger(9999));
+        given(currentDateProvider.getCurrentTimeMillis()).willReturn(timeOf(12));
+        for (int i = 0; i < 9999; i++) {
+            underTest.nextIdentifier();
+        }
         // WHEN
         underTest.nextIdentifier();
         String actual = underTest.nextIdentifier();
         // THEN
-        Assertions.assertEquals(actual, expected);
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testNextIdentifierShouldNotGoBackInTimeWhenTheClockDoes() {
+        // GIVEN
+        String expected = "20200624145212.0001";
+        given(currentDateProvider.getCurrentTimeMillis()).willReturn(timeOf(12), timeOf(11));
+        underTest.nextIdentifier();
+        // WHEN
+        String actual = underTest.nextIdentifier();
+        // THEN
+        Assertions.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testNextIdentifierShouldReturnUniqueIdsWhenCalledConcurrently() throws Exception {
+        // GIVEN
+        int threads = 8;
+        int idsPerThread = 20000;
+        TimeStampBasedIdGenerator generator = new TimeStampBasedIdGenerator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit((Callable<Integer>) () -> {
+                    start.await();
+                    int duplicates = 0;
+                    for (int i = 0; i < idsPerThread; i++) {
+                        if (!ids.add(generator.nextIdentifier())) {
+                            duplicates++;
+                        }
+                    }
+                    return duplicates;
+                }));
+            }
+            // WHEN
+            start.countDown();
+            // THEN
+            for (Future<Integer> result : results) {
+                Assertions.assertEquals(0, (int) result.get());
+            }
+            Assertions.assertEquals(threads * idsPerThread, ids.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long timeOf(final int second) {
+        Calendar cal = Calendar.getInstance();
+        cal.set(2020, 5, 24, 14, 52, second);
+        return cal.getTimeInMillis();
     }
 
 }
@@ -0,0 +1,68 @@
+package website.magyar.mitm.proxy;
+
+import org.apache.http.pool.PoolStats;
+import org.junit.jupiter.api.Test;
+import website.magyar.mitm.proxy.help.AbstractSimpleProxyTool;
+import website.magyar.mitm.proxy.help.ContentEncoding;
+import website.magyar.mitm.proxy.help.DefaultRequestInterceptor;
+import website.magyar.mitm.proxy.help.DefaultResponseInterceptor;
+import website.magyar.mitm.proxy.help.ResponseInfo;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Tests the limits and the statistics of the upstream connection pool.
+ */
+public class ConnectionPoolTest extends AbstractSimpleProxyTool {
+
+    private Integer originalMaxConnections;
+
+    @Override
+    protected void beforeProxyStart() {
+        originalMaxConnections = ProxyServer.getMaxConnections();
+        ProxyServer.setMaxConnections(7);
+    }
+
+    @Override
+    protected void setUp() {
+        DefaultRequestInterceptor defaultRequestInterceptor = new DefaultRequestInterceptor(requestCount);
+        DefaultResponseInterceptor defaultResponseInterceptor = new DefaultResponseInterceptor(responseCount);
+        proxyServer.addRequestInterceptor(defaultRequestInterceptor);
+        proxyServer.addResponseInterceptor(defaultResponseInterceptor);
+        proxyServer.setMaxConnectionsPerRoute(webHost.toURI(), 1); //!!
+    }
+
+    @Override
+    protected void tearDown() {
+        ProxyServer.setMaxConnections(originalMaxConnections);
+    }
+
+    @Test
+    public void testPoolLimitIsApplied() {
+        assertEquals(7, proxyServer.getConnectionPoolStats().getMax());
+    }
+
+    @Test
+    public void testSubsequentGetRequestsShareTheLimitedRoute() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ResponseInfo proxiedResponse = httpGetWithApacheClient(webHost, GET_QUICK_RESPONSE, true, false, ContentEncoding.ANY);
+            assertEquals(200, proxiedResponse.getStatusCode());
+            assertEquals(SERVER_BACKEND, proxiedResponse.getBody());
+        }
+        Thread.sleep(1000);
+        assertEquals(3, responseCount.get());
+        assertEquals(3, requestCount.get());
+
+        Map<String, PoolStats> routeStats = proxyServer.getConnectionPoolRouteStats();
+        PoolStats stats = routeStats.get(webHost.toURI());
+        assertNotNull(stats, "No pool statistics of the route in " + routeStats);
+        assertEquals(1, stats.getMax());
+        assertEquals(0, stats.getLeased());
+        assertEquals(0, stats.getPending());
+        assertEquals(0, proxyServer.getConnectionPoolStats().getLeased());
+    }
+
+}
@@ -0,0 +1,95 @@
+package website.magyar.mitm.proxy;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+public class MetricsServerTest {
+    public static final int PROXY_TIMEOUT = 60000; //1 minute
+
+    private final ProxyServer server = new ProxyServer(0);
+    private Integer originalMetricsPort;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        originalMetricsPort = ProxyServer.getMetricsPort();
+        ProxyServer.setMetricsPort(0);
+        server.start(PROXY_TIMEOUT);
+    }
+
+    @AfterEach
+    public void stopServer() throws Exception {
+        server.stop();
+        ProxyServer.setMetricsPort(originalMetricsPort);
+    }
+
+    @Test
+    public void metricsAreExported() throws Exception {
+        int port = server.getMetricsServer().getPort();
+        Assertions.assertTrue(port > 0);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/metrics").openConnection();
+        Assertions.assertEquals(200, connection.getResponseCode());
+        Assertions.assertEquals(MetricsServer.CONTENT_TYPE, connection.getContentType());
+        String text = IOUtils.toString(connection.getInputStream(), StandardCharsets.UTF_8);
+
+        Assertions.assertTrue(text.contains("# TYPE mitm_proxy_requests_total counter\n"), text);
+        Assertions.assertTrue(text.contains("mitm_proxy_connections_open "), text);
+        Assertions.assertTrue(text.contains("mitm_proxy_threads{listener=\"proxy\",state=\"idle\"} "), text);
+        Assertions.assertTrue(text.contains("mitm_proxy_tunnels_open "), text);
+        Assertions.assertTrue(text.contains("mitm_proxy_upstream_connections_max "), text);
+        // not used, so not exported
+        Assertions.assertFalse(text.contains("mitm_proxy_cache_"), text);
+    }
+
+    @Test
+    public void latencyResetNeedsPost() throws Exception {
+        String url = "http://127.0.0.1:" + server.getMetricsServer().getPort() + "/metrics/latency/reset";
+
+        HttpURLConnection get = (HttpURLConnection) new URL(url).openConnection();
+        Assertions.assertEquals(405, get.getResponseCode());
+        Assertions.assertEquals("POST", get.getHeaderField("Allow"));
+
+        HttpURLConnection post = (HttpURLConnection) new URL(url).openConnection();
+        post.setRequestMethod("POST");
+        // the latency histograms are not used
+        Assertions.assertEquals(404, post.getResponseCode());
+    }
+
+    @Test
+    public void latencyHistogramsAreReset() throws Exception {
+        Boolean originalLatencyHistogramsEnabled = ProxyServer.getLatencyHistogramsEnabled();
+        ProxyServer.setLatencyHistogramsEnabled(true);
+        ProxyServer withHistograms = new ProxyServer(0);
+        try {
+            withHistograms.start(PROXY_TIMEOUT);
+            String url = "http://127.0.0.1:" + withHistograms.getMetricsServer().getPort() + "/metrics/latency/reset";
+
+            HttpURLConnection post = (HttpURLConnection) new URL(url).openConnection();
+            post.setRequestMethod("POST");
+            Assertions.assertEquals(204, post.getResponseCode());
+        } finally {
+            withHistograms.stop();
+            ProxyServer.setLatencyHistogramsEnabled(originalLatencyHistogramsEnabled);
+        }
+    }
+
+    @Test
+    public void textFormat() {
+        MetricsServer.TextFormat text = new MetricsServer.TextFormat();
+        text.gauge("example", "An example.");
+        text.sample("example", 1.5, "host", "a\"b\\c");
+        text.sample("example", 3);
+
+        Assertions.assertEquals("# HELP mitm_proxy_example An example.\n"
+                + "# TYPE mitm_proxy_example gauge\n"
+                + "mitm_proxy_example{host=\"a\\\"b\\\\c\"} 1.5\n"
+                + "mitm_proxy_example 3\n", text.toString());
+    }
+}
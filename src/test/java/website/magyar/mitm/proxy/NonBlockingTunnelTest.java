@@ -0,0 +1,71 @@
+package website.magyar.mitm.proxy;
+
+import net.lightbody.bmp.proxy.jetty.http.NioTunnel;
+import org.junit.jupiter.api.Test;
+import website.magyar.mitm.proxy.help.AbstractSimpleProxyTool;
+import website.magyar.mitm.proxy.help.ContentEncoding;
+import website.magyar.mitm.proxy.help.DefaultRequestInterceptor;
+import website.magyar.mitm.proxy.help.DefaultResponseInterceptor;
+import website.magyar.mitm.proxy.help.ResponseInfo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the proxy as a man in the middle, when the CONNECT tunnels are multiplexed on selector threads.
+ */
+public class NonBlockingTunnelTest extends AbstractSimpleProxyTool {
+
+    private long registeredTunnels;
+
+    @Override
+    protected void beforeProxyStart() {
+        ProxyServer.setNonBlockingTunnel(true); //!!
+    }
+
+    @Override
+    protected void setUp() {
+        DefaultRequestInterceptor defaultRequestInterceptor = new DefaultRequestInterceptor(requestCount);
+        DefaultResponseInterceptor defaultResponseInterceptor = new DefaultResponseInterceptor(responseCount);
+        proxyServer.addRequestInterceptor(defaultRequestInterceptor);
+        proxyServer.addResponseInterceptor(defaultResponseInterceptor);
+        registeredTunnels = NioTunnel.getRegisteredTunnels();
+    }
+
+    @Override
+    protected void tearDown() {
+        ProxyServer.setNonBlockingTunnel(false);
+    }
+
+    @Test
+    public void testListenerIsSelectable() {
+        assertTrue(proxyServer.getListener().isSelectable());
+        assertNotNull(proxyServer.getListener().getServerSocket().getChannel());
+    }
+
+    @Test
+    public void testSimpleGetRequestOverHTTPS() throws Exception {
+        ResponseInfo proxiedResponse = httpGetWithApacheClient(httpsWebHost, GET_QUICK_RESPONSE, true, false, ContentEncoding.ANY);
+        assertEquals(200, proxiedResponse.getStatusCode());
+        assertEquals(SERVER_BACKEND, proxiedResponse.getBody());
+        Thread.sleep(1000);
+        assertEquals(1, responseCount.get());
+        assertEquals(1, requestCount.get());
+        assertEquals(1, NioTunnel.getRegisteredTunnels() - registeredTunnels);
+    }
+
+    @Test
+    public void testSubsequentGetRequestsOverHTTPS() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ResponseInfo proxiedResponse = httpGetWithApacheClient(httpsWebHost, GET_QUICK_RESPONSE, true, false, ContentEncoding.ANY);
+            assertEquals(200, proxiedResponse.getStatusCode());
+            assertEquals(SERVER_BACKEND, proxiedResponse.getBody());
+        }
+        Thread.sleep(1000);
+        assertEquals(3, responseCount.get());
+        assertEquals(3, requestCount.get());
+        assertEquals(3, NioTunnel.getRegisteredTunnels() - registeredTunnels);
+    }
+
+}
@@ -55,6 +55,16 @@ public class SimpleProxyTimeoutTest extends AbstractSimpleProxyTool {
         assertEquals(1, requestCount.get());
     }
 
+    @Test
+    public void testTimeoutIsEnforcedOnTime() throws Exception {
+        long start = System.currentTimeMillis();
+        ResponseInfo proxiedResponse = httpGetWithApacheClient(webHost, GET_SLOW_RESPONSE, true, false, ContentEncoding.ANY);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(504, proxiedResponse.getStatusCode());
+        assertTrue(elapsed >= PROXY_SHORT_TIMEOUT, "Timed out too early: " + elapsed + " ms");
+        assertTrue(elapsed < PROXY_SHORT_TIMEOUT + 900, "Timed out too late: " + elapsed + " ms");
+    }
+
     @Test
     public void testSimpleGetRequestOverHTTPSWithTimeout() throws Exception {
         ResponseInfo proxiedResponse = httpGetWithApacheClient(httpsWebHost, GET_SLOW_RESPONSE, true, false, ContentEncoding.ANY);
@@ -0,0 +1,60 @@
+package website.magyar.mitm.proxy;
+
+import org.junit.jupiter.api.Test;
+import website.magyar.mitm.proxy.help.AbstractSimpleProxyTool;
+import website.magyar.mitm.proxy.help.ContentEncoding;
+import website.magyar.mitm.proxy.help.DefaultRequestInterceptor;
+import website.magyar.mitm.proxy.help.DefaultResponseInterceptor;
+import website.magyar.mitm.proxy.help.ResponseInfo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the proxy as a man in the middle, when the CONNECT tunnels are terminated in place, without SslRelay.
+ */
+public class SslTerminationInPlaceTest extends AbstractSimpleProxyTool {
+
+    @Override
+    protected void beforeProxyStart() {
+        ProxyServer.setSslTerminationInPlace(true); //!!
+    }
+
+    @Override
+    protected void setUp() {
+        DefaultRequestInterceptor defaultRequestInterceptor = new DefaultRequestInterceptor(requestCount);
+        DefaultResponseInterceptor defaultResponseInterceptor = new DefaultResponseInterceptor(responseCount);
+        proxyServer.addRequestInterceptor(defaultRequestInterceptor);
+        proxyServer.addResponseInterceptor(defaultResponseInterceptor);
+    }
+
+    @Override
+    protected void tearDown() {
+        ProxyServer.setSslTerminationInPlace(false);
+    }
+
+    @Test
+    public void testSimpleGetRequestOverHTTPS() throws Exception {
+        ResponseInfo proxiedResponse = httpGetWithApacheClient(httpsWebHost, GET_QUICK_RESPONSE, true, false, ContentEncoding.ANY);
+        assertEquals(200, proxiedResponse.getStatusCode());
+        assertEquals(SERVER_BACKEND, proxiedResponse.getBody());
+        Thread.sleep(1000);
+        assertEquals(1, responseCount.get());
+        assertEquals(1, requestCount.get());
+        // terminated on the connection itself, no SslRelay listener was needed
+        assertEquals(0, proxyServer.getHandler().getSslRelayCount());
+    }
+
+    @Test
+    public void testSubsequentGetRequestsOverHTTPS() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ResponseInfo proxiedResponse = httpGetWithApacheClient(httpsWebHost, GET_QUICK_RESPONSE, true, false, ContentEncoding.ANY);
+            assertEquals(200, proxiedResponse.getStatusCode());
+            assertEquals(SERVER_BACKEND, proxiedResponse.getBody());
+        }
+        Thread.sleep(1000);
+        assertEquals(3, responseCount.get());
+        assertEquals(3, requestCount.get());
+        assertEquals(0, proxyServer.getHandler().getSslRelayCount());
+    }
+
+}
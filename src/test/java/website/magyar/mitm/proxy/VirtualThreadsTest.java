@@ -0,0 +1,82 @@
+package website.magyar.mitm.proxy;
+
+import net.lightbody.bmp.proxy.jetty.http.SocketListener;
+import net.lightbody.bmp.proxy.jetty.util.ThreadedServer;
+import org.junit.jupiter.api.Test;
+import website.magyar.mitm.proxy.help.AbstractSimpleProxyTool;
+import website.magyar.mitm.proxy.help.ContentEncoding;
+import website.magyar.mitm.proxy.help.DefaultRequestInterceptor;
+import website.magyar.mitm.proxy.help.DefaultResponseInterceptor;
+import website.magyar.mitm.proxy.help.ResponseInfo;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the proxy as a man in the middle, when the proxy and the SslRelay listeners handle the connections on virtual threads
+ * (on the thread pool, if the JVM does not support them) with more than one acceptor.
+ */
+public class VirtualThreadsTest extends AbstractSimpleProxyTool {
+
+    @Override
+    protected void beforeProxyStart() {
+        ProxyServer.setVirtualThreads(true); //!!
+        ProxyServer.setAcceptors(2);
+    }
+
+    @Override
+    protected void setUp() {
+        DefaultRequestInterceptor defaultRequestInterceptor = new DefaultRequestInterceptor(requestCount);
+        DefaultResponseInterceptor defaultResponseInterceptor = new DefaultResponseInterceptor(responseCount);
+        proxyServer.addRequestInterceptor(defaultRequestInterceptor);
+        proxyServer.addResponseInterceptor(defaultResponseInterceptor);
+    }
+
+    @Override
+    protected void tearDown() {
+        ProxyServer.setVirtualThreads(false);
+        ProxyServer.setAcceptors(1);
+    }
+
+    @Test
+    public void testListenerIsConfigured() {
+        SocketListener listener = proxyServer.getListener();
+        assertEquals(2, listener.getAcceptors());
+        assertTrue(listener.getVirtualThreads());
+        assertEquals(isVirtualThreadsSupported(), listener.isExecutorMode());
+    }
+
+    @Test
+    public void testSimpleGetRequestOverHTTPS() throws Exception {
+        ResponseInfo proxiedResponse = httpGetWithApacheClient(httpsWebHost, GET_QUICK_RESPONSE, true, false, ContentEncoding.ANY);
+        assertEquals(200, proxiedResponse.getStatusCode());
+        assertEquals(SERVER_BACKEND, proxiedResponse.getBody());
+        Thread.sleep(1000);
+        assertEquals(1, responseCount.get());
+        assertEquals(1, requestCount.get());
+    }
+
+    @Test
+    public void testSubsequentGetRequestsOverHTTPS() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ResponseInfo proxiedResponse = httpGetWithApacheClient(httpsWebHost, GET_QUICK_RESPONSE, true, false, ContentEncoding.ANY);
+            assertEquals(200, proxiedResponse.getStatusCode());
+            assertEquals(SERVER_BACKEND, proxiedResponse.getBody());
+        }
+        Thread.sleep(1000);
+        assertEquals(3, responseCount.get());
+        assertEquals(3, requestCount.get());
+    }
+
+    private boolean isVirtualThreadsSupported() {
+        ExecutorService executor = ThreadedServer.newVirtualThreadExecutor();
+        if (executor == null) {
+            return false;
+        }
+        executor.shutdown();
+        return true;
+    }
+
+}
@@ -66,12 +66,19 @@ public abstract class AbstractSimpleProxyTool {
 
     protected abstract void setUp() throws Exception;
 
+    /**
+     * Called before the proxy is started, to apply the static ProxyServer settings the test needs.
+     */
+    protected void beforeProxyStart() throws Exception {
+    }
+
     private void initializeCounters() {
         requestCount = new AtomicInteger(0);
         responseCount = new AtomicInteger(0);
     }
 
     private void startProxy() throws Exception {
+        beforeProxyStart();
         proxyServer = new ProxyServer(0);
         proxyServer.start(PROXY_SHORT_TIMEOUT);
         proxyPort = proxyServer.getPort();
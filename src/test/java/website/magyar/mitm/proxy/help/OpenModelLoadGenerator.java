@@ -0,0 +1,188 @@
+package website.magyar.mitm.proxy.help;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open model load generator: the requests are started at a fixed rate, independently of how fast the earlier ones
+ * are answered. The latency of a request is measured from the time it was supposed to start, not from the time it
+ * could actually start, so the time spent waiting for a free worker is part of it (coordinated omission correction).
+ * The requests that are still not done at the end of the run are counted as failed, with the time they have waited
+ * so far as their latency, so they are not left out of the percentiles.
+ * <p>
+ * The settings can be overridden with the load.rate (requests/s), load.duration and load.warmup (s) and
+ * load.concurrency (parallel requests) system properties.
+ */
+public class OpenModelLoadGenerator {
+
+    private final Logger logger = LoggerFactory.getLogger(OpenModelLoadGenerator.class);
+    private final int rate;
+    private final int durationS;
+    private final int warmupS;
+    private final int concurrency;
+
+    /**
+     * One request of the load, it throws if the request failed.
+     */
+    public interface LoadRequest {
+        void execute() throws Exception;
+    }
+
+    public OpenModelLoadGenerator(final int rate, final int durationS, final int warmupS, final int concurrency) {
+        this.rate = Integer.getInteger("load.rate", rate);
+        this.durationS = Integer.getInteger("load.duration", durationS);
+        this.warmupS = Integer.getInteger("load.warmup", warmupS);
+        this.concurrency = Integer.getInteger("load.concurrency", concurrency);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Runs the warmup, then the measured load.
+     *
+     * @param name    is the name of the scenario, for the report
+     * @param request is the request to send
+     * @return with the report of the measured part
+     */
+    public LoadReport run(final String name, final LoadRequest request) throws InterruptedException {
+        if (warmupS > 0) {
+            generate(name + " (warmup)", request, warmupS);
+        }
+        LoadReport report = generate(name, request, durationS);
+        logger.info("*** {}", report);
+        return report;
+    }
+
+    private LoadReport generate(final String name, final LoadRequest request, final int seconds) throws InterruptedException {
+        int total = rate * seconds;
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long[] latencies = new long[total];
+        Arrays.fill(latencies, -1);
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        long peakHeap = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            final int index = i;
+            final long intendedStart = start + i * period;
+            long delay = intendedStart - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            executor.execute(() -> {
+                try {
+                    request.execute();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                    logger.debug("Request failed under load.", e);
+                }
+                latencies[index] = System.nanoTime() - intendedStart;
+                completed.incrementAndGet();
+            });
+            if (i % rate == 0) {
+                peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+            }
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(seconds + 60L, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+        long end = System.nanoTime();
+        long elapsed = end - start;
+        for (int i = 0; i < total; i++) {
+            if (latencies[i] < 0) {
+                latencies[i] = end - (start + i * period);
+            }
+        }
+        peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+        // the requests still not done are counted as failed
+        int failed = errors.get() + total - completed.get();
+        return new LoadReport(name, rate, latencies, failed, elapsed, peakHeap, threads.getPeakThreadCount());
+    }
+
+    /**
+     * The outcome of a load run.
+     */
+    public static final class LoadReport {
+        private final String name;
+        private final int rate;
+        private final long[] latencies;
+        private final int errors;
+        private final long elapsedNanos;
+        private final long peakHeapBytes;
+        private final int peakThreads;
+
+        LoadReport(final String name, final int rate, final long[] latencies, final int errors, final long elapsedNanos,
+                   final long peakHeapBytes, final int peakThreads) {
+            this.name = name;
+            this.rate = rate;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.peakHeapBytes = peakHeapBytes;
+            this.peakThreads = peakThreads;
+        }
+
+        public int getRequests() {
+            return latencies.length;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the achieved throughput, the requests completed without an error, in requests/s
+         */
+        public double getThroughput() {
+            return (latencies.length - errors) * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @param percentile is between 0 and 100
+         * @return the latency at the percentile, in ms
+         */
+        public double getLatency(final double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        public int getPeakThreads() {
+            return peakThreads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d requests at %d/s, %d errors, throughput %.1f/s, latency p50 %.3f ms,"
+                            + " p99 %.3f ms, p99.9 %.3f ms, max %.3f ms, peak heap %d MB, peak threads %d",
+                    name, latencies.length, rate, errors, getThroughput(), getLatency(50), getLatency(99), getLatency(99.9),
+                    getLatency(100), peakHeapBytes / (1024 * 1024), peakThreads);
+        }
+    }
+}
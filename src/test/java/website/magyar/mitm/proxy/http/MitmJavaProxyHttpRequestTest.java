@@ -0,0 +1,44 @@
+package website.magyar.mitm.proxy.http;
+
+import net.lightbody.bmp.proxy.util.RequestBodyBuffer;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class MitmJavaProxyHttpRequestTest {
+    private static final byte[] ORIGINAL_BODY = "original body".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] REPLACED_BODY = "replaced by an interceptor".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testOriginalBodyIsCaptured() throws IOException {
+        MitmJavaProxyHttpRequest underTest = newRequest(true);
+        assertArrayEquals(ORIGINAL_BODY, underTest.getCapturedBody());
+    }
+
+    @Test
+    public void testReplacedBodyIsCaptured() throws IOException {
+        MitmJavaProxyHttpRequest underTest = newRequest(true);
+        underTest.setBody(REPLACED_BODY);
+        assertArrayEquals(REPLACED_BODY, underTest.getCapturedBody());
+    }
+
+    @Test
+    public void testBodyIsNotCapturedWhenNotCollected() throws IOException {
+        MitmJavaProxyHttpRequest underTest = newRequest(false);
+        underTest.setBody(REPLACED_BODY);
+        assertNull(underTest.getCapturedBody());
+    }
+
+    private MitmJavaProxyHttpRequest newRequest(boolean collectAdditionalInfo) throws IOException {
+        MitmJavaProxyHttpRequest request = new MitmJavaProxyHttpRequest(new HttpPost("http://127.0.0.1/"), null, -1, collectAdditionalInfo, null);
+        request.setRequestBodyBuffer(RequestBodyBuffer.read(new ByteArrayInputStream(ORIGINAL_BODY), 1000));
+        return request;
+    }
+
+}
@@ -0,0 +1,165 @@
+package website.magyar.mitm.proxy.load;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import website.magyar.mitm.proxy.ProxyServer;
+import website.magyar.mitm.proxy.RequestInterceptor;
+import website.magyar.mitm.proxy.ResponseInterceptor;
+import website.magyar.mitm.proxy.help.ClientServerBase;
+import website.magyar.mitm.proxy.help.OpenModelLoadGenerator;
+import website.magyar.mitm.proxy.help.OpenModelLoadGenerator.LoadReport;
+import website.magyar.mitm.proxy.help.ProxyServerBase;
+import website.magyar.mitm.proxy.http.MitmJavaProxyHttpRequest;
+import website.magyar.mitm.proxy.http.MitmJavaProxyHttpResponse;
+
+import javax.net.ssl.SSLContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+/**
+ * Drives the proxy at a fixed request rate against the local back-end, over plain HTTP and over CONNECT/MITM, with
+ * volatile and not volatile responses, and with interceptors. Each test logs the latency percentiles, the
+ * throughput, the heap and the thread count of its run, and fails if any request failed.
+ * <p>
+ * They are not part of the build, run them with ./gradlew loadTest. The defaults are kept small, for a real
+ * measurement run the tests with a higher rate and duration,
+ * e.g. -Dload.rate=2000 -Dload.duration=60 -Dload.warmup=20 -Dload.concurrency=200.
+ */
+@Tag("load")
+public class ProxyLoadTest extends ClientServerBase {
+    private static final String GET_REQUEST = "/loadTest";
+    private final OpenModelLoadGenerator generator = new OpenModelLoadGenerator(100, 3, 1, 32);
+    private Boolean originalResponseVolatile;
+
+    @Override
+    protected void setUp() {
+        originalResponseVolatile = ProxyServer.getResponseVolatile();
+    }
+
+    @Override
+    protected void tearDown() {
+        ProxyServer.setResponseVolatile(originalResponseVolatile);
+    }
+
+    @Override
+    protected int getProxyTimeout() {
+        return ProxyServerBase.PROXY_LONG_TIMEOUT;
+    }
+
+    @Override
+    protected void evaluateServerRequestResponse(HttpServletRequest request, HttpServletResponse response, String bodyString) {
+    }
+
+    @Test
+    public void httpNotVolatileLoadTest() throws Exception {
+        runLoad("HTTP, not volatile", getHttpHost(), false, false);
+    }
+
+    @Test
+    public void httpVolatileLoadTest() throws Exception {
+        runLoad("HTTP, volatile", getHttpHost(), true, false);
+    }
+
+    @Test
+    public void httpWithInterceptorsLoadTest() throws Exception {
+        runLoad("HTTP, volatile, with interceptors", getHttpHost(), true, true);
+    }
+
+    @Test
+    public void httpsNotVolatileLoadTest() throws Exception {
+        runLoad("HTTPS (MITM), not volatile", getSecureHost(), false, false);
+    }
+
+    @Test
+    public void httpsVolatileLoadTest() throws Exception {
+        runLoad("HTTPS (MITM), volatile", getSecureHost(), true, false);
+    }
+
+    @Test
+    public void httpsWithInterceptorsLoadTest() throws Exception {
+        runLoad("HTTPS (MITM), volatile, with interceptors", getSecureHost(), true, true);
+    }
+
+    private void runLoad(final String name, final HttpHost target, final boolean responseVolatile, final boolean interceptors) throws Exception {
+        ProxyServer.setResponseVolatile(responseVolatile);
+        if (interceptors) {
+            getProxyServer().addRequestInterceptor(new TestRequestInterceptor());
+            getProxyServer().addResponseInterceptor(new TestResponseInterceptor());
+        }
+        try (CloseableHttpClient httpClient = getPooledHttpClient(generator.getConcurrency())) {
+            LoadReport report = generator.run(name, () -> {
+                HttpGet request = new HttpGet(GET_REQUEST);
+                HttpResponse response = httpClient.execute(target, request);
+                int statusCode = response.getStatusLine().getStatusCode();
+                EntityUtils.consume(response.getEntity());
+                if (statusCode != 200) {
+                    throw new IllegalStateException("Response status code is: " + statusCode);
+                }
+            });
+            Assertions.assertEquals(0, report.getErrors(), report.toString());
+            Assertions.assertNull(getLastException());
+        }
+    }
+
+    /**
+     * Creates a client that uses the proxy, and can run the given number of requests in parallel.
+     */
+    private CloseableHttpClient getPooledHttpClient(final int maxConnections) throws Exception {
+        SSLContext sslContext = SSLContextBuilder.create()
+                .loadTrustMaterial(new TrustStrategy() {
+                    @Override
+                    public boolean isTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                        return true;
+                    }
+                })
+                .build();
+        SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
+        Registry<ConnectionSocketFactory> socketFactoryRegistry =
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("https", sslsf)
+                        .register("http", new PlainConnectionSocketFactory())
+                        .build();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setProxy(new HttpHost("127.0.0.1", getProxyPort()))
+                .build();
+    }
+
+    class TestRequestInterceptor implements RequestInterceptor {
+
+        @Override
+        public void process(MitmJavaProxyHttpRequest request) {
+            request.getMethod().addHeader("A", "A");
+        }
+    }
+
+    class TestResponseInterceptor implements ResponseInterceptor {
+
+        @Override
+        public void process(MitmJavaProxyHttpResponse response) {
+            response.addHeader(new BasicHeader("B", response.getEntry().getMessageId()));
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package website.magyar.mitm.proxy.response;
+
+import net.lightbody.bmp.core.har.HarEntry;
+import net.lightbody.bmp.core.har.HarStreamWriter;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Test;
+import website.magyar.mitm.proxy.ProxyServer;
+import website.magyar.mitm.proxy.ResponseInterceptor;
+import website.magyar.mitm.proxy.StreamingResponseInterceptor;
+import website.magyar.mitm.proxy.help.ClientServerBase;
+import website.magyar.mitm.proxy.help.ContentEncoding;
+import website.magyar.mitm.proxy.help.ProxyServerBase;
+import website.magyar.mitm.proxy.help.TestUtils;
+import website.magyar.mitm.proxy.http.MitmJavaProxyHttpResponse;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * This test checks if the volatile response body can be rewritten on the fly by the streaming response interceptors.
+ * Tests:
+ * - No additional header - body untouched
+ * - If header "A" added - body is upper cased, chunk by chunk
+ * - If header "B" added - body is held back and sent at the end, followed by a trailer
+ * - Response interceptors are still called, and can alter the status, but see no body
+ * - The HAR entry is completed after the interceptors and the streaming, with the final status and the body size
+ * - If header "X" added - the response interceptor fails, and the upstream connection of the body is released
+ */
+public class StreamingResponseBodyManipulationTest extends ClientServerBase {
+    public static final String GET_REQUEST = "/anyUrl";
+    private static final String TRAILER = "-trailer";
+    private HttpGet request;
+
+    @Override
+    protected void setUp() throws Exception {
+        getProxyServer().addResponseInterceptor(new TestResponseInterceptor());
+        getProxyServer().addStreamingResponseInterceptor(new TestStreamingResponseInterceptor());
+        ProxyServer.setResponseVolatile(true); //this is a must !!!
+        request = new HttpGet(GET_REQUEST);
+    }
+
+    @Override
+    protected int getProxyTimeout() {
+        return ProxyServerBase.PROXY_LONG_TIMEOUT;
+    }
+
+    @Override
+    protected void tearDown() {
+        ProxyServer.setResponseVolatile(false);
+    }
+
+    @Override
+    protected void evaluateServerRequestResponse(HttpServletRequest request, HttpServletResponse response, String bodyString) {
+    }
+
+    @Test
+    public void harEntryIsCompletedAfterStreaming() throws Exception {
+        List<HarEntry> written = new CopyOnWriteArrayList<>();
+        getProxyServer().newHar("page");
+        getProxyServer().setHarStreamWriter(new HarStreamWriter(new File("."), "unused", 0, 0, false) {
+            @Override
+            public void write(HarEntry entry) {
+                written.add(entry);
+            }
+        });
+        request.addHeader("F", "F");
+        assertEquals(SERVER_BACKEND, get(false, 404));
+
+        // the entry is completed by the proxy once the answer is sent, which may be a bit later than the client got it
+        for (int i = 0; i < 50 && written.isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, written.size());
+        assertEquals(404, written.get(0).getResponse().getStatus());
+        assertEquals(SERVER_BACKEND.length(), written.get(0).getResponse().getBodySize());
+    }
+
+    @Test
+    public void failedInterceptorReleasesTheUpstreamConnection() throws Exception {
+        request.addHeader("X", "X");
+        try (CloseableHttpClient httpClient = TestUtils.buildHttpClient(true, getProxyPort(), ContentEncoding.NONE)) {
+            HttpResponse response = httpClient.execute(getHttpHost(), request);
+            EntityUtils.consume(response.getEntity());
+        }
+
+        for (int i = 0; i < 50 && getProxyServer().getConnectionPoolStats().getLeased() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, getProxyServer().getConnectionPoolStats().getLeased());
+    }
+
+    @Test
+    public void noBodyChange() throws Exception {
+        assertEquals(SERVER_BACKEND, get(false, 200));
+    }
+
+    @Test
+    public void noBodyChangeSecure() throws Exception {
+        assertEquals(SERVER_BACKEND, get(true, 200));
+    }
+
+    @Test
+    public void upperCaseBody() throws Exception {
+        request.addHeader("A", "A");
+        assertEquals(SERVER_BACKEND.toUpperCase(), get(false, 200));
+    }
+
+    @Test
+    public void upperCaseBodySecure() throws Exception {
+        request.addHeader("A", "A");
+        assertEquals(SERVER_BACKEND.toUpperCase(), get(true, 200));
+    }
+
+    @Test
+    public void holdBackBodyAndAddTrailer() throws Exception {
+        request.addHeader("B", "B");
+        assertEquals(SERVER_BACKEND + TRAILER, get(false, 200));
+    }
+
+    @Test
+    public void alterStatusOfStreamedResponse() throws Exception {
+        request.addHeader("F", "F");
+        assertEquals(SERVER_BACKEND, get(false, 404));
+    }
+
+    private String get(boolean secure, int expectedStatus) throws Exception {
+        try (CloseableHttpClient httpClient = TestUtils.buildHttpClient(true, getProxyPort(), ContentEncoding.NONE)) {
+            HttpResponse response = httpClient.execute(secure ? getSecureHost() : getHttpHost(), request); //request is here
+            String body = EntityUtils.toString(response.getEntity());
+            assertEquals(expectedStatus, response.getStatusLine().getStatusCode(), "HTTP Response Status code is:" + response.getStatusLine().getStatusCode());
+            assertNull(getLastException());
+            return body;
+        }
+    }
+
+    class TestResponseInterceptor implements ResponseInterceptor {
+
+        @Override
+        public void process(MitmJavaProxyHttpResponse response) {
+            detectIssue(!response.isBodyStreamed(), "Response body is expected to be streamed");
+            detectIssue(response.getBodyBytes() != null, "Streamed response body shall not be available");
+            if (response.findHeader(response.getRequestHeaders(), "F") != null) {
+                response.setStatus(404);
+            }
+            if (response.findHeader(response.getRequestHeaders(), "X") != null) {
+                throw new IllegalStateException("Failing on purpose");
+            }
+        }
+    }
+
+    class TestStreamingResponseInterceptor implements StreamingResponseInterceptor {
+        private final ThreadLocal<StringBuilder> heldBack = ThreadLocal.withInitial(StringBuilder::new);
+
+        @Override
+        public ByteBuffer process(MitmJavaProxyHttpResponse response, ByteBuffer chunk) {
+            Header[] requestHeaders = response.getRequestHeaders();
+            String text = StandardCharsets.UTF_8.decode(chunk).toString();
+
+            //alter body - if 'A' header - upper case every chunk
+            if (response.findHeader(requestHeaders, "A") != null) {
+                return StandardCharsets.UTF_8.encode(text.toUpperCase());
+            }
+
+            //alter body - if 'B' header - hold back everything until the end
+            if (response.findHeader(requestHeaders, "B") != null) {
+                heldBack.get().append(text);
+                return null;
+            }
+            return StandardCharsets.UTF_8.encode(text);
+        }
+
+        @Override
+        public ByteBuffer finish(MitmJavaProxyHttpResponse response) {
+            if (response.findHeader(response.getRequestHeaders(), "B") != null) {
+                String text = heldBack.get().append(TRAILER).toString();
+                heldBack.remove();
+                return StandardCharsets.UTF_8.encode(text);
+            }
+            return null;
+        }
+    }
+}